@@ -31,29 +31,53 @@ import com.esri.ges.core.validation.ValidationException;
 public class NMEAGPGGAMessageTranslator extends NMEAMessageTranslator
 {
   @Override
-  public void translate(GeoEvent geoEvent, String[] data) throws FieldException
+  public void translate(NmeaChannel channel, GeoEvent geoEvent, NmeaSentence sentence) throws FieldException
   {
-    int i = 1;
-    geoEvent.setField(i++, toTime(data[1], null));
-    geoEvent.setField(i++, toPoint(data[2], data[4], "N".equals(data[3]), "E".equals(data[5])));
-    geoEvent.setField(i++, convertToShort(data[6]));
-    geoEvent.setField(i++, convertToShort(data[7]));
-    geoEvent.setField(i++, convertToDouble(data[8]));
-    geoEvent.setField(i++, convertToDouble(data[9]));
-    geoEvent.setField(i++, data[10]);
-    geoEvent.setField(i++, convertToDouble(data[11]));
-    geoEvent.setField(i++, data[12]);
-    geoEvent.setField(i++, data[13]);
-    geoEvent.setField(i++, data[14].split("\\*")[0]);
-
-    if (LOGGER.isTraceEnabled() && data != null && data.length > 0)
-      LOGGER.trace("Translated GPGGA {0} to {1}", String.join(" ", data), geoEvent);
+    int i = 2;
+    geoEvent.setField(i++, toTime(channel, sentence, 1, -1));
+    geoEvent.setField(i++, toPoint(sentence, 2, 4));
+    geoEvent.setField(i++, toShort(sentence, 6));
+    geoEvent.setField(i++, toShort(sentence, 7));
+    geoEvent.setField(i++, toDouble(sentence, 8));
+    geoEvent.setField(i++, toDouble(sentence, 9));
+    geoEvent.setField(i++, sentence.getString(10));
+    geoEvent.setField(i++, toDouble(sentence, 11));
+    geoEvent.setField(i++, sentence.getString(12));
+    geoEvent.setField(i++, sentence.getString(13));
+    geoEvent.setField(i++, sentence.getString(14));
+
+    if (LOGGER.isTraceEnabled())
+      LOGGER.trace("Translated GPGGA {0} to {1}", sentence, geoEvent);
+  }
+
+  @Override
+  protected long getTimeOfDay(NmeaSentence sentence)
+  {
+    return parseTimeOfDay(sentence, 1);
+  }
+
+  @Override
+  protected void fuse(NmeaChannel channel, NmeaSentence sentence, NmeaFix fix) throws FieldException
+  {
+    fix.setTime(toEpochMillis(channel, sentence, 1, -1));
+    double lat = parseLatitude(sentence, 2);
+    double lon = parseLongitude(sentence, 4);
+    if (!Double.isNaN(lat) && !Double.isNaN(lon))
+      fix.setPosition(lat, lon);
+    double quality = parseDouble(sentence, 6);
+    if (!Double.isNaN(quality))
+      fix.setQuality((int) quality);
+    double satellites = parseDouble(sentence, 7);
+    if (!Double.isNaN(satellites))
+      fix.setSatellites((int) satellites);
+    fix.setHdop(parseDouble(sentence, 8));
+    fix.setAltitude(parseDouble(sentence, 9));
   }
 
   @Override
-  protected void validate(String[] data) throws ValidationException
+  protected void validate(NmeaSentence sentence) throws ValidationException
   {
-    if (data == null || data.length != 15)
+    if (sentence.getFieldCount() != 15)
       throw new ValidationException(LOGGER.translate("INVALID_NMEAGPGG_MSG"));
   }
 }
@@ -31,21 +31,43 @@ import com.esri.ges.core.validation.ValidationException;
 public class NMEAGPGLLMessageTranslator extends NMEAMessageTranslator
 {
   @Override
-  public void translate(GeoEvent geoEvent, String[] data) throws FieldException
+  public void translate(NmeaChannel channel, GeoEvent geoEvent, NmeaSentence sentence) throws FieldException
   {
-    int i = 1;
-    geoEvent.setField(i++, toTime(data[5], null));
-    geoEvent.setField(i++, toPoint(data[1], data[3], "N".equals(data[2]), "E".equals(data[4])));
-    geoEvent.setField(i++, data[6].split("\\*")[0]);
+    int i = 2;
+    geoEvent.setField(i++, toTime(channel, sentence, 5, -1));
+    geoEvent.setField(i++, toPoint(sentence, 1, 3));
+    geoEvent.setField(i++, sentence.getString(6));
 
-    if (LOGGER.isTraceEnabled() && data != null && data.length > 0)
-      LOGGER.trace("Translated GPGLL {0} to {1}", String.join(" ", data), geoEvent);
+    if (LOGGER.isTraceEnabled())
+      LOGGER.trace("Translated GPGLL {0} to {1}", sentence, geoEvent);
   }
 
   @Override
-  protected void validate(String[] data) throws ValidationException
+  protected long getTimeOfDay(NmeaSentence sentence)
   {
-    if (data == null || data.length < 7)
+    return parseTimeOfDay(sentence, 5);
+  }
+
+  @Override
+  protected void fuse(NmeaChannel channel, NmeaSentence sentence, NmeaFix fix) throws FieldException
+  {
+    if (fix.getTime() == NmeaTimeParser.INVALID)
+      fix.setTime(toEpochMillis(channel, sentence, 5, -1));
+    if (!fix.hasPosition())
+    {
+      double lat = parseLatitude(sentence, 1);
+      double lon = parseLongitude(sentence, 3);
+      if (!Double.isNaN(lat) && !Double.isNaN(lon))
+        fix.setPosition(lat, lon);
+    }
+    if (fix.getValidity() == 0)
+      fix.setValidity(parseFlag(sentence, 6));
+  }
+
+  @Override
+  protected void validate(NmeaSentence sentence) throws ValidationException
+  {
+    if (sentence.getFieldCount() < 7)
       throw new ValidationException(LOGGER.translate("INVALID_NMEAGPGLL_MSG"));
   }
 }
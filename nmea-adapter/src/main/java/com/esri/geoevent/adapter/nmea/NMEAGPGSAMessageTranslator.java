@@ -33,38 +33,49 @@ import com.esri.ges.core.validation.ValidationException;
 public class NMEAGPGSAMessageTranslator extends NMEAMessageTranslator
 {
   @Override
-  public void translate(GeoEvent geoEvent, String[] data) throws FieldException
+  public void translate(NmeaChannel channel, GeoEvent geoEvent, NmeaSentence sentence) throws FieldException
   {
-    int i = 1;
+    int i = 2;
 
     // GSA Satellite status
-    geoEvent.setField(i++, data[1]); // Auto selection (A or M)
-    geoEvent.setField(i++, data[2]);// 3D Fix (1=none,2=2D,3=3D)
-    geoEvent.setField(i++, data[3]);// PRN 01
-    geoEvent.setField(i++, data[4]);// PRN 02
-    geoEvent.setField(i++, data[5]);// PRN 03
-    geoEvent.setField(i++, data[6]);// PRN 04
-    geoEvent.setField(i++, data[7]);// PRN 05
-    geoEvent.setField(i++, data[8]);// PRN 06
-    geoEvent.setField(i++, data[9]);// PRN 07
-    geoEvent.setField(i++, data[10]);// PRN 08
-    geoEvent.setField(i++, data[11]);// PRN 09
-    geoEvent.setField(i++, data[12]);// PRN 10
-    geoEvent.setField(i++, data[13]);// PRN 11
-    geoEvent.setField(i++, data[14]);// PRN 12
-    geoEvent.setField(i++, convertToDouble(data[15]));// PDOP
-    geoEvent.setField(i++, convertToDouble(data[16]));// HDOP
-    geoEvent.setField(i++, convertToDouble(data[17].split("\\*")[0]));// VDOP
+    geoEvent.setField(i++, sentence.getString(1)); // Auto selection (A or M)
+    geoEvent.setField(i++, sentence.getString(2));// 3D Fix (1=none,2=2D,3=3D)
+    geoEvent.setField(i++, sentence.getString(3));// PRN 01
+    geoEvent.setField(i++, sentence.getString(4));// PRN 02
+    geoEvent.setField(i++, sentence.getString(5));// PRN 03
+    geoEvent.setField(i++, sentence.getString(6));// PRN 04
+    geoEvent.setField(i++, sentence.getString(7));// PRN 05
+    geoEvent.setField(i++, sentence.getString(8));// PRN 06
+    geoEvent.setField(i++, sentence.getString(9));// PRN 07
+    geoEvent.setField(i++, sentence.getString(10));// PRN 08
+    geoEvent.setField(i++, sentence.getString(11));// PRN 09
+    geoEvent.setField(i++, sentence.getString(12));// PRN 10
+    geoEvent.setField(i++, sentence.getString(13));// PRN 11
+    geoEvent.setField(i++, sentence.getString(14));// PRN 12
+    geoEvent.setField(i++, toDouble(sentence, 15));// PDOP
+    geoEvent.setField(i++, toDouble(sentence, 16));// HDOP
+    geoEvent.setField(i++, toDouble(sentence, 17));// VDOP
     geoEvent.setField(i++, new Date());// Timestamp
+    // NMEA 4.10 and later add the GNSS system ID (1=GPS, 2=GLONASS,
+    // 3=Galileo, 4=BeiDou, ...)
+    if (sentence.getFieldCount() > 18)
+      geoEvent.setField(i++, sentence.getString(18));
 
-    if (LOGGER.isTraceEnabled() && data != null && data.length > 0)
-      LOGGER.trace("Translated GPGSA message string [ {0} ] to geoevent: [ {1} ]", String.join(" ", data), geoEvent);
+    if (LOGGER.isTraceEnabled())
+      LOGGER.trace("Translated GPGSA message string [ {0} ] to geoevent: [ {1} ]", sentence, geoEvent);
   }
 
   @Override
-  protected void validate(String[] data) throws ValidationException
+  protected void fuse(NmeaChannel channel, NmeaSentence sentence, NmeaFix fix) throws FieldException
   {
-    if (data == null || data.length != 18)
+    fix.setFixType(parseFlag(sentence, 2));
+    fix.setDilutionOfPrecision(parseDouble(sentence, 15), parseDouble(sentence, 16), parseDouble(sentence, 17));
+  }
+
+  @Override
+  protected void validate(NmeaSentence sentence) throws ValidationException
+  {
+    if (sentence.getFieldCount() < 18)
       throw new ValidationException(LOGGER.translate("INVALID_NMEAGPGSA_MSG"));
   }
 }
@@ -31,31 +31,48 @@ import com.esri.ges.core.validation.ValidationException;
 public class NMEAGPRMCMessageTranslator extends NMEAMessageTranslator
 {
   @Override
-  public void translate(GeoEvent geoEvent, String[] data) throws FieldException
+  public void translate(NmeaChannel channel, GeoEvent geoEvent, NmeaSentence sentence) throws FieldException
   {
-    int i = 1;
-    geoEvent.setField(i++, toTime(data[1], data[9]));
-    geoEvent.setField(i++, toPoint(data[3], data[5], "N".equals(data[4]), "E".equals(data[6])));
-    geoEvent.setField(i++, data[2]);
-    geoEvent.setField(i++, convertToDouble(data[7]));
-    geoEvent.setField(i++, convertToDouble(data[8]));
-    geoEvent.setField(i++, convertToDouble(data[10]));
-
-    if (data.length == 12)
-      geoEvent.setField(i++, data[11].split("\\*")[0]);
-    else
-    {
-      geoEvent.setField(i++, data[11]);
-      geoEvent.setField(i++, data[12].split("\\*")[0]);
-    }
-    if (LOGGER.isTraceEnabled() && data != null && data.length > 0)
-      LOGGER.trace("Translated GPRMC {0} to {1}", String.join(" ", data), geoEvent);
+    int i = 2;
+    geoEvent.setField(i++, toTime(channel, sentence, 1, 9));
+    geoEvent.setField(i++, toPoint(sentence, 3, 5));
+    geoEvent.setField(i++, sentence.getString(2));
+    geoEvent.setField(i++, toDouble(sentence, 7));
+    geoEvent.setField(i++, toDouble(sentence, 8));
+    geoEvent.setField(i++, toDouble(sentence, 10));
+
+    geoEvent.setField(i++, sentence.getString(11));
+    if (sentence.getFieldCount() > 12)
+      geoEvent.setField(i++, sentence.getString(12));
+
+    if (LOGGER.isTraceEnabled())
+      LOGGER.trace("Translated GPRMC {0} to {1}", sentence, geoEvent);
+  }
+
+  @Override
+  protected long getTimeOfDay(NmeaSentence sentence)
+  {
+    return parseTimeOfDay(sentence, 1);
+  }
+
+  @Override
+  protected void fuse(NmeaChannel channel, NmeaSentence sentence, NmeaFix fix) throws FieldException
+  {
+    // RMC carries the date, so its time wins over the other sentences'
+    fix.setTime(toEpochMillis(channel, sentence, 1, 9));
+    double lat = parseLatitude(sentence, 3);
+    double lon = parseLongitude(sentence, 5);
+    if (!Double.isNaN(lat) && !Double.isNaN(lon))
+      fix.setPosition(lat, lon);
+    fix.setValidity(parseFlag(sentence, 2));
+    fix.setSpeed(parseDouble(sentence, 7));
+    fix.setCourse(parseDouble(sentence, 8));
   }
 
   @Override
-  protected void validate(String[] data) throws ValidationException
+  protected void validate(NmeaSentence sentence) throws ValidationException
   {
-    if (data == null || data.length < 12)
+    if (sentence.getFieldCount() < 12)
       throw new ValidationException(LOGGER.translate("INVALID_NMEAGPRMC_MSG"));
   }
 }
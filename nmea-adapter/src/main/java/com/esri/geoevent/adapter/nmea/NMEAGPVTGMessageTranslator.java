@@ -33,57 +33,55 @@ import com.esri.ges.core.validation.ValidationException;
 public class NMEAGPVTGMessageTranslator extends NMEAMessageTranslator
 {
   @Override
-  public void translate(GeoEvent geoEvent, String[] data) throws FieldException
+  public void translate(NmeaChannel channel, GeoEvent geoEvent, NmeaSentence sentence) throws FieldException
   {
-    int i = 1;
+    int i = 2;
 
     // VTG Velocity Made Good
-    geoEvent.setField(i++, convertToDouble(getTrue(data)));// True
-    geoEvent.setField(i++, convertToDouble(getMag(data)));// Mag
-    geoEvent.setField(i++, convertToDouble(getKnots(data)));// Knots
-    geoEvent.setField(i++, convertToDouble(getKPH(data)));// KPH
+    geoEvent.setField(i++, getValue(sentence, 'T'));// True
+    geoEvent.setField(i++, getValue(sentence, 'M'));// Mag
+    geoEvent.setField(i++, getValue(sentence, 'N'));// Knots
+    geoEvent.setField(i++, getValue(sentence, 'K'));// KPH
     geoEvent.setField(i++, new Date());// ReceiveTime
 
     if (LOGGER.isTraceEnabled())
-      LOGGER.trace("Translated GPVTG message string [ {0} ] to geoevent: [ {1} ]", String.join(" ", data), geoEvent);
+      LOGGER.trace("Translated GPVTG message string [ {0} ] to geoevent: [ {1} ]", sentence, geoEvent);
   }
 
   @Override
-  protected void validate(String[] data) throws ValidationException
+  protected void fuse(NmeaChannel channel, NmeaSentence sentence, NmeaFix fix) throws FieldException
   {
-    if (data == null || data.length < 9)
-      throw new ValidationException(LOGGER.translate("INVALID_NMEAGPVTG_MSG"));
+    int speed = indexOf(sentence, 'N');
+    if (speed > 0 && Double.isNaN(fix.getSpeed()))
+      fix.setSpeed(parseDouble(sentence, speed - 1));
+    int course = indexOf(sentence, 'T');
+    if (course > 0 && Double.isNaN(fix.getCourse()))
+      fix.setCourse(parseDouble(sentence, course - 1));
   }
 
-  private String getTrue(String[] data)
-  {
-    return getValue(data, "T");
-  }
-
-  private String getMag(String[] data)
-  {
-    return getValue(data, "M");
-  }
-
-  private String getKnots(String[] data)
+  @Override
+  protected void validate(NmeaSentence sentence) throws ValidationException
   {
-    return getValue(data, "N");
+    if (sentence.getFieldCount() < 9)
+      throw new ValidationException(LOGGER.translate("INVALID_NMEAGPVTG_MSG"));
   }
 
-  private String getKPH(String[] data)
+  /**
+   * VTG values are each followed by their unit field (T, M, N or K).
+   */
+  private Double getValue(NmeaSentence sentence, char key)
   {
-    return getValue(data, "K");
+    int i = indexOf(sentence, key);
+    return (i > 0) ? toDouble(sentence, i - 1) : null;
   }
 
-  private String getValue(String[] data, String key)
+  private int indexOf(NmeaSentence sentence, char key)
   {
-    for (int i = 1; i < data.length; i++)
+    for (int i = 1; i < sentence.getFieldCount(); i++)
     {
-      if (data[i].toLowerCase().startsWith(key.toLowerCase()))
-      {
-        return data[i - 1];
-      }
+      if (sentence.startsWithIgnoreCase(i, key))
+        return i;
     }
-    return "";
+    return -1;
   }
 }
@@ -24,9 +24,7 @@
 
 package com.esri.geoevent.adapter.nmea;
 
-import java.util.Calendar;
 import java.util.Date;
-import java.util.TimeZone;
 
 import com.esri.core.geometry.MapGeometry;
 import com.esri.core.geometry.Point;
@@ -39,45 +37,226 @@ import com.esri.ges.framework.i18n.BundleLoggerFactory;
 
 public abstract class NMEAMessageTranslator
 {
-  protected static final BundleLogger LOGGER = BundleLoggerFactory.getLogger(NmeaInboundAdapter.class);
+  protected static final BundleLogger     LOGGER = BundleLoggerFactory.getLogger(NmeaInboundAdapter.class);
 
-  protected abstract void translate(GeoEvent geoEvent, String[] data) throws FieldException;
+  /**
+   * The WGS 84 spatial reference of all the geometries created, shared since
+   * spatial references are immutable.
+   */
+  protected static final SpatialReference WGS84  = SpatialReference.create(4326);
 
-  protected abstract void validate(String[] data) throws ValidationException;
+  private String                          geoEventDefinitionName;
+  private int                             index;
+  private int                             typeIndex;
 
-  protected Date toTime(String time, String date)
+  /**
+   * Sets the fields following DeviceId (0) and Talker (1).
+   */
+  protected abstract void translate(NmeaChannel channel, GeoEvent geoEvent, NmeaSentence sentence) throws FieldException;
+
+  protected abstract void validate(NmeaSentence sentence) throws ValidationException;
+
+  public String getGeoEventDefinitionName()
+  {
+    return geoEventDefinitionName;
+  }
+
+  public void setGeoEventDefinitionName(String geoEventDefinitionName)
+  {
+    this.geoEventDefinitionName = geoEventDefinitionName;
+  }
+
+  /**
+   * @return the position of the translator in the adapter's translator and
+   *         definition tables.
+   */
+  public int getIndex()
+  {
+    return index;
+  }
+
+  public void setIndex(int index)
+  {
+    this.index = index;
+  }
+
+  /**
+   * @return the name under which the sentences of the translator are counted
+   *         and their errors reported. The default is the GeoEvent Definition
+   *         name.
+   */
+  public String getTypeName()
+  {
+    return geoEventDefinitionName;
+  }
+
+  /**
+   * @return the position of the translator's sentence type in the adapter's
+   *         per-type metrics and error reports.
+   */
+  public int getTypeIndex()
   {
-    LOGGER.trace("Parsing time string {0} and date string {1}", time, date);
-    Calendar c = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
-    if (time != null)
+    return typeIndex;
+  }
+
+  public void setTypeIndex(int typeIndex)
+  {
+    this.typeIndex = typeIndex;
+  }
+
+  /**
+   * Called after {@link #validate(NmeaSentence)}, returns the position in the
+   * adapter's definition table of the GeoEvent Definition of the GeoEvent to
+   * create for the sentence, or -1 if none should be created (yet).
+   * Translators of sentences that map to several definitions or only produce
+   * a GeoEvent once several sentences have been received override it; the
+   * default is {@link #getIndex()}.
+   */
+  protected int getDefinitionIndex(NmeaChannel channel, NmeaSentence sentence) throws ValidationException
+  {
+    return index;
+  }
+
+  /**
+   * @return true if the sentences report the position and state of the
+   *         receiving device itself, so they take part in fusion and
+   *         per-device downsampling. The default is true.
+   */
+  protected boolean describesReceiver()
+  {
+    return true;
+  }
+
+  /**
+   * @return the time of day (in milliseconds) of a sentence that reports one,
+   *         used to group the sentences of an epoch, or
+   *         NmeaTimeParser.INVALID.
+   */
+  protected long getTimeOfDay(NmeaSentence sentence)
+  {
+    return NmeaTimeParser.INVALID;
+  }
+
+  /**
+   * Merges the values of the sentence into the fused epoch of its device. The
+   * default does nothing.
+   */
+  protected void fuse(NmeaChannel channel, NmeaSentence sentence, NmeaFix fix) throws FieldException
+  {
+    ;
+  }
+
+  /**
+   * @param dateField
+   *          the ddmmyy field, or -1 for sentences without a date.
+   */
+  protected Date toTime(NmeaChannel channel, NmeaSentence sentence, int timeField, int dateField) throws FieldException
+  {
+    return new Date(toEpochMillis(channel, sentence, timeField, dateField));
+  }
+
+  protected long toEpochMillis(NmeaChannel channel, NmeaSentence sentence, int timeField, int dateField) throws FieldException
+  {
+    byte[] data = sentence.getData();
+    long timeOfDay = NmeaTimeParser.parseTimeOfDay(data, sentence.getFieldOffset(timeField), sentence.getFieldLength(timeField));
+    if (timeOfDay == NmeaTimeParser.INVALID)
+      throw new FieldException(LOGGER.translate("INVALID_TIME", sentence.getString(timeField)));
+    long epochDay = NmeaTimeParser.INVALID;
+    if (dateField >= 0 && !sentence.isEmpty(dateField))
     {
-      c.set(Calendar.HOUR_OF_DAY, Integer.parseInt(time.substring(0, 2)));
-      c.set(Calendar.MINUTE, Integer.parseInt(time.substring(2, 4)));
-      c.set(Calendar.SECOND, Integer.parseInt(time.substring(4, 6)));
+      epochDay = NmeaTimeParser.parseEpochDay(data, sentence.getFieldOffset(dateField), sentence.getFieldLength(dateField));
+      if (epochDay == NmeaTimeParser.INVALID)
+        throw new FieldException(LOGGER.translate("INVALID_DATE", sentence.getString(dateField)));
     }
-    if (date != null)
+    return channel.toEpochMillis(epochDay, timeOfDay);
+  }
+
+  protected long parseTimeOfDay(NmeaSentence sentence, int timeField)
+  {
+    return NmeaTimeParser.parseTimeOfDay(sentence.getData(), sentence.getFieldOffset(timeField), sentence.getFieldLength(timeField));
+  }
+
+  protected MapGeometry toPoint(NmeaSentence sentence, int latitudeField, int longitudeField) throws FieldException
+  {
+    double lat = parseLatitude(sentence, latitudeField);
+    double lon = parseLongitude(sentence, longitudeField);
+    if (Double.isNaN(lat) || Double.isNaN(lon))
+      throw new FieldException(LOGGER.translate("INVALID_COORDINATES", sentence.getString(latitudeField), sentence.getString(longitudeField)));
+    if (LOGGER.isTraceEnabled())
+      LOGGER.trace("Parsed decimal degrees lat {0} and lon {1}", lat, lon);
+    return toPoint(lat, lon);
+  }
+
+  /**
+   * @return a new point geometry; the GeoEvent keeps a reference to it, so
+   *         only its spatial reference is shared.
+   */
+  protected static MapGeometry toPoint(double lat, double lon)
+  {
+    return new MapGeometry(new Point(lon, lat), WGS84);
+  }
+
+  /**
+   * @return the signed latitude of a ddmm.mmmm field followed by its N/S
+   *         field, or NaN.
+   */
+  protected double parseLatitude(NmeaSentence sentence, int field)
+  {
+    double lat = NmeaNumberParser.parseDegreesMinutes(sentence.getData(), sentence.getFieldOffset(field), sentence.getFieldLength(field), 2);
+    return sentence.is(field + 1, 'N') ? lat : -lat;
+  }
+
+  /**
+   * @return the signed longitude of a dddmm.mmmm field followed by its E/W
+   *         field, or NaN.
+   */
+  protected double parseLongitude(NmeaSentence sentence, int field)
+  {
+    double lon = NmeaNumberParser.parseDegreesMinutes(sentence.getData(), sentence.getFieldOffset(field), sentence.getFieldLength(field), 3);
+    return sentence.is(field + 1, 'E') ? lon : -lon;
+  }
+
+  /**
+   * @return the value of a numeric field, or NaN if it is empty or not a
+   *         number.
+   */
+  protected double parseDouble(NmeaSentence sentence, int field)
+  {
+    if (sentence.isEmpty(field))
+      return Double.NaN;
+    return NmeaNumberParser.parseDouble(sentence.getData(), sentence.getFieldOffset(field), sentence.getFieldLength(field), Double.NaN);
+  }
+
+  /**
+   * @return the first character of a field, or 0 if it is empty.
+   */
+  protected byte parseFlag(NmeaSentence sentence, int field)
+  {
+    return sentence.byteAt(field, 0);
+  }
+
+  protected Double toDouble(NmeaSentence sentence, int field)
+  {
+    if (sentence.isEmpty(field))
+      return null;
+    double value = NmeaNumberParser.parseDouble(sentence.getData(), sentence.getFieldOffset(field), sentence.getFieldLength(field), Double.NaN);
+    // NaN means unparsable, except for a literal "NaN" which the String
+    // conversion accepts
+    return !Double.isNaN(value) ? Double.valueOf(value) : convertToDouble(sentence.getString(field), null);
+  }
+
+  protected Short toShort(NmeaSentence sentence, int field)
+  {
+    if (sentence.isEmpty(field))
+      return null;
+    double value = NmeaNumberParser.parseDouble(sentence.getData(), sentence.getFieldOffset(field), sentence.getFieldLength(field), Double.NaN);
+    if (Double.isNaN(value))
     {
-      c.set(Calendar.DAY_OF_MONTH, Integer.parseInt(date.substring(0, 2)));
-      c.set(Calendar.MONTH, Integer.parseInt(date.substring(2, 4)) - 1);
-      c.set(Calendar.YEAR, 2000 + Integer.parseInt(date.substring(4, 6)));
+      Double converted = convertToDouble(sentence.getString(field), null);
+      return (converted != null) ? Short.valueOf((short) Math.round(converted.doubleValue())) : null;
     }
-    LOGGER.trace("Parsed time/date: {0}", c);
-    return c.getTime();
-  }
-
-  protected MapGeometry toPoint(String latitude, String longitude, boolean isNorth, boolean isEast)
-  {
-    LOGGER.trace("Parsing lat string {0} and lon string {1}", latitude, longitude);
-    double lat_d = convertToDouble(latitude.substring(0, 2), 0d);
-    double lat_m = convertToDouble(latitude.substring(2, latitude.length()), 0d);
-    double lat = lat_d + (lat_m / 60.0);
-    double lon_d = convertToDouble(longitude.substring(0, 3), 0d);
-    double lon_m = convertToDouble(longitude.substring(3, longitude.length()), 0d);
-    double lon = lon_d + (lon_m / 60.0);
-    lat = isNorth ? lat : -lat;
-    lon = isEast ? lon : -lon;
-    LOGGER.trace("Parsed decimal degrees lat {0} and lon {1}", lat, lon);
-    return new MapGeometry(new Point(lon, lat), SpatialReference.create(4326));
+    // small values (fix quality, satellites) come from the Short cache
+    return Short.valueOf((short) Math.round(value));
   }
 
   public boolean isEmpty(String s)
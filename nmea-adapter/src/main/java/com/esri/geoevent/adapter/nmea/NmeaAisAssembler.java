@@ -0,0 +1,137 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.adapter.nmea;
+
+import com.esri.ges.core.validation.ValidationException;
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+
+/**
+ * Reassembles the AIS messages of one channel from their !AIVDM/!AIVDO
+ * sentences. The fragments of a multipart message share a sequential message
+ * ID (0-9); they are collected per ID, separately for VDM and VDO, and must
+ * arrive in order and within the timeout, otherwise the partial message is
+ * dropped. At most 22 partial messages are kept per channel. Only used by the
+ * worker owning the channel.
+ */
+public class NmeaAisAssembler
+{
+  private static final BundleLogger LOGGER         = BundleLoggerFactory.getLogger(NmeaAisAssembler.class);
+
+  // sequential message IDs 0-9, and one slot for multipart messages without
+  private static final int          SEQUENCES      = 11;
+
+  private final NmeaAisPayload      single         = new NmeaAisPayload();
+  private final NmeaAisPayload[]    payloads       = new NmeaAisPayload[2 * SEQUENCES];
+  private final int[]               fragmentCounts = new int[2 * SEQUENCES];
+  private final int[]               nextFragments  = new int[2 * SEQUENCES];
+  private final long[]              deadlines      = new long[2 * SEQUENCES];
+  private NmeaAisPayload            payload;
+
+  /**
+   * Adds the fragment carried by a VDM/VDO sentence (fields: fragment count,
+   * fragment number, sequential message ID, radio channel, payload, fill
+   * bits).
+   *
+   * @param ownShip
+   *          true for VDO sentences, which report the receiving station
+   *          itself.
+   * @return the payload of the message the sentence completes, valid until
+   *         the next call, or null while the message is incomplete.
+   * @throws ValidationException
+   *           if the sentence is malformed or does not continue the message
+   *           it belongs to.
+   */
+  public NmeaAisPayload add(NmeaSentence sentence, boolean ownShip, long now, long timeoutMillis) throws ValidationException
+  {
+    int count = digit(sentence, 1);
+    int number = digit(sentence, 2);
+    int sequence = sentence.isEmpty(3) ? SEQUENCES - 1 : digit(sentence, 3);
+    int fillBits = sentence.isEmpty(6) ? 0 : digit(sentence, 6);
+    if (count < 1 || number < 1 || number > count || sequence < 0 || fillBits < 0 || fillBits > 5)
+      throw new ValidationException(LOGGER.translate("INVALID_AIS_MSG"));
+
+    payload = null;
+    if (count == 1)
+    {
+      single.clear();
+      append(single, sentence);
+      single.removeFillBits(fillBits);
+      return payload = single;
+    }
+
+    int slot = (ownShip ? SEQUENCES : 0) + sequence;
+    NmeaAisPayload fragments = payloads[slot];
+    if (fragments == null)
+      fragments = payloads[slot] = new NmeaAisPayload();
+    if (number == 1)
+    {
+      // a new first fragment replaces any partial message of the same ID
+      fragments.clear();
+      fragmentCounts[slot] = count;
+      deadlines[slot] = now + timeoutMillis;
+    }
+    else if (nextFragments[slot] != number || fragmentCounts[slot] != count || now > deadlines[slot])
+    {
+      nextFragments[slot] = 0;
+      throw new ValidationException(LOGGER.translate("AIS_FRAGMENT_MISSING", number, count));
+    }
+    nextFragments[slot] = 0;
+    append(fragments, sentence);
+    if (number < count)
+    {
+      nextFragments[slot] = number + 1;
+      return null;
+    }
+    fragments.removeFillBits(fillBits);
+    return payload = fragments;
+  }
+
+  /**
+   * @return the payload of the message completed by the last call to add(),
+   *         or null.
+   */
+  public NmeaAisPayload getPayload()
+  {
+    return payload;
+  }
+
+  private static void append(NmeaAisPayload payload, NmeaSentence sentence) throws ValidationException
+  {
+    if (!payload.append(sentence.getData(), sentence.getFieldOffset(5), sentence.getFieldLength(5)))
+      throw new ValidationException(LOGGER.translate("INVALID_AIS_MSG"));
+  }
+
+  /**
+   * @return the value of a single digit field, or -1.
+   */
+  private static int digit(NmeaSentence sentence, int field)
+  {
+    if (sentence.getFieldLength(field) != 1)
+      return -1;
+    int digit = sentence.byteAt(field, 0) - '0';
+    return (digit >= 0 && digit <= 9) ? digit : -1;
+  }
+}
@@ -0,0 +1,171 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.adapter.nmea;
+
+import java.util.Arrays;
+
+/**
+ * The binary payload of an AIS message, de-armored from the 6-bit ASCII of
+ * one or more !AIVDM/!AIVDO sentences. Characters are mapped to their 6 bits
+ * through a lookup table and packed big-endian into longs, so a field of up to
+ * 32 bits is read with at most two array accesses and shifts. Instances are
+ * reused, nothing is allocated per message except the Strings of text fields.
+ */
+public class NmeaAisPayload
+{
+  /** Longest payload kept, a little over the 1008 bits of a 5-slot message. */
+  public static final int     MAX_BITS = 1024;
+
+  private static final byte[] SIXBIT   = new byte[128];
+
+  static
+  {
+    Arrays.fill(SIXBIT, (byte) -1);
+    // '0'..'W' are 0..39, '`'..'w' are 40..63
+    for (int c = '0'; c <= 'W'; c++)
+      SIXBIT[c] = (byte) (c - '0');
+    for (int c = '`'; c <= 'w'; c++)
+      SIXBIT[c] = (byte) (c - '0' - 8);
+  }
+
+  private final long[]        words    = new long[MAX_BITS / 64];
+  private final char[]        text     = new char[20];
+  private int                 bitLength;
+
+  public void clear()
+  {
+    Arrays.fill(words, 0, Math.min(words.length, (bitLength + 63) >>> 6), 0L);
+    bitLength = 0;
+  }
+
+  /**
+   * Appends the armored characters of one sentence.
+   *
+   * @return false if a character is not part of the armoring alphabet or the
+   *         payload would be longer than {@link #MAX_BITS}.
+   */
+  public boolean append(byte[] data, int offset, int length)
+  {
+    if (bitLength + length * 6 > MAX_BITS)
+      return false;
+    for (int i = offset, end = offset + length; i < end; i++)
+    {
+      int c = data[i];
+      int value = (c >= 0) ? SIXBIT[c] : -1;
+      if (value < 0)
+        return false;
+      int word = bitLength >>> 6;
+      int shift = 58 - (bitLength & 63);
+      if (shift >= 0)
+        words[word] |= (long) value << shift;
+      else
+      {
+        words[word] |= (long) value >>> -shift;
+        words[word + 1] |= (long) value << (64 + shift);
+      }
+      bitLength += 6;
+    }
+    return true;
+  }
+
+  /**
+   * Drops the fill bits the last sentence of the message was padded with.
+   */
+  public void removeFillBits(int fillBits)
+  {
+    int end = bitLength;
+    bitLength = Math.max(0, bitLength - fillBits);
+    for (int bit = bitLength; bit < end; bit++)
+      words[bit >>> 6] &= ~(1L << (63 - (bit & 63)));
+  }
+
+  public int getBitLength()
+  {
+    return bitLength;
+  }
+
+  public int getMessageType()
+  {
+    return getUnsigned(0, 6);
+  }
+
+  /**
+   * @return the unsigned value of <code>length</code> (at most 31) bits
+   *         starting at bit <code>start</code>; bits past the end of the
+   *         payload read as 0.
+   */
+  public int getUnsigned(int start, int length)
+  {
+    return (int) (bits(start, length) >>> (64 - length));
+  }
+
+  /**
+   * @return the two's complement value of <code>length</code> (at most 32)
+   *         bits starting at bit <code>start</code>.
+   */
+  public int getSigned(int start, int length)
+  {
+    return (int) (bits(start, length) >> (64 - length));
+  }
+
+  public boolean getFlag(int start)
+  {
+    return bits(start, 1) < 0;
+  }
+
+  /**
+   * @return the text of up to 20 6-bit characters, without the '@' padding
+   *         and trailing spaces, or null if it is empty.
+   */
+  public String getText(int start, int characters)
+  {
+    int length = 0;
+    for (int i = 0; i < characters && i < text.length; i++)
+    {
+      int value = getUnsigned(start + i * 6, 6);
+      if (value == 0)
+        break;
+      text[length++] = (char) ((value < 32) ? value + 64 : value);
+    }
+    while (length > 0 && text[length - 1] == ' ')
+      length--;
+    return (length > 0) ? new String(text, 0, length) : null;
+  }
+
+  /**
+   * @return the bits starting at <code>start</code>, left aligned.
+   */
+  private long bits(int start, int length)
+  {
+    int word = start >>> 6;
+    if (word >= words.length)
+      return 0L;
+    int offset = start & 63;
+    long bits = words[word] << offset;
+    if (offset + length > 64 && word + 1 < words.length)
+      bits |= words[word + 1] >>> (64 - offset);
+    return bits;
+  }
+}
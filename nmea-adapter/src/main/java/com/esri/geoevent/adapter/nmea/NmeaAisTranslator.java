@@ -0,0 +1,307 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.adapter.nmea;
+
+import java.util.Date;
+
+import com.esri.core.geometry.MapGeometry;
+import com.esri.ges.core.geoevent.FieldException;
+import com.esri.ges.core.geoevent.GeoEvent;
+import com.esri.ges.core.validation.ValidationException;
+
+/**
+ * Translates the AIS messages encapsulated in !AIVDM (other stations) and
+ * !AIVDO (own station) sentences. Multipart messages are reassembled per
+ * channel by its {@link NmeaAisAssembler}; the GeoEvent is created once the
+ * last fragment has arrived, with the definition of its message type:
+ * <ul>
+ * <li>1, 2, 3: AISPositionReportClassA,</li>
+ * <li>18: AISPositionReportClassB,</li>
+ * <li>19: AISExtendedPositionReportClassB,</li>
+ * <li>5: AISStaticVoyageData,</li>
+ * <li>24: AISStaticDataReport.</li>
+ * </ul>
+ * Other message types are dropped. Field layouts follow ITU-R M.1371.
+ */
+public class NmeaAisTranslator extends NMEAMessageTranslator
+{
+  public static final int      POSITION_REPORT_CLASS_A          = 0;
+  public static final int      POSITION_REPORT_CLASS_B          = 1;
+  public static final int      EXTENDED_POSITION_REPORT_CLASS_B = 2;
+  public static final int      STATIC_VOYAGE_DATA               = 3;
+  public static final int      STATIC_DATA_REPORT               = 4;
+
+  /** Definition names, indexed by the constants above. */
+  public static final String[] GEOEVENT_DEFINITION_NAMES        = { "AISPositionReportClassA", "AISPositionReportClassB", "AISExtendedPositionReportClassB", "AISStaticVoyageData", "AISStaticDataReport" };
+
+  // not available values of the position report fields
+  private static final int     LONGITUDE_NOT_AVAILABLE          = 181 * 600000;
+  private static final int     LATITUDE_NOT_AVAILABLE           = 91 * 600000;
+  private static final int     SPEED_NOT_AVAILABLE              = 1023;
+  private static final int     COURSE_NOT_AVAILABLE             = 3600;
+  private static final int     HEADING_NOT_AVAILABLE            = 511;
+  private static final int     RATE_OF_TURN_NOT_AVAILABLE       = -128;
+
+  private final int[]          definitionIndexes                = new int[GEOEVENT_DEFINITION_NAMES.length];
+  private long                 fragmentTimeout                  = 1000;
+
+  public NmeaAisTranslator()
+  {
+    setGeoEventDefinitionName(GEOEVENT_DEFINITION_NAMES[POSITION_REPORT_CLASS_A]);
+  }
+
+  /**
+   * @param report
+   *          one of the report constants of this class.
+   */
+  public void setDefinitionIndex(int report, int index)
+  {
+    definitionIndexes[report] = index;
+    if (report == POSITION_REPORT_CLASS_A)
+      setIndex(index);
+  }
+
+  /**
+   * @param fragmentTimeout
+   *          longest time, in milliseconds, between the first and the last
+   *          fragment of a multipart message.
+   */
+  public void setFragmentTimeout(long fragmentTimeout)
+  {
+    this.fragmentTimeout = fragmentTimeout;
+  }
+
+  @Override
+  protected void validate(NmeaSentence sentence) throws ValidationException
+  {
+    if (sentence.getFieldCount() < 7 || sentence.isEmpty(5))
+      throw new ValidationException(LOGGER.translate("INVALID_AIS_MSG"));
+  }
+
+  /**
+   * @return "AIS", since fragments are counted before their message type is
+   *         known.
+   */
+  @Override
+  public String getTypeName()
+  {
+    return "AIS";
+  }
+
+  @Override
+  protected boolean describesReceiver()
+  {
+    return false;
+  }
+
+  @Override
+  protected int getDefinitionIndex(NmeaChannel channel, NmeaSentence sentence) throws ValidationException
+  {
+    boolean ownShip = sentence.byteAt(0, 4) == 'O';
+    NmeaAisPayload payload = channel.getAisAssembler().add(sentence, ownShip, System.currentTimeMillis(), fragmentTimeout);
+    if (payload == null)
+      return -1;
+    int report;
+    int minimumBits;
+    switch (payload.getMessageType())
+    {
+      case 1:
+      case 2:
+      case 3:
+        report = POSITION_REPORT_CLASS_A;
+        minimumBits = 168;
+        break;
+      case 18:
+        report = POSITION_REPORT_CLASS_B;
+        minimumBits = 168;
+        break;
+      case 19:
+        report = EXTENDED_POSITION_REPORT_CLASS_B;
+        minimumBits = 312;
+        break;
+      case 5:
+        // some transponders send 420 or 422 bits instead of 424
+        report = STATIC_VOYAGE_DATA;
+        minimumBits = 420;
+        break;
+      case 24:
+        report = STATIC_DATA_REPORT;
+        minimumBits = 160;
+        break;
+      default:
+        return -1;
+    }
+    if (payload.getBitLength() < minimumBits)
+      throw new ValidationException(LOGGER.translate("AIS_MESSAGE_TOO_SHORT", payload.getMessageType(), payload.getBitLength()));
+    return definitionIndexes[report];
+  }
+
+  @Override
+  protected void translate(NmeaChannel channel, GeoEvent geoEvent, NmeaSentence sentence) throws FieldException
+  {
+    NmeaAisPayload payload = channel.getAisAssembler().getPayload();
+    int i = 2;
+    geoEvent.setField(i++, new Date());
+    geoEvent.setField(i++, String.valueOf(payload.getUnsigned(8, 30)));
+    geoEvent.setField(i++, (short) payload.getMessageType());
+    switch (payload.getMessageType())
+    {
+      case 1:
+      case 2:
+      case 3:
+        geoEvent.setField(i++, (short) payload.getUnsigned(38, 4)); // navigation status
+        geoEvent.setField(i++, toRateOfTurn(payload.getSigned(42, 8)));
+        i = setPositionReport(geoEvent, i, payload, 50);
+        geoEvent.setField(i++, (short) payload.getUnsigned(143, 2)); // maneuver indicator
+        geoEvent.setField(i++, payload.getFlag(148)); // RAIM
+        break;
+
+      case 18:
+        i = setPositionReport(geoEvent, i, payload, 46);
+        geoEvent.setField(i++, payload.getFlag(141)); // carrier sense unit
+        geoEvent.setField(i++, payload.getFlag(147)); // RAIM
+        break;
+
+      case 19:
+        i = setPositionReport(geoEvent, i, payload, 46);
+        geoEvent.setField(i++, payload.getText(143, 20)); // name
+        geoEvent.setField(i++, (short) payload.getUnsigned(263, 8)); // ship type
+        i = setDimensions(geoEvent, i, payload, 271);
+        geoEvent.setField(i++, (short) payload.getUnsigned(301, 4)); // position fix type
+        geoEvent.setField(i++, payload.getFlag(305)); // RAIM
+        break;
+
+      case 5:
+        geoEvent.setField(i++, (short) payload.getUnsigned(38, 2)); // AIS version
+        geoEvent.setField(i++, toOptionalInteger(payload.getUnsigned(40, 30)));
+        geoEvent.setField(i++, payload.getText(70, 7)); // call sign
+        geoEvent.setField(i++, payload.getText(112, 20)); // name
+        geoEvent.setField(i++, (short) payload.getUnsigned(232, 8)); // ship type
+        i = setDimensions(geoEvent, i, payload, 240);
+        geoEvent.setField(i++, (short) payload.getUnsigned(270, 4)); // position fix type
+        geoEvent.setField(i++, (short) payload.getUnsigned(274, 4)); // ETA month
+        geoEvent.setField(i++, (short) payload.getUnsigned(278, 5)); // ETA day
+        geoEvent.setField(i++, (short) payload.getUnsigned(283, 5)); // ETA hour
+        geoEvent.setField(i++, (short) payload.getUnsigned(288, 6)); // ETA minute
+        geoEvent.setField(i++, payload.getUnsigned(294, 8) / 10.0); // draught
+        geoEvent.setField(i++, payload.getText(302, 20)); // destination
+        break;
+
+      default:
+        // 24: part A carries the name, part B the type, vendor, call sign and
+        // dimensions
+        int part = payload.getUnsigned(38, 2);
+        geoEvent.setField(i++, (short) part);
+        if (part == 0)
+        {
+          geoEvent.setField(i++, payload.getText(40, 20)); // name
+          break;
+        }
+        i++;
+        geoEvent.setField(i++, (short) payload.getUnsigned(40, 8)); // ship type
+        geoEvent.setField(i++, payload.getText(48, 3)); // vendor ID
+        geoEvent.setField(i++, payload.getText(90, 7)); // call sign
+        // auxiliary craft (MMSI 98XXXYYYY) report their mothership instead of
+        // their dimensions
+        int mmsi = payload.getUnsigned(8, 30);
+        if (mmsi / 10000000 == 98)
+        {
+          i += 4;
+          geoEvent.setField(i++, String.valueOf(payload.getUnsigned(132, 30)));
+        }
+        else
+          i = setDimensions(geoEvent, i, payload, 132);
+        break;
+    }
+
+    if (LOGGER.isTraceEnabled())
+      LOGGER.trace("Translated AIS message {0} to {1}", sentence, geoEvent);
+  }
+
+  /**
+   * Sets the Speed, PositionAccuracy, Shape, Course, Heading and UtcSecond
+   * fields shared by the position reports, starting with the speed at bit
+   * <code>start</code>.
+   */
+  private int setPositionReport(GeoEvent geoEvent, int i, NmeaAisPayload payload, int start) throws FieldException
+  {
+    int speed = payload.getUnsigned(start, 10);
+    int longitude = payload.getSigned(start + 11, 28);
+    int latitude = payload.getSigned(start + 39, 27);
+    int course = payload.getUnsigned(start + 66, 12);
+    int heading = payload.getUnsigned(start + 78, 9);
+    int second = payload.getUnsigned(start + 87, 6);
+    geoEvent.setField(i++, (speed != SPEED_NOT_AVAILABLE) ? Double.valueOf(speed / 10.0) : null);
+    geoEvent.setField(i++, payload.getFlag(start + 10));
+    geoEvent.setField(i++, toPosition(latitude, longitude));
+    geoEvent.setField(i++, (course != COURSE_NOT_AVAILABLE) ? Double.valueOf(course / 10.0) : null);
+    geoEvent.setField(i++, (heading != HEADING_NOT_AVAILABLE) ? Short.valueOf((short) heading) : null);
+    // 60 and above mean the time stamp is not available
+    geoEvent.setField(i++, (second < 60) ? Short.valueOf((short) second) : null);
+    return i;
+  }
+
+  /**
+   * Sets the DimensionToBow, DimensionToStern, DimensionToPort and
+   * DimensionToStarboard fields, in meters.
+   */
+  private int setDimensions(GeoEvent geoEvent, int i, NmeaAisPayload payload, int start) throws FieldException
+  {
+    geoEvent.setField(i++, (short) payload.getUnsigned(start, 9));
+    geoEvent.setField(i++, (short) payload.getUnsigned(start + 9, 9));
+    geoEvent.setField(i++, (short) payload.getUnsigned(start + 18, 6));
+    geoEvent.setField(i++, (short) payload.getUnsigned(start + 24, 6));
+    return i;
+  }
+
+  /**
+   * @return the point of a position in 1/10000 minutes, or null if it is not
+   *         available.
+   */
+  private MapGeometry toPosition(int latitude, int longitude)
+  {
+    if (latitude == LATITUDE_NOT_AVAILABLE || longitude == LONGITUDE_NOT_AVAILABLE || Math.abs(latitude) > 90 * 600000 || Math.abs(longitude) > 180 * 600000)
+      return null;
+    return toPoint(latitude / 600000.0, longitude / 600000.0);
+  }
+
+  /**
+   * @return the rate of turn in degrees per minute, or null if it is not
+   *         available. +-127 (turning at more than 5 degrees per 30 seconds,
+   *         without a turn indicator) is returned as +-720.
+   */
+  private static Double toRateOfTurn(int rateOfTurn)
+  {
+    if (rateOfTurn == RATE_OF_TURN_NOT_AVAILABLE)
+      return null;
+    double rate = rateOfTurn / 4.733;
+    return Math.copySign(Math.min(rate * rate, 720), rateOfTurn);
+  }
+
+  private static Integer toOptionalInteger(int value)
+  {
+    return (value != 0) ? Integer.valueOf(value) : null;
+  }
+}
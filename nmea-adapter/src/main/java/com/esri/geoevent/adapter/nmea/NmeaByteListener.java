@@ -0,0 +1,48 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.adapter.nmea;
+
+import java.nio.ByteBuffer;
+
+import com.esri.ges.messaging.ByteListener;
+
+/**
+ * A byte listener that tells when the bytes it received have been processed,
+ * so a transport can record how far it got without losing the bytes still
+ * queued on the workers.
+ */
+public interface NmeaByteListener extends ByteListener
+{
+  /**
+   * Receives the bytes like {@link #receive(ByteBuffer, String)}.
+   *
+   * @param processed
+   *          run on a worker thread once the sentences of the bytes have been
+   *          processed, in the order the bytes of the channel were received.
+   *          Not run if the bytes are dropped.
+   * @return false if the bytes were dropped.
+   */
+  boolean receive(ByteBuffer buffer, String channelId, Runnable processed);
+}
@@ -0,0 +1,322 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.adapter.nmea;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * State kept by the adapter for one channel (connection) between calls to
+ * receive().
+ */
+public class NmeaChannel
+{
+  private final String             id;
+  private final int                number;
+  private final NmeaSentenceFramer framer;
+
+  // date of the last RMC sentence, only used by the worker owning the channel
+  private long                     epochDay        = NmeaTimeParser.INVALID;
+  private long                     lastTimeOfDay;
+
+  // fused epochs of the devices (talkers) of this channel, only used by the
+  // worker owning the channel
+  private NmeaFix[]                fixes           = new NmeaFix[0];
+
+  // multipart AIS messages being reassembled, only used by the worker owning
+  // the channel
+  private NmeaAisAssembler         aisAssembler;
+
+  // numbering of the framed sentences and, per coalesced talker and sentence
+  // type (address key), the number of the newest one, guarded by
+  // sequenceLock
+  private final Object             sequenceLock    = new Object();
+  private int                      sequence;
+  private int[]                    newestKeys      = new int[4];
+  private int[]                    newestSequences = new int[4];
+  private int                      newestCount;
+
+  // talkers of this channel in the position store, only used by the worker
+  // owning the channel
+  private int[]                    storedTalkers   = new int[0];
+
+  // System.nanoTime() of the last receive(), and whether the channel is being
+  // or has been evicted for being idle
+  private volatile long            lastReceived;
+  private volatile boolean         evicted;
+
+  /**
+   * @param number
+   *          a small non-negative number, unique within the adapter, used to
+   *          key per-channel state in primitive tables.
+   */
+  public NmeaChannel(String id, int number, int maxSentenceLength, NmeaSentenceFramer.ChecksumMode checksumMode)
+  {
+    this.id = id;
+    this.number = number;
+    this.framer = new NmeaSentenceFramer(maxSentenceLength, checksumMode);
+    this.lastReceived = System.nanoTime();
+  }
+
+  public String getId()
+  {
+    return id;
+  }
+
+  public int getNumber()
+  {
+    return number;
+  }
+
+  /**
+   * Records that data was received, and checks that the channel has not been
+   * evicted meanwhile.
+   *
+   * @return false if the channel is being or has been evicted, in which case
+   *         the caller must look it up again.
+   */
+  public boolean touch(long nanoTime)
+  {
+    lastReceived = nanoTime;
+    return !evicted;
+  }
+
+  public long getLastReceived()
+  {
+    return lastReceived;
+  }
+
+  public boolean isEvicted()
+  {
+    return evicted;
+  }
+
+  /**
+   * Marks the channel as evicted if nothing was received since
+   * <code>idleSince</code> (a System.nanoTime()). Either this sees the time
+   * of a concurrent {@link #touch(long)} or that call sees the mark, so no
+   * data is received by a channel that was evicted.
+   *
+   * @return false if the channel received data since and stays in use.
+   */
+  public boolean evict(long idleSince)
+  {
+    evicted = true;
+    if (lastReceived - idleSince < 0)
+      return true;
+    evicted = false;
+    return false;
+  }
+
+  /**
+   * Records a talker of this channel added to the position store.
+   */
+  public void addStoredTalker(int talkerIndex)
+  {
+    storedTalkers = Arrays.copyOf(storedTalkers, storedTalkers.length + 1);
+    storedTalkers[storedTalkers.length - 1] = talkerIndex;
+  }
+
+  /**
+   * @return the talkers of this channel added to the position store.
+   */
+  public int[] getStoredTalkers()
+  {
+    return storedTalkers;
+  }
+
+  /**
+   * Frames the buffer, carrying any incomplete sentence over to the next call.
+   */
+  public List<byte[]> frame(ByteBuffer buffer)
+  {
+    return frame(buffer, NmeaSentenceFramer.Framing.STREAM);
+  }
+
+  /**
+   * Frames the buffer. With {@link NmeaSentenceFramer.Framing#DATAGRAM} the
+   * buffer is a complete datagram, and a sentence it does not terminate ends
+   * with it instead of being carried over.
+   */
+  public List<byte[]> frame(ByteBuffer buffer, NmeaSentenceFramer.Framing framing)
+  {
+    return frame(buffer, framing, 0);
+  }
+
+  /**
+   * Frames the buffer, in parallel chunks in the common fork-join pool if it
+   * has at least <code>parallelThreshold</code> bytes. The sentences are in
+   * the order of the buffer either way.
+   */
+  public List<byte[]> frame(ByteBuffer buffer, NmeaSentenceFramer.Framing framing, int parallelThreshold)
+  {
+    List<byte[]> messages = new ArrayList<byte[]>();
+    synchronized (framer)
+    {
+      if (parallelThreshold > 0)
+        framer.frame(buffer, messages, ForkJoinPool.commonPool(), parallelThreshold);
+      else
+        framer.frame(buffer, messages);
+      if (framing == NmeaSentenceFramer.Framing.DATAGRAM)
+        framer.endFrame(messages);
+    }
+    return messages;
+  }
+
+  /**
+   * Combines a time of day with the date of the sentence, if it has one, or
+   * with the date of the last dated (RMC) sentence of this channel. A time
+   * more than 12 hours before or after the last one is taken as a midnight
+   * rollover. Without any dated sentence yet, the current UTC date is used
+   * the same way.
+   */
+  public long toEpochMillis(long sentenceEpochDay, long timeOfDay)
+  {
+    if (sentenceEpochDay != NmeaTimeParser.INVALID)
+    {
+      epochDay = sentenceEpochDay;
+      lastTimeOfDay = timeOfDay;
+      return sentenceEpochDay * NmeaTimeParser.MILLIS_PER_DAY + timeOfDay;
+    }
+
+    long day = epochDay;
+    long reference = lastTimeOfDay;
+    if (day == NmeaTimeParser.INVALID)
+    {
+      long now = System.currentTimeMillis();
+      day = Math.floorDiv(now, NmeaTimeParser.MILLIS_PER_DAY);
+      reference = Math.floorMod(now, NmeaTimeParser.MILLIS_PER_DAY);
+    }
+    if (timeOfDay < reference - NmeaTimeParser.MILLIS_PER_DAY / 2)
+      day++;
+    else if (timeOfDay > reference + NmeaTimeParser.MILLIS_PER_DAY / 2)
+      day--;
+
+    if (epochDay != NmeaTimeParser.INVALID)
+    {
+      epochDay = day;
+      lastTimeOfDay = timeOfDay;
+    }
+    return day * NmeaTimeParser.MILLIS_PER_DAY + timeOfDay;
+  }
+
+  /**
+   * @return the fused epoch of the talker, created on first use. A channel
+   *         usually carries a single talker, so a linear scan over the shared
+   *         talker Strings is enough.
+   */
+  public NmeaFix getFix(String talker)
+  {
+    for (NmeaFix fix : fixes)
+    {
+      if (fix.getTalker() == talker)
+        return fix;
+    }
+    NmeaFix fix = new NmeaFix(this, talker);
+    fixes = Arrays.copyOf(fixes, fixes.length + 1);
+    fixes[fixes.length - 1] = fix;
+    return fix;
+  }
+
+  /**
+   * @return the AIS message assembler of the channel, created on first use.
+   */
+  public NmeaAisAssembler getAisAssembler()
+  {
+    if (aisAssembler == null)
+      aisAssembler = new NmeaAisAssembler();
+    return aisAssembler;
+  }
+
+  /**
+   * Numbers the framed sentences of the channel and records the newest
+   * sentence of every talker and sentence type the load shedder coalesces.
+   *
+   * @return the number of the first sentence; the others follow in order.
+   */
+  public int sequence(List<byte[]> messages, NmeaLoadShedder loadShedder)
+  {
+    synchronized (sequenceLock)
+    {
+      int first = sequence;
+      for (int i = 0; i < messages.size(); i++)
+      {
+        int key = NmeaTranslatorTable.addressKeyOf(messages.get(i));
+        if (loadShedder.isCoalesced(key))
+        {
+          int index = indexOfNewest(key);
+          newestSequences[index] = first + i;
+        }
+      }
+      sequence += messages.size();
+      return first;
+    }
+  }
+
+  /**
+   * @return true if a sentence with the same address key and a higher number
+   *         than the given one has been framed on this channel since.
+   */
+  public boolean isSuperseded(int addressKey, int sequenceNumber)
+  {
+    synchronized (sequenceLock)
+    {
+      for (int i = 0; i < newestCount; i++)
+      {
+        // the numbers wrap around, compare their difference
+        if (newestKeys[i] == addressKey)
+          return newestSequences[i] - sequenceNumber > 0;
+      }
+      return false;
+    }
+  }
+
+  private int indexOfNewest(int addressKey)
+  {
+    for (int i = 0; i < newestCount; i++)
+    {
+      if (newestKeys[i] == addressKey)
+        return i;
+    }
+    if (newestCount == newestKeys.length)
+    {
+      newestKeys = Arrays.copyOf(newestKeys, newestCount * 2);
+      newestSequences = Arrays.copyOf(newestSequences, newestCount * 2);
+    }
+    newestKeys[newestCount] = addressKey;
+    return newestCount++;
+  }
+
+  public long getRejectedCount(NmeaSentenceFramer.RejectReason reason)
+  {
+    synchronized (framer)
+    {
+      return framer.getRejectedCount(reason);
+    }
+  }
+}
@@ -0,0 +1,289 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+package com.esri.geoevent.adapter.nmea;
+
+import java.util.Arrays;
+
+import com.esri.ges.core.geoevent.FieldException;
+
+/**
+ * Per-device downsampling applied before a GeoEvent is created. A report is
+ * passed on when the device has moved at least the distance threshold, when
+ * its course or speed has changed by at least their thresholds, or when the
+ * heartbeat interval has elapsed since the last report passed on; otherwise it
+ * is suppressed. A threshold of 0 disables that criterion.
+ * <p>
+ * Each (channel, talker, definition) stream is filtered on its own, so the
+ * sentence types of a device do not suppress each other. The values of the
+ * last report passed on are kept in parallel primitive arrays behind an
+ * open-addressing table keyed by a long, about 40 bytes per stream. Instances
+ * are confined to their worker thread.
+ */
+public class NmeaDeviceFilter
+{
+  private static final double EARTH_RADIUS = 6371008.8;
+  private static final long   EMPTY        = -1L;
+
+  private final double        distanceRadians;
+  private final double        headingThreshold;
+  private final double        speedThreshold;
+  private final long          heartbeatMillis;
+  private final NmeaFix       sample       = new NmeaFix(null, null);
+
+  private long[]              keys;
+  private double[]            latitudes;
+  private double[]            longitudes;
+  private float[]             speeds;
+  private float[]             courses;
+  private long[]              times;
+  private int                 size;
+  private long                suppressed;
+
+  /**
+   * @param distanceMeters
+   *          minimum distance moved, in meters
+   * @param headingDegrees
+   *          minimum course change, in degrees
+   * @param speedKnots
+   *          minimum speed change, in knots
+   * @param heartbeatMillis
+   *          maximum time between two reports passed on, in milliseconds
+   */
+  public NmeaDeviceFilter(double distanceMeters, double headingDegrees, double speedKnots, long heartbeatMillis)
+  {
+    this.distanceRadians = Math.max(0, distanceMeters) / EARTH_RADIUS;
+    this.headingThreshold = Math.max(0, headingDegrees);
+    this.speedThreshold = Math.max(0, speedKnots);
+    this.heartbeatMillis = Math.max(0, heartbeatMillis);
+    allocate(1024);
+  }
+
+  /**
+   * @return false if every threshold is 0, in which case nothing would ever be
+   *         suppressed.
+   */
+  public boolean isEnabled()
+  {
+    return distanceRadians > 0 || headingThreshold > 0 || speedThreshold > 0 || heartbeatMillis > 0;
+  }
+
+  /**
+   * Extracts the position and motion of the sentence through the translator's
+   * fusion and decides whether its GeoEvent should be created.
+   */
+  public boolean accept(NMEAMessageTranslator translator, NmeaChannel channel, NmeaSentence sentence) throws FieldException
+  {
+    sample.clear();
+    translator.fuse(channel, sentence, sample);
+    return accept(channel, NmeaTranslatorTable.talkerOf(sentence), translator.getIndex(), sample);
+  }
+
+  /**
+   * Decides whether the GeoEvent of a fused epoch should be created.
+   */
+  public boolean accept(NmeaFix fix, int definitionIndex)
+  {
+    return accept(fix.getChannel(), fix.getTalker(), definitionIndex, fix);
+  }
+
+  /**
+   * @return the number of device streams tracked.
+   */
+  public int size()
+  {
+    return size;
+  }
+
+  public long getSuppressedCount()
+  {
+    return suppressed;
+  }
+
+  /**
+   * Forgets the streams of a channel that was closed.
+   */
+  public void removeChannel(int channelNumber)
+  {
+    for (int slot = 0; slot < keys.length && size > 0;)
+    {
+      // the entry shifted into a freed slot is looked at again
+      if (keys[slot] != EMPTY && (int) (keys[slot] >>> 32) == channelNumber)
+        remove(slot);
+      else
+        slot++;
+    }
+  }
+
+  private boolean accept(NmeaChannel channel, String talker, int definitionIndex, NmeaFix values)
+  {
+    long now = System.currentTimeMillis();
+    long key = ((long) channel.getNumber() << 32) | ((long) NmeaTranslatorTable.talkerIndexOf(talker) << 16) | definitionIndex;
+    int slot = slotOf(key);
+    if (keys[slot] == EMPTY)
+    {
+      keys[slot] = key;
+      update(slot, values, now);
+      if (++size * 2 > keys.length)
+        grow();
+      return true;
+    }
+    if (changed(slot, values, now))
+    {
+      update(slot, values, now);
+      return true;
+    }
+    suppressed++;
+    return false;
+  }
+
+  private boolean changed(int slot, NmeaFix values, long now)
+  {
+    if (heartbeatMillis > 0 && now - times[slot] >= heartbeatMillis)
+      return true;
+    // reports without position or motion (e.g. GSA) are only limited by the
+    // heartbeat
+    if (!values.hasPosition() && Double.isNaN(values.getSpeed()) && Double.isNaN(values.getCourse()))
+      return heartbeatMillis == 0;
+    if (distanceRadians > 0 && values.hasPosition() && !Double.isNaN(latitudes[slot]))
+    {
+      // equirectangular approximation, accurate enough at threshold distances
+      double lat1 = Math.toRadians(latitudes[slot]);
+      double lat2 = Math.toRadians(values.getLatitude());
+      double x = Math.toRadians(values.getLongitude() - longitudes[slot]) * Math.cos((lat1 + lat2) / 2);
+      double y = lat2 - lat1;
+      if (x * x + y * y >= distanceRadians * distanceRadians)
+        return true;
+    }
+    if (headingThreshold > 0 && !Double.isNaN(values.getCourse()) && !Float.isNaN(courses[slot]))
+    {
+      double delta = Math.abs(values.getCourse() - courses[slot]) % 360;
+      if (Math.min(delta, 360 - delta) >= headingThreshold)
+        return true;
+    }
+    if (speedThreshold > 0 && !Double.isNaN(values.getSpeed()) && !Float.isNaN(speeds[slot]))
+    {
+      if (Math.abs(values.getSpeed() - speeds[slot]) >= speedThreshold)
+        return true;
+    }
+    return false;
+  }
+
+  private void update(int slot, NmeaFix values, long now)
+  {
+    // a report without position or motion keeps the previous reference
+    if (values.hasPosition())
+    {
+      latitudes[slot] = values.getLatitude();
+      longitudes[slot] = values.getLongitude();
+    }
+    if (!Double.isNaN(values.getSpeed()))
+      speeds[slot] = (float) values.getSpeed();
+    if (!Double.isNaN(values.getCourse()))
+      courses[slot] = (float) values.getCourse();
+    times[slot] = now;
+  }
+
+  private int slotOf(long key)
+  {
+    int mask = keys.length - 1;
+    int slot = homeOf(key);
+    while (keys[slot] != EMPTY && keys[slot] != key)
+      slot = (slot + 1) & mask;
+    return slot;
+  }
+
+  private int homeOf(long key)
+  {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32)) & (keys.length - 1);
+  }
+
+  /**
+   * Empties a slot, shifting the entries after it back so none of them ends
+   * up past an empty slot from its home slot.
+   */
+  private void remove(int slot)
+  {
+    int mask = keys.length - 1;
+    int hole = slot;
+    for (int next = (hole + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask)
+    {
+      // an entry whose home is cyclically in (hole, next] stays
+      if (((next - homeOf(keys[next])) & mask) < ((next - hole) & mask))
+        continue;
+      keys[hole] = keys[next];
+      latitudes[hole] = latitudes[next];
+      longitudes[hole] = longitudes[next];
+      speeds[hole] = speeds[next];
+      courses[hole] = courses[next];
+      times[hole] = times[next];
+      hole = next;
+    }
+    keys[hole] = EMPTY;
+    latitudes[hole] = Double.NaN;
+    longitudes[hole] = Double.NaN;
+    speeds[hole] = Float.NaN;
+    courses[hole] = Float.NaN;
+    times[hole] = 0;
+    size--;
+  }
+
+  private void allocate(int capacity)
+  {
+    keys = new long[capacity];
+    Arrays.fill(keys, EMPTY);
+    latitudes = new double[capacity];
+    longitudes = new double[capacity];
+    speeds = new float[capacity];
+    courses = new float[capacity];
+    times = new long[capacity];
+    Arrays.fill(latitudes, Double.NaN);
+    Arrays.fill(longitudes, Double.NaN);
+    Arrays.fill(speeds, Float.NaN);
+    Arrays.fill(courses, Float.NaN);
+  }
+
+  private void grow()
+  {
+    long[] oldKeys = keys;
+    double[] oldLatitudes = latitudes;
+    double[] oldLongitudes = longitudes;
+    float[] oldSpeeds = speeds;
+    float[] oldCourses = courses;
+    long[] oldTimes = times;
+    allocate(oldKeys.length * 2);
+    for (int i = 0; i < oldKeys.length; i++)
+    {
+      if (oldKeys[i] == EMPTY)
+        continue;
+      int slot = slotOf(oldKeys[i]);
+      keys[slot] = oldKeys[i];
+      latitudes[slot] = oldLatitudes[i];
+      longitudes[slot] = oldLongitudes[i];
+      speeds[slot] = oldSpeeds[i];
+      courses[slot] = oldCourses[i];
+      times[slot] = oldTimes[i];
+    }
+  }
+}
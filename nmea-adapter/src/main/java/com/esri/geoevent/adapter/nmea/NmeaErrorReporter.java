@@ -0,0 +1,229 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+package com.esri.geoevent.adapter.nmea;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+
+/**
+ * Deduplicated, rate-limited logging of the sentence errors of one worker.
+ * Errors are counted per channel and kind (error type and GeoEvent
+ * Definition). The first error of a kind on a channel is logged right away,
+ * later ones only as a count in a summary written once per interval, together
+ * with the first sentence and error of the interval. A channel streaming bad
+ * data therefore costs a map lookup and an increment per sentence instead of
+ * a log line.
+ */
+public class NmeaErrorReporter
+{
+  private static final BundleLogger LOGGER = BundleLoggerFactory.getLogger(NmeaErrorReporter.class);
+
+  public enum Kind
+  {
+    /** A sentence type without translator. */
+    UNKNOWN_TYPE,
+    /** A sentence rejected by its translator's validation. */
+    INVALID_SENTENCE,
+    /** A sentence or epoch that failed to translate. */
+    TRANSLATION_ERROR,
+    /** A GeoEvent the listener failed to receive. */
+    EMIT_ERROR,
+    /** A sentence dropped because the adapter is overloaded. */
+    SHED
+  }
+
+  private final long                intervalMillis;
+  private final IntFunction<String> typeNames;
+  // errors of the current interval, by channel id (null for errors that are
+  // not tied to a channel)
+  private final Map<String, Errors> errors   = new HashMap<String, Errors>();
+  private long                      deadline = Long.MAX_VALUE;
+
+  /**
+   * @param typeNames
+   *          the sentence type names, by type index (see
+   *          {@link NMEAMessageTranslator#getTypeIndex()}).
+   */
+  public NmeaErrorReporter(long intervalMillis, IntFunction<String> typeNames)
+  {
+    this.intervalMillis = Math.max(1, intervalMillis);
+    this.typeNames = typeNames;
+  }
+
+  /**
+   * @param channelId
+   *          the channel, or null
+   * @param typeIndex
+   *          the type of the sentence's translator, or -1
+   * @param sentence
+   *          the sentence in error, or null
+   * @param error
+   *          the error, or null
+   */
+  public void report(String channelId, Kind kind, int typeIndex, NmeaSentence sentence, Exception error)
+  {
+    if (error != null)
+      LOGGER.debug(error.getMessage(), error);
+    Errors channelErrors = errors.get(channelId);
+    if (channelErrors == null)
+    {
+      channelErrors = new Errors();
+      errors.put(channelId, channelErrors);
+    }
+    int key = (kind.ordinal() << 16) | (typeIndex + 1);
+    int i = channelErrors.indexOf(key);
+    if (channelErrors.counts[i]++ > 0)
+      return;
+
+    // first error of the kind in this interval
+    String sample = (sentence != null) ? sentence.toString() : "";
+    String message = (error != null) ? String.valueOf(error.getMessage()) : messageOf(kind);
+    if (!channelErrors.reported[i])
+    {
+      channelErrors.reported[i] = true;
+      channelErrors.logged[i] = 1;
+      LOGGER.info("ERROR_FIRST", channelId, kindOf(key), message, sample, intervalMillis / 1000);
+    }
+    channelErrors.samples[i] = sample;
+    channelErrors.messages[i] = message;
+    if (deadline == Long.MAX_VALUE)
+      deadline = System.currentTimeMillis() + intervalMillis;
+  }
+
+  /**
+   * @return the time (in milliseconds) at which the next summary is due, or
+   *         Long.MAX_VALUE if there is nothing to report.
+   */
+  public long getDeadline()
+  {
+    return deadline;
+  }
+
+  public void onTimer(long now)
+  {
+    if (now >= deadline)
+      summarize();
+  }
+
+  /**
+   * Writes the summary of the current interval, called when the worker stops.
+   */
+  public void close()
+  {
+    summarize();
+  }
+
+  private void summarize()
+  {
+    deadline = Long.MAX_VALUE;
+    for (Iterator<Map.Entry<String, Errors>> entries = errors.entrySet().iterator(); entries.hasNext();)
+    {
+      Map.Entry<String, Errors> entry = entries.next();
+      Errors channelErrors = entry.getValue();
+      boolean active = false;
+      for (int i = 0; i < channelErrors.size; i++)
+      {
+        long count = channelErrors.counts[i];
+        long unlogged = count - channelErrors.logged[i];
+        if (unlogged > 0)
+          LOGGER.info("ERROR_SUMMARY", entry.getKey(), count, kindOf(channelErrors.keys[i]), intervalMillis / 1000, channelErrors.messages[i], channelErrors.samples[i]);
+        // a kind that stayed quiet for a whole interval is logged right away
+        // again when it comes back
+        if (count == 0)
+          channelErrors.reported[i] = false;
+        else
+          active = true;
+        channelErrors.counts[i] = 0;
+        channelErrors.logged[i] = 0;
+        channelErrors.samples[i] = null;
+        channelErrors.messages[i] = null;
+      }
+      if (!active)
+        entries.remove();
+    }
+    if (!errors.isEmpty())
+      deadline = System.currentTimeMillis() + intervalMillis;
+  }
+
+  private static String messageOf(Kind kind)
+  {
+    switch (kind)
+    {
+      case UNKNOWN_TYPE:
+        return "No translator for the sentence type.";
+      case SHED:
+        return "Dropped while the adapter is overloaded.";
+      default:
+        return "";
+    }
+  }
+
+  private String kindOf(int key)
+  {
+    String kind = Kind.values()[key >>> 16].name();
+    int typeIndex = (key & 0xFFFF) - 1;
+    return (typeIndex >= 0) ? kind + " (" + typeNames.apply(typeIndex) + ")" : kind;
+  }
+
+  /**
+   * Error counts of one channel, by kind key, in a few parallel arrays.
+   */
+  private static class Errors
+  {
+    private int[]     keys     = new int[4];
+    private long[]    counts   = new long[4];
+    private long[]    logged   = new long[4];
+    private boolean[] reported = new boolean[4];
+    private String[]  samples  = new String[4];
+    private String[]  messages = new String[4];
+    private int       size;
+
+    int indexOf(int key)
+    {
+      for (int i = 0; i < size; i++)
+      {
+        if (keys[i] == key)
+          return i;
+      }
+      if (size == keys.length)
+      {
+        int capacity = size * 2;
+        keys = Arrays.copyOf(keys, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        logged = Arrays.copyOf(logged, capacity);
+        reported = Arrays.copyOf(reported, capacity);
+        samples = Arrays.copyOf(samples, capacity);
+        messages = Arrays.copyOf(messages, capacity);
+      }
+      keys[size] = key;
+      return size++;
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+package com.esri.geoevent.adapter.nmea;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.esri.ges.core.geoevent.GeoEvent;
+
+/**
+ * Collects the GeoEvents translated by one worker and hands them to the
+ * listener once the batch is full or its oldest event has waited the maximum
+ * latency. With a batch size of 1 events are passed through immediately.
+ * <p>
+ * GeoEvents are still created and passed to the listener one at a time, as
+ * GeoEvent Server takes them, so a batch only saves reading the clock per
+ * event; larger batches add latency without raising throughput.
+ * <p>
+ * When given a histogram, the time from the receive() call that produced each
+ * event (see {@link #setReceivedTime(long)}) to the end of its batch's
+ * delivery is recorded. Instances are confined to their worker thread.
+ */
+public class NmeaEventBatcher
+{
+  private final int                  batchSize;
+  private final long                 maxLatencyMillis;
+  private final Consumer<GeoEvent>   listener;
+  private final List<GeoEvent>       pending;
+  private final NmeaLatencyHistogram latency;
+  private final long[]               pendingReceivedTimes;
+  private long                       receivedTime;
+  private long                       deadline = Long.MAX_VALUE;
+
+  /**
+   * @param latency
+   *          the histogram of the receive-to-delivery times, or null.
+   */
+  public NmeaEventBatcher(int batchSize, long maxLatencyMillis, Consumer<GeoEvent> listener, NmeaLatencyHistogram latency)
+  {
+    this.batchSize = Math.max(1, batchSize);
+    this.maxLatencyMillis = Math.max(0, maxLatencyMillis);
+    this.listener = listener;
+    this.pending = new ArrayList<GeoEvent>(this.batchSize);
+    this.latency = latency;
+    this.pendingReceivedTimes = new long[this.batchSize];
+  }
+
+  /**
+   * @param nanos
+   *          the System.nanoTime() at which the data of the following events
+   *          was received, or 0 if the events do not come from received data
+   *          (e.g. timeouts).
+   */
+  public void setReceivedTime(long nanos)
+  {
+    this.receivedTime = nanos;
+  }
+
+  public void add(GeoEvent geoEvent)
+  {
+    if (batchSize == 1)
+    {
+      listener.accept(geoEvent);
+      if (latency != null && receivedTime != 0)
+        latency.recordNanos(System.nanoTime() - receivedTime);
+      return;
+    }
+    if (pending.isEmpty())
+      deadline = System.currentTimeMillis() + maxLatencyMillis;
+    pendingReceivedTimes[pending.size()] = receivedTime;
+    pending.add(geoEvent);
+    if (pending.size() >= batchSize)
+      flush();
+  }
+
+  /**
+   * @return the time (in milliseconds) at which the pending events must be
+   *         flushed, or Long.MAX_VALUE if there are none.
+   */
+  public long getDeadline()
+  {
+    return deadline;
+  }
+
+  public int size()
+  {
+    return pending.size();
+  }
+
+  public void flush()
+  {
+    deadline = Long.MAX_VALUE;
+    if (pending.isEmpty())
+      return;
+    int delivered = 0;
+    try
+    {
+      for (; delivered < pending.size(); delivered++)
+        listener.accept(pending.get(delivered));
+    }
+    finally
+    {
+      if (latency != null)
+      {
+        long now = System.nanoTime();
+        for (int i = 0; i < delivered; i++)
+          if (pendingReceivedTimes[i] != 0)
+            latency.recordNanos(now - pendingReceivedTimes[i]);
+      }
+      pending.clear();
+    }
+  }
+}
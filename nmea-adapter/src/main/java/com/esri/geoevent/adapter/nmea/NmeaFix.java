@@ -0,0 +1,282 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+package com.esri.geoevent.adapter.nmea;
+
+/**
+ * The values reported for one device (channel and talker) at one UTC epoch,
+ * merged from the RMC, GGA, GLL, VTG and GSA sentences of that epoch. Missing
+ * numbers are NaN (or -1 for counts) and missing flags 0. Instances are
+ * reused from epoch to epoch and only used by the worker owning the channel.
+ */
+public class NmeaFix
+{
+  private final NmeaChannel channel;
+  private final String      talker;
+
+  private long              timeOfDay = NmeaTimeParser.INVALID;
+  private long              time      = NmeaTimeParser.INVALID;
+  private double            latitude;
+  private double            longitude;
+  private double            altitude;
+  private double            speed;
+  private double            course;
+  private double            pdop;
+  private double            hdop;
+  private double            vdop;
+  private int               quality;
+  private int               satellites;
+  private byte              validity;
+  private byte              fixType;
+
+  // translators (as 1 << index) that contributed to the current epoch, and
+  // the ones that made up the last complete epoch
+  private int               sentences;
+  private int               expectedSentences;
+  private long              deadline  = Long.MAX_VALUE;
+
+  public NmeaFix(NmeaChannel channel, String talker)
+  {
+    this.channel = channel;
+    this.talker = talker;
+    clear();
+  }
+
+  public NmeaChannel getChannel()
+  {
+    return channel;
+  }
+
+  public String getTalker()
+  {
+    return talker;
+  }
+
+  /**
+   * @return true once a sentence carrying a time of day has started the epoch.
+   */
+  public boolean isOpen()
+  {
+    return timeOfDay != NmeaTimeParser.INVALID;
+  }
+
+  public void open(long timeOfDay, long deadline)
+  {
+    this.timeOfDay = timeOfDay;
+    this.deadline = deadline;
+  }
+
+  /**
+   * Forgets the values of the epoch, keeping what was learned about which
+   * sentences make up an epoch.
+   */
+  public void clear()
+  {
+    timeOfDay = NmeaTimeParser.INVALID;
+    time = NmeaTimeParser.INVALID;
+    latitude = Double.NaN;
+    longitude = Double.NaN;
+    altitude = Double.NaN;
+    speed = Double.NaN;
+    course = Double.NaN;
+    pdop = Double.NaN;
+    hdop = Double.NaN;
+    vdop = Double.NaN;
+    quality = -1;
+    satellites = -1;
+    validity = 0;
+    fixType = 0;
+    sentences = 0;
+    deadline = Long.MAX_VALUE;
+  }
+
+  public void addSentence(int translatorIndex)
+  {
+    sentences |= 1 << translatorIndex;
+  }
+
+  /**
+   * Remembers the sentences of the epoch being closed as the ones expected in
+   * every epoch.
+   */
+  public void learnSentences()
+  {
+    expectedSentences = sentences;
+  }
+
+  /**
+   * @return true if all the sentences expected in an epoch have been added.
+   */
+  public boolean isComplete()
+  {
+    return expectedSentences != 0 && (sentences & expectedSentences) == expectedSentences;
+  }
+
+  public long getDeadline()
+  {
+    return deadline;
+  }
+
+  public long getTimeOfDay()
+  {
+    return timeOfDay;
+  }
+
+  public long getTime()
+  {
+    return time;
+  }
+
+  public void setTime(long time)
+  {
+    this.time = time;
+  }
+
+  public boolean hasPosition()
+  {
+    return !Double.isNaN(latitude) && !Double.isNaN(longitude);
+  }
+
+  public double getLatitude()
+  {
+    return latitude;
+  }
+
+  public double getLongitude()
+  {
+    return longitude;
+  }
+
+  public void setPosition(double latitude, double longitude)
+  {
+    this.latitude = latitude;
+    this.longitude = longitude;
+  }
+
+  public double getAltitude()
+  {
+    return altitude;
+  }
+
+  public void setAltitude(double altitude)
+  {
+    this.altitude = altitude;
+  }
+
+  public double getSpeed()
+  {
+    return speed;
+  }
+
+  /**
+   * @param speed
+   *          speed over ground in knots
+   */
+  public void setSpeed(double speed)
+  {
+    this.speed = speed;
+  }
+
+  public double getCourse()
+  {
+    return course;
+  }
+
+  public void setCourse(double course)
+  {
+    this.course = course;
+  }
+
+  public double getPdop()
+  {
+    return pdop;
+  }
+
+  public double getHdop()
+  {
+    return hdop;
+  }
+
+  public double getVdop()
+  {
+    return vdop;
+  }
+
+  public void setDilutionOfPrecision(double pdop, double hdop, double vdop)
+  {
+    this.pdop = pdop;
+    this.hdop = hdop;
+    this.vdop = vdop;
+  }
+
+  public void setHdop(double hdop)
+  {
+    this.hdop = hdop;
+  }
+
+  public int getQuality()
+  {
+    return quality;
+  }
+
+  public void setQuality(int quality)
+  {
+    this.quality = quality;
+  }
+
+  public int getSatellites()
+  {
+    return satellites;
+  }
+
+  public void setSatellites(int satellites)
+  {
+    this.satellites = satellites;
+  }
+
+  /**
+   * @return the RMC/GLL status ('A' valid, 'V' void), or 0.
+   */
+  public byte getValidity()
+  {
+    return validity;
+  }
+
+  public void setValidity(byte validity)
+  {
+    this.validity = validity;
+  }
+
+  /**
+   * @return the GSA fix type ('1' none, '2' 2D, '3' 3D), or 0.
+   */
+  public byte getFixType()
+  {
+    return fixType;
+  }
+
+  public void setFixType(byte fixType)
+  {
+    this.fixType = fixType;
+  }
+}
@@ -0,0 +1,71 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+package com.esri.geoevent.adapter.nmea;
+
+import java.util.Date;
+
+import com.esri.ges.core.geoevent.FieldException;
+import com.esri.ges.core.geoevent.GeoEvent;
+
+/**
+ * Fills a NMEAFix GeoEvent from a fused {@link NmeaFix}.
+ */
+public class NmeaFixTranslator
+{
+  public static final String GEOEVENT_DEFINITION_NAME = "NMEAFix";
+
+  public void translate(NmeaFix fix, GeoEvent geoEvent) throws FieldException
+  {
+    int i = 0;
+    geoEvent.setField(i++, fix.getChannel().getId());
+    geoEvent.setField(i++, fix.getTalker());
+    geoEvent.setField(i++, (fix.getTime() != NmeaTimeParser.INVALID) ? new Date(fix.getTime()) : null);
+    geoEvent.setField(i++, fix.hasPosition() ? NMEAMessageTranslator.toPoint(fix.getLatitude(), fix.getLongitude()) : null);
+    geoEvent.setField(i++, toString(fix.getValidity()));
+    geoEvent.setField(i++, toShort(fix.getQuality()));
+    geoEvent.setField(i++, toShort(fix.getSatellites()));
+    geoEvent.setField(i++, toDouble(fix.getAltitude()));
+    geoEvent.setField(i++, toDouble(fix.getSpeed()));
+    geoEvent.setField(i++, toDouble(fix.getCourse()));
+    geoEvent.setField(i++, toString(fix.getFixType()));
+    geoEvent.setField(i++, toDouble(fix.getPdop()));
+    geoEvent.setField(i++, toDouble(fix.getHdop()));
+    geoEvent.setField(i++, toDouble(fix.getVdop()));
+  }
+
+  private static Double toDouble(double value)
+  {
+    return Double.isNaN(value) ? null : Double.valueOf(value);
+  }
+
+  private static Short toShort(int value)
+  {
+    return (value < 0) ? null : Short.valueOf((short) value);
+  }
+
+  private static String toString(byte flag)
+  {
+    return (flag > 0) ? NmeaSentence.toString(flag) : null;
+  }
+}
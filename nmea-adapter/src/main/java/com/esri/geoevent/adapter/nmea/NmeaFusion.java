@@ -0,0 +1,156 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+package com.esri.geoevent.adapter.nmea;
+
+import java.util.function.Consumer;
+
+import com.esri.ges.core.geoevent.FieldException;
+
+/**
+ * Merges the sentences a device sends for the same UTC epoch into one
+ * {@link NmeaFix}. An epoch is emitted when a sentence with a different time
+ * arrives, when all the sentences seen in the previous full epoch have been
+ * added, or when the timeout expires. Sentences without a time (VTG, GSA) are
+ * added to the epoch that is open when they arrive. One instance is owned by
+ * each worker.
+ */
+public class NmeaFusion
+{
+  public enum OutputMode
+  {
+    /** One event per sentence, as translated by its own definition. */
+    SENTENCES,
+    /** One NMEAFix event per device and epoch. */
+    FUSED,
+    /** Both the sentence events and the NMEAFix events. */
+    BOTH
+  }
+
+  private final long              timeoutMillis;
+  private final Consumer<NmeaFix> emitter;
+
+  // ring of (fix, deadline) in deadline order; entries of fixes emitted or
+  // reopened since are skipped when they expire
+  private NmeaFix[]               timeoutFixes     = new NmeaFix[64];
+  private long[]                  timeoutDeadlines = new long[64];
+  private int                     head;
+  private int                     size;
+
+  public NmeaFusion(long timeoutMillis, Consumer<NmeaFix> emitter)
+  {
+    this.timeoutMillis = Math.max(0, timeoutMillis);
+    this.emitter = emitter;
+  }
+
+  public void add(NMEAMessageTranslator translator, NmeaChannel channel, NmeaSentence sentence) throws FieldException
+  {
+    NmeaFix fix = channel.getFix(NmeaTranslatorTable.talkerOf(sentence));
+    long timeOfDay = translator.getTimeOfDay(sentence);
+    if (timeOfDay != NmeaTimeParser.INVALID)
+    {
+      if (fix.isOpen() && timeOfDay != fix.getTimeOfDay())
+      {
+        fix.learnSentences();
+        emit(fix);
+      }
+      if (!fix.isOpen())
+      {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        fix.open(timeOfDay, deadline);
+        schedule(fix, deadline);
+      }
+    }
+    translator.fuse(channel, sentence, fix);
+    fix.addSentence(translator.getIndex());
+    if (fix.isOpen() && fix.isComplete())
+      emit(fix);
+  }
+
+  /**
+   * @return the earliest epoch timeout (in milliseconds), or Long.MAX_VALUE.
+   */
+  public long getDeadline()
+  {
+    return (size > 0) ? timeoutDeadlines[head] : Long.MAX_VALUE;
+  }
+
+  public void onTimer(long now)
+  {
+    while (size > 0 && timeoutDeadlines[head] <= now)
+      expire();
+  }
+
+  /**
+   * Emits all open epochs, called when the worker stops.
+   */
+  public void close()
+  {
+    while (size > 0)
+      expire();
+  }
+
+  private void expire()
+  {
+    NmeaFix fix = timeoutFixes[head];
+    long deadline = timeoutDeadlines[head];
+    timeoutFixes[head] = null;
+    head = (head + 1) % timeoutFixes.length;
+    size--;
+    if (fix.isOpen() && fix.getDeadline() == deadline)
+      emit(fix);
+  }
+
+  private void emit(NmeaFix fix)
+  {
+    try
+    {
+      emitter.accept(fix);
+    }
+    finally
+    {
+      fix.clear();
+    }
+  }
+
+  private void schedule(NmeaFix fix, long deadline)
+  {
+    if (size == timeoutFixes.length)
+    {
+      NmeaFix[] fixes = new NmeaFix[size * 2];
+      long[] deadlines = new long[size * 2];
+      for (int i = 0; i < size; i++)
+      {
+        fixes[i] = timeoutFixes[(head + i) % size];
+        deadlines[i] = timeoutDeadlines[(head + i) % size];
+      }
+      timeoutFixes = fixes;
+      timeoutDeadlines = deadlines;
+      head = 0;
+    }
+    int tail = (head + size) % timeoutFixes.length;
+    timeoutFixes[tail] = fix;
+    timeoutDeadlines[tail] = deadline;
+    size++;
+  }
+}
@@ -24,101 +24,375 @@
 
 package com.esri.geoevent.adapter.nmea;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import com.esri.ges.adapter.AdapterDefinition;
 import com.esri.ges.adapter.InboundAdapterBase;
 import com.esri.ges.core.component.ComponentException;
+import com.esri.ges.core.geoevent.ConfigurationException;
+import com.esri.ges.core.geoevent.FieldException;
 import com.esri.ges.core.geoevent.GeoEvent;
 import com.esri.ges.core.geoevent.GeoEventDefinition;
+import com.esri.ges.core.validation.ValidationException;
 import com.esri.ges.framework.i18n.BundleLogger;
 import com.esri.ges.framework.i18n.BundleLoggerFactory;
 import com.esri.ges.messaging.GeoEventCreator;
+import com.esri.ges.messaging.MessagingException;
 
-public class NmeaInboundAdapter extends InboundAdapterBase
+public class NmeaInboundAdapter extends InboundAdapterBase implements NmeaByteListener
 {
-  private static final BundleLogger                LOGGER        = BundleLoggerFactory.getLogger(NmeaInboundAdapter.class);
+  private static final BundleLogger                LOGGER                      = BundleLoggerFactory.getLogger(NmeaInboundAdapter.class);
+  private static final long                        DEFINITION_REFRESH_INTERVAL = 10000L;
+  private static final String                      DEFAULT_SENTENCE_PRIORITIES = "RMC=3,GGA=3,VDO=3,GLL=2,VDM=2,VTG=1,GSA=0";
+  private static final String                      DEFAULT_COALESCED_SENTENCES = "RMC,GGA,GLL,VTG,GSA";
+  private static final String                      SENTENCE_MAPPINGS           = "/sentence-mappings.xml";
 
-  private final Map<String, NMEAMessageTranslator> translators   = new HashMap<String, NMEAMessageTranslator>();
-  StringBuilder                                    nameBuffer    = new StringBuilder();
-  private Map<String, GeoEventDefinition>          definitionMap = new HashMap<String, GeoEventDefinition>();
-  private ExecutorService                          threadPool;
+  private final List<NMEAMessageTranslator>        translators            = new ArrayList<NMEAMessageTranslator>();
+  private final NmeaTranslatorTable                translatorTable        = new NmeaTranslatorTable();
+  private final NmeaFixTranslator                  fixTranslator          = new NmeaFixTranslator();
+  private final NmeaAisTranslator                  aisTranslator          = new NmeaAisTranslator();
+  private final List<NmeaMappedTranslator>         mappedTranslators      = new ArrayList<NmeaMappedTranslator>();
+  private final List<String>                       definitionNames        = new ArrayList<String>();
+  // the sentence types the metrics and error reports count by: a translator
+  // each, and the fused fixes
+  private final List<String>                       typeNames              = new ArrayList<String>();
+  private final int                                fixDefinitionIndex;
+  private final int                                fixTypeIndex;
+  private final NmeaMetrics                        metrics;
+  StringBuilder                                    nameBuffer             = new StringBuilder();
+  // resolved definitions, indexed like definitionNames, replaced as a whole
+  // under the definition lock (not the adapter monitor, which receive() takes)
+  private volatile GeoEventDefinition[]            definitions            = new GeoEventDefinition[0];
+  private final Object                             definitionLock         = new Object();
+  private final AtomicLong                         missingDefinitionCount = new AtomicLong();
+  // when a missing definition was last logged and resolved again
+  private final AtomicLong                         missingDefinitionTime  = new AtomicLong();
+  private NmeaWorkerPool                           workerPool;
+  private int                                      workerThreads;
+  private int                                      queueCapacity;
+  private NmeaWorkerPool.OverflowPolicy            overflowPolicy;
+  private NmeaWorkerPool.ExecutionMode             executionMode          = NmeaWorkerPool.ExecutionMode.PLATFORM;
+  private int                                      maxSentenceLength      = 512;
+  private NmeaSentenceFramer.ChecksumMode          checksumMode           = NmeaSentenceFramer.ChecksumMode.VERIFY;
+  private NmeaSentenceFramer.Framing               framing                = NmeaSentenceFramer.Framing.STREAM;
+  private int                                      parallelThreshold      = 1048576;
+  private final ConcurrentMap<String, NmeaChannel> channels               = new ConcurrentHashMap<String, NmeaChannel>();
+  private final AtomicInteger                      channelNumbers         = new AtomicInteger();
+  // framer rejects of the evicted channels, by reason
+  private final AtomicLongArray                    evictedRejects         = new AtomicLongArray(NmeaSentenceFramer.RejectReason.values().length);
+  private long                                     channelIdleTimeout     = 3600000;
+  // runs the sweeps for idle channels and the refreshes of the definitions
+  // while the worker pool exists
+  private volatile ScheduledExecutorService        maintenance;
+  private int                                      batchSize              = 1;
+  private long                                     batchMaxLatency        = 100;
+  private NmeaFusion.OutputMode                    outputMode             = NmeaFusion.OutputMode.SENTENCES;
+  private long                                     fusionTimeout          = 1000;
+  private double                                   downsampleDistance;
+  private double                                   downsampleHeading;
+  private double                                   downsampleSpeed;
+  private long                                     downsampleHeartbeat;
+  private long                                     errorReportInterval    = 60000;
+  private int                                      positionStoreSize;
+  private volatile NmeaPositionStore               positionStore;
+  // null unless load shedding is enabled
+  private NmeaLoadShedder                          loadShedder;
 
   public NmeaInboundAdapter(AdapterDefinition definition) throws ComponentException
   {
     super(definition);
-    translators.put("NMEAGPGGA", new NMEAGPGGAMessageTranslator());
-    translators.put("NMEAGPGLL", new NMEAGPGLLMessageTranslator());
-    translators.put("NMEAGPRMC", new NMEAGPRMCMessageTranslator());
-    translators.put("NMEAGPGSA", new NMEAGPGSAMessageTranslator());
-    translators.put("NMEAGPVTG", new NMEAGPVTGMessageTranslator());
+    // the definitions keep their GP names, but serve every talker (GN, GL,
+    // GA, BD, ...)
+    register("GGA", "NMEAGPGGA", new NMEAGPGGAMessageTranslator());
+    register("GLL", "NMEAGPGLL", new NMEAGPGLLMessageTranslator());
+    register("RMC", "NMEAGPRMC", new NMEAGPRMCMessageTranslator());
+    register("GSA", "NMEAGPGSA", new NMEAGPGSAMessageTranslator());
+    register("VTG", "NMEAGPVTG", new NMEAGPVTGMessageTranslator());
+    fixDefinitionIndex = addGeoEventDefinitionName(NmeaFixTranslator.GEOEVENT_DEFINITION_NAME);
+    fixTypeIndex = addTypeName(NmeaFixTranslator.GEOEVENT_DEFINITION_NAME);
+    // AIS messages map to a definition per message type
+    for (int report = 0; report < NmeaAisTranslator.GEOEVENT_DEFINITION_NAMES.length; report++)
+      aisTranslator.setDefinitionIndex(report, addGeoEventDefinitionName(NmeaAisTranslator.GEOEVENT_DEFINITION_NAMES[report]));
+    addTranslator(aisTranslator);
+    translatorTable.register("VDM", aisTranslator);
+    translatorTable.register("VDO", aisTranslator);
+    registerMappedTranslators();
+    metrics = new NmeaMetrics(this, typeNames.size());
     LOGGER.trace("Created NMEA adapter and translators");
   }
 
-  private class GeoEventProducer implements Runnable
+  private void register(String formatter, String gedName, NMEAMessageTranslator translator)
   {
-    private String       channelId;
+    translator.setGeoEventDefinitionName(gedName);
+    translator.setIndex(addGeoEventDefinitionName(gedName));
+    addTranslator(translator);
+    translatorTable.register(formatter, translator);
+  }
+
+  private void addTranslator(NMEAMessageTranslator translator)
+  {
+    translator.setTypeIndex(addTypeName(translator.getTypeName()));
+    translators.add(translator);
+  }
+
+  /**
+   * Creates a translator per address of the bundled sentence mappings. A
+   * mapping of a 3-letter formatter (e.g. "HDT") serves every talker and
+   * replaces the built-in translator of the formatter, any other address must
+   * be proprietary (e.g. "PGRME").
+   */
+  private void registerMappedTranslators() throws ComponentException
+  {
+    List<NmeaSentenceMapping> mappings;
+    try (InputStream in = NmeaInboundAdapter.class.getResourceAsStream(SENTENCE_MAPPINGS))
+    {
+      if (in == null)
+        return;
+      mappings = NmeaSentenceMapping.parse(in);
+    }
+    catch (ConfigurationException | IOException error)
+    {
+      throw new ComponentException(LOGGER.translate("SENTENCE_MAPPINGS_INVALID", SENTENCE_MAPPINGS, error.getMessage()));
+    }
+    Map<String, List<NmeaSentenceMapping>> mappingsByAddress = new LinkedHashMap<String, List<NmeaSentenceMapping>>();
+    for (NmeaSentenceMapping mapping : mappings)
+      mappingsByAddress.computeIfAbsent(mapping.getAddress(), address -> new ArrayList<NmeaSentenceMapping>()).add(mapping);
+    for (List<NmeaSentenceMapping> addressMappings : mappingsByAddress.values())
+    {
+      int[] definitionIndexes = new int[addressMappings.size()];
+      for (int i = 0; i < definitionIndexes.length; i++)
+        definitionIndexes[i] = indexOfGeoEventDefinitionName(addressMappings.get(i).getGeoEventDefinitionName());
+      NmeaMappedTranslator translator = new NmeaMappedTranslator(addressMappings, definitionIndexes);
+      try
+      {
+        if (translator.getAddress().length() == 3)
+          translatorTable.register(translator.getAddress(), translator);
+        else
+          translatorTable.registerProprietary(translator.getAddress(), translator);
+      }
+      catch (IllegalArgumentException error)
+      {
+        throw new ComponentException(LOGGER.translate("SENTENCE_MAPPINGS_INVALID", SENTENCE_MAPPINGS, LOGGER.translate("MAPPING_INVALID_ADDRESS", translator.getAddress())));
+      }
+      addTranslator(translator);
+      mappedTranslators.add(translator);
+    }
+  }
+
+  private int addGeoEventDefinitionName(String gedName)
+  {
+    definitionNames.add(gedName);
+    return definitionNames.size() - 1;
+  }
+
+  private int addTypeName(String typeName)
+  {
+    typeNames.add(typeName);
+    return typeNames.size() - 1;
+  }
+
+  /**
+   * @return the index of a definition the adapter already produces, or of
+   *         the definition added.
+   */
+  private int indexOfGeoEventDefinitionName(String gedName)
+  {
+    int index = definitionNames.indexOf(gedName);
+    return (index >= 0) ? index : addGeoEventDefinitionName(gedName);
+  }
+
+  private class GeoEventProducer implements NmeaWorkerTask
+  {
+    private NmeaChannel  channel;
     private List<byte[]> messages;
+    private long         receivedTime;
+    private int          sequence;
+    private Runnable     processed;
 
-    public GeoEventProducer(String channelId, List<byte[]> messages)
+    /**
+     * @param sequence
+     *          the channel's number of the first message, used to coalesce
+     *          sentences while shedding load.
+     * @param processed
+     *          run once every message was processed, or null.
+     */
+    public GeoEventProducer(NmeaChannel channel, List<byte[]> messages, long receivedTime, int sequence, Runnable processed)
     {
-      this.channelId = channelId;
+      this.channel = channel;
       this.messages = messages;
+      this.receivedTime = receivedTime;
+      this.sequence = sequence;
+      this.processed = processed;
     }
 
     @Override
-    public void run()
+    public void run(NmeaWorkerContext context)
     {
-      while (!messages.isEmpty())
+      NmeaSentence sentence = context.getSentence();
+      context.getBatcher().setReceivedTime(receivedTime);
+      int sheddingLevel = (loadShedder != null) ? loadShedder.getLevel(System.nanoTime() - receivedTime, context.getBacklog()) : 0;
+      try
       {
-        if (Thread.interrupted())
-          return;
-        String msg = new String(messages.remove(0));
-        if (msg != null && !msg.trim().isEmpty())
+        for (int i = 0; i < messages.size(); i++)
         {
-          LOGGER.trace("Processing message: {0}", msg);
-          String[] data = msg.split(",");
-          if (data != null && data.length > 0)
+          byte[] message = messages.get(i);
+          if (Thread.interrupted())
+            return;
+          if (message.length > 0)
+          {
+            sentence.reset(message);
+            if (LOGGER.isTraceEnabled())
+              LOGGER.trace("Processing message: {0} with {1} parts", sentence, sentence.getFieldCount());
+            process(context, sentence, sheddingLevel, sequence + i);
+          }
+          else
           {
-            LOGGER.trace("Message type {0} has {1} parts", data[0], data.length);
-            String gedName = "NMEA" + data[0];
-            if (translators.containsKey(gedName))
-            {
-              try
-              {
-                NMEAMessageTranslator translator = translators.get(gedName);
-                translator.validate(data);
-                GeoEvent geoEvent = geoEventCreator.create(getGeoEventDefinition(gedName).getGuid());
-                geoEvent.setField(0, channelId);
-                translator.translate(geoEvent, data);
-                geoEventListener.receive(geoEvent);
-              }
-              catch (Exception error)
-              {
-                LOGGER.info("TRANSLATION_ERROR", error.getMessage());
-                LOGGER.debug(error.getMessage(), error);
-              }
-            }
-            else
-            {
-              LOGGER.info("Can't translate message type {0}: {1}", gedName, msg);
-            }
-          }else {
-            LOGGER.info("Can't translate empty/null message array.");
+            context.getErrorReporter().report(channel.getId(), NmeaErrorReporter.Kind.UNKNOWN_TYPE, -1, null, null);
           }
         }
-        else
+        if (processed != null)
+          processed.run();
+      }
+      finally
+      {
+        context.getBatcher().setReceivedTime(0);
+      }
+    }
+
+    private void process(NmeaWorkerContext context, NmeaSentence sentence, int sheddingLevel, int sentenceSequence)
+    {
+      NMEAMessageTranslator translator = translatorTable.lookup(sentence);
+      metrics.onSentence((translator != null) ? translator.getTypeIndex() : -1, NmeaTranslatorTable.talkerIndexOf(sentence));
+      if (translator == null)
+      {
+        context.getErrorReporter().report(channel.getId(), NmeaErrorReporter.Kind.UNKNOWN_TYPE, -1, sentence, null);
+        return;
+      }
+      if (sheddingLevel > 0 && shed(context, translator, sentence, sheddingLevel, sentenceSequence))
+        return;
+      int definitionIndex;
+      try
+      {
+        translator.validate(sentence);
+        definitionIndex = translator.getDefinitionIndex(channel, sentence);
+      }
+      catch (ValidationException error)
+      {
+        metrics.onValidationFailure(translator.getTypeIndex());
+        context.getErrorReporter().report(channel.getId(), NmeaErrorReporter.Kind.INVALID_SENTENCE, translator.getTypeIndex(), sentence, error);
+        return;
+      }
+      if (definitionIndex < 0)
+        return;
+      try
+      {
+        // sentences relaying other stations (AIS) are neither fused nor
+        // downsampled per device
+        if (translator.describesReceiver())
         {
-          LOGGER.info("Can't translate empty/null message string");
+          NmeaPositionStore store = positionStore;
+          if (store != null)
+            storePosition(store, context.getFix(), translator, sentence);
+          if (context.getFusion() != null)
+            context.getFusion().add(translator, channel, sentence);
+          if (outputMode == NmeaFusion.OutputMode.FUSED)
+            return;
+          if (context.getFilter() != null && !context.getFilter().accept(translator, channel, sentence))
+          {
+            metrics.onSuppressed();
+            return;
+          }
         }
+        GeoEvent geoEvent = createGeoEvent(definitionIndex);
+        if (geoEvent == null)
+          return;
+        geoEvent.setField(0, channel.getId());
+        geoEvent.setField(1, NmeaTranslatorTable.talkerOf(sentence));
+        translator.translate(channel, geoEvent, sentence);
+        context.getBatcher().add(geoEvent);
+      }
+      catch (Exception error)
+      {
+        metrics.onTranslationError();
+        context.getErrorReporter().report(channel.getId(), NmeaErrorReporter.Kind.TRANSLATION_ERROR, translator.getTypeIndex(), sentence, error);
+      }
+    }
+
+    private void storePosition(NmeaPositionStore store, NmeaFix fix, NMEAMessageTranslator translator, NmeaSentence sentence) throws FieldException
+    {
+      fix.clear();
+      translator.fuse(channel, sentence, fix);
+      int talkerIndex = NmeaTranslatorTable.talkerIndexOf(sentence);
+      if (store.update(channel.getNumber(), talkerIndex, fix))
+        channel.addStoredTalker(talkerIndex);
+    }
+
+    /**
+     * @return true if the sentence is dropped, because a newer sentence of
+     *         its talker and type is queued or for its priority.
+     */
+    private boolean shed(NmeaWorkerContext context, NMEAMessageTranslator translator, NmeaSentence sentence, int sheddingLevel, int sentenceSequence)
+    {
+      int addressKey = NmeaTranslatorTable.addressKeyOf(sentence);
+      boolean coalesced = loadShedder.isCoalesced(addressKey) && channel.isSuperseded(addressKey, sentenceSequence);
+      if (!coalesced && !loadShedder.isShed(addressKey, sheddingLevel))
+        return false;
+      metrics.onShed(translator.getTypeIndex(), coalesced);
+      context.getErrorReporter().report(channel.getId(), NmeaErrorReporter.Kind.SHED, translator.getTypeIndex(), sentence, null);
+      return true;
+    }
+  }
+
+  /**
+   * Removes a channel that has been idle for the channel idle timeout, with
+   * its devices in the downsampling filter of its worker and in the position
+   * store. Queued on the channel's worker, behind the channel's last data.
+   */
+  private class ChannelEviction implements NmeaWorkerTask
+  {
+    private final NmeaChannel channel;
+
+    public ChannelEviction(NmeaChannel channel)
+    {
+      this.channel = channel;
+    }
+
+    @Override
+    public void run(NmeaWorkerContext context)
+    {
+      if (channel.isEvicted() || !channel.evict(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(channelIdleTimeout)))
+        return;
+      channels.remove(channel.getId(), channel);
+      for (NmeaSentenceFramer.RejectReason reason : NmeaSentenceFramer.RejectReason.values())
+        evictedRejects.addAndGet(reason.ordinal(), channel.getRejectedCount(reason));
+      NmeaPositionStore store = positionStore;
+      if (store != null)
+      {
+        for (int talkerIndex : channel.getStoredTalkers())
+          store.remove(channel.getNumber(), talkerIndex);
       }
+      // a VIRTUAL channel without worker has no filter state left
+      if (context != null && context.getFilter() != null)
+        context.getFilter().removeChannel(channel.getNumber());
+      LOGGER.trace("Evicted idle channel {0}", channel.getId());
     }
   }
 
@@ -133,40 +407,205 @@ public class NmeaInboundAdapter extends InboundAdapterBase
     return null;
   }
 
+  @Override
+  public void afterPropertiesSet()
+  {
+    super.afterPropertiesSet();
+    workerThreads = getIntProperty("workerThreads", 0);
+    queueCapacity = getIntProperty("queueCapacity", 1024);
+    overflowPolicy = getEnumProperty("overflowPolicy", NmeaWorkerPool.OverflowPolicy.BLOCK);
+    executionMode = getEnumProperty("executionMode", NmeaWorkerPool.ExecutionMode.PLATFORM);
+    maxSentenceLength = Math.max(16, getIntProperty("maxSentenceLength", 512));
+    checksumMode = getEnumProperty("checksumMode", NmeaSentenceFramer.ChecksumMode.VERIFY);
+    framing = getEnumProperty("framing", NmeaSentenceFramer.Framing.STREAM);
+    parallelThreshold = Math.max(0, getIntProperty("parallelFramingThreshold", 1048576));
+    batchSize = Math.max(1, getIntProperty("batchSize", 1));
+    batchMaxLatency = Math.max(0, getIntProperty("batchMaxLatency", 100));
+    outputMode = getEnumProperty("outputMode", NmeaFusion.OutputMode.SENTENCES);
+    fusionTimeout = Math.max(0, getIntProperty("fusionTimeout", 1000));
+    downsampleDistance = getDoubleProperty("downsampleDistance", 0);
+    downsampleHeading = getDoubleProperty("downsampleHeading", 0);
+    downsampleSpeed = getDoubleProperty("downsampleSpeed", 0);
+    downsampleHeartbeat = Math.max(0, getIntProperty("downsampleHeartbeat", 0));
+    errorReportInterval = Math.max(1000, getIntProperty("errorReportInterval", 60000));
+    positionStoreSize = Math.max(0, getIntProperty("positionStoreSize", 0));
+    channelIdleTimeout = Math.max(0, getIntProperty("channelIdleTimeout", 3600000));
+    aisTranslator.setFragmentTimeout(Math.max(0, getIntProperty("aisFragmentTimeout", 1000)));
+    NmeaLoadShedder shedder = new NmeaLoadShedder(getIntProperty("sheddingLag", 0), getIntProperty("sheddingQueueDepth", 0), getStringProperty("sentencePriorities", DEFAULT_SENTENCE_PRIORITIES), getStringProperty("coalescedSentences", DEFAULT_COALESCED_SENTENCES));
+    loadShedder = shedder.isEnabled() ? shedder : null;
+  }
+
   @Override
   public void receive(ByteBuffer buffer, String channelId)
   {
-    if (threadPool == null || threadPool.isShutdown() || threadPool.isTerminated())
-      threadPool = Executors.newCachedThreadPool();
-    threadPool.execute(new GeoEventProducer(channelId, index(buffer)));
+    receive(buffer, channelId, null);
+  }
+
+  @Override
+  public boolean receive(ByteBuffer buffer, String channelId, Runnable processed)
+  {
+    long receivedTime = System.nanoTime();
+    metrics.onReceived(buffer.remaining());
+    NmeaChannel channel = getChannel(channelId, receivedTime);
+    List<byte[]> messages = channel.frame(buffer, framing, parallelThreshold);
+    // bytes without a complete sentence are acknowledged behind the ones
+    // before them
+    if (!messages.isEmpty() || processed != null)
+    {
+      int sequence = (loadShedder != null && !messages.isEmpty()) ? channel.sequence(messages, loadShedder) : 0;
+      return getWorkerPool().submit(channelId, new GeoEventProducer(channel, messages, receivedTime, sequence, processed));
+    }
+    return true;
+  }
+
+  private synchronized NmeaWorkerPool getWorkerPool()
+  {
+    if (workerPool == null)
+    {
+      if (positionStoreSize > 0)
+        positionStore = new NmeaPositionStore(positionStoreSize);
+      workerPool = new NmeaWorkerPool("nmea-adapter", workerThreads, queueCapacity, overflowPolicy, executionMode, this::createWorkerContext);
+      maintenance = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "nmea-adapter-maintenance");
+        thread.setDaemon(true);
+        return thread;
+      });
+      if (channelIdleTimeout > 0)
+      {
+        long interval = Math.min(60000L, Math.max(1000L, channelIdleTimeout / 4));
+        maintenance.scheduleWithFixedDelay(this::evictIdleChannels, interval, interval, TimeUnit.MILLISECONDS);
+      }
+      // picks up definitions edited or replaced since they were resolved
+      maintenance.scheduleWithFixedDelay(this::refreshGeoEventDefinitions, DEFINITION_REFRESH_INTERVAL, DEFINITION_REFRESH_INTERVAL, TimeUnit.MILLISECONDS);
+      metrics.register((getId() != null && !getId().isEmpty()) ? getId() : "NMEA");
+    }
+    return workerPool;
+  }
+
+  private NmeaWorkerContext createWorkerContext()
+  {
+    NmeaErrorReporter errorReporter = new NmeaErrorReporter(errorReportInterval, this::getTypeName);
+    NmeaEventBatcher batcher = new NmeaEventBatcher(batchSize, batchMaxLatency, geoEvent -> emit(errorReporter, geoEvent), metrics.getLatency());
+    NmeaDeviceFilter filter = new NmeaDeviceFilter(downsampleDistance, downsampleHeading, downsampleSpeed, downsampleHeartbeat);
+    if (!filter.isEnabled())
+      filter = null;
+    NmeaFusion fusion = null;
+    if (outputMode != NmeaFusion.OutputMode.SENTENCES)
+    {
+      NmeaDeviceFilter fixFilter = filter;
+      fusion = new NmeaFusion(fusionTimeout, fix -> emitFix(batcher, fixFilter, errorReporter, fix));
+    }
+    return new NmeaWorkerContext(batcher, fusion, filter, errorReporter);
+  }
+
+  private void emitFix(NmeaEventBatcher batcher, NmeaDeviceFilter filter, NmeaErrorReporter errorReporter, NmeaFix fix)
+  {
+    if (filter != null && !filter.accept(fix, fixDefinitionIndex))
+    {
+      metrics.onSuppressed();
+      return;
+    }
+    GeoEvent geoEvent = createGeoEvent(fixDefinitionIndex);
+    if (geoEvent == null)
+      return;
+    try
+    {
+      fixTranslator.translate(fix, geoEvent);
+      batcher.add(geoEvent);
+    }
+    catch (Exception error)
+    {
+      metrics.onTranslationError();
+      errorReporter.report(fix.getChannel().getId(), NmeaErrorReporter.Kind.TRANSLATION_ERROR, fixTypeIndex, null, error);
+    }
+  }
+
+  /**
+   * @return a new event of the resolved definition, or null if the definition
+   *         is missing.
+   */
+  private GeoEvent createGeoEvent(int definitionIndex)
+  {
+    GeoEventDefinition geoEventDefinition = getResolvedGeoEventDefinition(definitionIndex);
+    if (geoEventDefinition == null)
+      return null;
+    try
+    {
+      return geoEventCreator.create(geoEventDefinition.getGuid());
+    }
+    catch (MessagingException e)
+    {
+      // the definition may have been deleted or replaced since it was
+      // resolved
+      onMissingGeoEventDefinition(definitionIndex);
+      return null;
+    }
+  }
+
+  private void emit(NmeaErrorReporter errorReporter, GeoEvent geoEvent)
+  {
+    try
+    {
+      geoEventListener.receive(geoEvent);
+      metrics.onEmitted();
+    }
+    catch (Exception error)
+    {
+      metrics.onEmitError();
+      errorReporter.report(null, NmeaErrorReporter.Kind.EMIT_ERROR, -1, null, error);
+    }
+  }
+
+  /**
+   * @return the channel, touched with the time received, created if it does
+   *         not exist or was evicted.
+   */
+  private NmeaChannel getChannel(String channelId, long receivedTime)
+  {
+    while (true)
+    {
+      NmeaChannel channel = channels.get(channelId);
+      if (channel == null)
+      {
+        NmeaChannel created = new NmeaChannel(channelId, channelNumbers.getAndIncrement(), maxSentenceLength, checksumMode);
+        channel = channels.putIfAbsent(channelId, created);
+        if (channel == null)
+          channel = created;
+      }
+      if (channel.touch(receivedTime))
+        return channel;
+      // the eviction either gives the channel up or removes it in a moment
+      Thread.yield();
+    }
   }
 
-  private static List<byte[]> index(ByteBuffer in)
+  /**
+   * Queues the eviction of the channels idle for the channel idle timeout on
+   * their workers. A channel whose worker is busy is looked at again on the
+   * next sweep.
+   */
+  private void evictIdleChannels()
   {
-    List<byte[]> messages = new ArrayList<byte[]>();
-    for (int i = -1; in.hasRemaining();)
+    try
     {
-      byte b = in.get();
-      if (b == ((byte) '$')) // bom
+      NmeaWorkerPool pool;
+      synchronized (this)
       {
-        i = in.position();
-        in.mark();
+        pool = workerPool;
       }
-      else if (b == ((byte) '\r') || b == ((byte) '\n')) // eom
+      if (pool == null)
+        return;
+      long idleSince = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(channelIdleTimeout);
+      for (NmeaChannel channel : channels.values())
       {
-        if (i != -1)
-        {
-          byte[] message = new byte[in.position() - 1 - i];
-          System.arraycopy(in.array(), i, message, 0, message.length);
-          messages.add(message);
-        }
-        i = -1;
-        in.mark();
+        if (channel.getLastReceived() - idleSince < 0 && !channel.isEvicted())
+          pool.offer(channel.getId(), new ChannelEviction(channel));
       }
-      else if (messages.isEmpty() && i == -1)
-        in.mark();
     }
-    return messages;
+    catch (RuntimeException error)
+    {
+      LOGGER.debug(error.getMessage(), error);
+    }
   }
 
   @Override
@@ -174,25 +613,267 @@ public class NmeaInboundAdapter extends InboundAdapterBase
   {
     try
     {
+      // stop the workers first so they can process their queues and emit
+      // their pending events, outside the monitor they may need meanwhile
+      NmeaWorkerPool pool;
+      ScheduledExecutorService timer;
+      synchronized (this)
+      {
+        pool = workerPool;
+        timer = maintenance;
+        maintenance = null;
+      }
+      if (timer != null)
+        timer.shutdownNow();
+      if (pool != null)
+        pool.shutdown();
+      synchronized (this)
+      {
+        if (workerPool == pool)
+        {
+          workerPool = null;
+          positionStore = null;
+        }
+      }
+      metrics.unregister();
       super.shutdown();
       translators.clear();
-      definitionMap.clear();
-      threadPool.shutdownNow();
+      translatorTable.clear();
+      synchronized (definitionLock)
+      {
+        mappedTranslators.clear();
+        definitions = new GeoEventDefinition[0];
+      }
+      channels.clear();
     }
     catch (Exception e)
     {
       LOGGER.trace("Failed to shutdown gracefully. Continuing on...", e);
     }
+  }
+
+  private int getIntProperty(String name, int defaultValue)
+  {
+    try
+    {
+      if (hasProperty(name))
+        return Integer.parseInt(getProperty(name).getValueAsString().trim());
+    }
+    catch (Exception e)
+    {
+      LOGGER.warn("INVALID_PROPERTY_VALUE", name, defaultValue);
+    }
+    return defaultValue;
+  }
+
+  private String getStringProperty(String name, String defaultValue)
+  {
+    if (hasProperty(name) && getProperty(name).getValue() != null)
+      return getProperty(name).getValueAsString().trim();
+    return defaultValue;
+  }
+
+  private double getDoubleProperty(String name, double defaultValue)
+  {
+    try
+    {
+      if (hasProperty(name))
+        return Double.parseDouble(getProperty(name).getValueAsString().trim());
+    }
+    catch (Exception e)
+    {
+      LOGGER.warn("INVALID_PROPERTY_VALUE", name, defaultValue);
+    }
+    return defaultValue;
+  }
+
+  private <E extends Enum<E>> E getEnumProperty(String name, E defaultValue)
+  {
+    try
+    {
+      if (hasProperty(name))
+        return Enum.valueOf(defaultValue.getDeclaringClass(), getProperty(name).getValueAsString().trim().toUpperCase());
+    }
+    catch (Exception e)
+    {
+      LOGGER.warn("INVALID_PROPERTY_VALUE", name, defaultValue);
+    }
+    return defaultValue;
+  }
+
+  /**
+   * Resolves every definition the adapter produces once, so the worker
+   * threads only read an immutable array. The plans of the mapped translators
+   * are compiled before the definitions they were compiled against are
+   * published. Compiled again on every refresh, as a definition can be
+   * edited without changing its GUID; plans whose fields still resolve the
+   * same are kept.
+   */
+  private void resolveGeoEventDefinitions()
+  {
+    synchronized (definitionLock)
+    {
+      GeoEventDefinition[] resolved = new GeoEventDefinition[definitionNames.size()];
+      for (int i = 0; i < resolved.length; i++)
+        resolved[i] = getGeoEventDefinition(definitionNames.get(i));
+      for (NmeaMappedTranslator translator : mappedTranslators)
+        translator.compile(i -> resolved[i]);
+      definitions = resolved;
+    }
+  }
 
-    threadPool = null;
+  /**
+   * Resolves the definitions again on the maintenance thread, off the worker
+   * threads.
+   */
+  private void refreshGeoEventDefinitions()
+  {
+    try
+    {
+      if (geoEventCreator != null)
+        resolveGeoEventDefinitions();
+    }
+    catch (RuntimeException error)
+    {
+      LOGGER.debug(error.getMessage(), error);
+    }
   }
 
-  private void loadGeoEventDefinitions()
+  private GeoEventDefinition getResolvedGeoEventDefinition(int definitionIndex)
   {
-    ((AdapterDefinition) definition).getGeoEventDefinitions().forEach((key, def) ->
+    GeoEventDefinition[] resolved = definitions;
+    GeoEventDefinition result = (definitionIndex < resolved.length) ? resolved[definitionIndex] : null;
+    if (result == null)
+      onMissingGeoEventDefinition(definitionIndex);
+    return result;
+  }
+
+  /**
+   * Counts the dropped sentence and, at most once per refresh interval, logs
+   * it and has the maintenance thread resolve the definitions right away.
+   */
+  private void onMissingGeoEventDefinition(int definitionIndex)
+  {
+    long missing = missingDefinitionCount.incrementAndGet();
+    long now = System.currentTimeMillis();
+    long last = missingDefinitionTime.get();
+    if (now - last < DEFINITION_REFRESH_INTERVAL || !missingDefinitionTime.compareAndSet(last, now))
+      return;
+    LOGGER.warn("MISSING_GEOEVENT_DEFINITION", definitionNames.get(definitionIndex), missing);
+    ScheduledExecutorService timer = maintenance;
+    if (timer != null)
+    {
+      try
       {
-        getGeoEventDefinition(def.getName());
-      });
+        timer.execute(this::refreshGeoEventDefinitions);
+      }
+      catch (RejectedExecutionException e)
+      {
+        // shutting down
+      }
+    }
+  }
+
+  public long getMissingGeoEventDefinitionCount()
+  {
+    return missingDefinitionCount.get();
+  }
+
+  public NmeaMetrics getMetrics()
+  {
+    return metrics;
+  }
+
+  /**
+   * @return the last known positions of the devices, or null if the
+   *         positionStoreSize property is 0 or the adapter has not received
+   *         anything yet.
+   */
+  public NmeaPositionStore getPositionStore()
+  {
+    return positionStore;
+  }
+
+  /**
+   * Copies the last known position of a device.
+   *
+   * @param talker
+   *          the talker ID, e.g. "GP", or null for proprietary sentences.
+   * @return false if the device has not reported a position or the store is
+   *         disabled.
+   */
+  public boolean getLastPosition(String channelId, String talker, NmeaPositionStore.Position position)
+  {
+    NmeaPositionStore store = positionStore;
+    NmeaChannel channel = channels.get(channelId);
+    return store != null && channel != null && store.get(channel.getNumber(), NmeaTranslatorTable.talkerIndexOf(talker), position);
+  }
+
+  /**
+   * @return a page of the last known positions, as comma separated lines, of
+   *         the devices of one channel or, if channelId is null or empty, of
+   *         all channels.
+   */
+  List<String> getLastPositions(String channelId, int offset, int count)
+  {
+    List<String> result = new ArrayList<String>();
+    NmeaPositionStore store = positionStore;
+    if (store == null)
+      return result;
+    Map<Integer, String> channelIds = new HashMap<Integer, String>();
+    for (NmeaChannel channel : channels.values())
+      channelIds.put(channel.getNumber(), channel.getId());
+    boolean all = channelId == null || channelId.isEmpty();
+    int[] skipped = { 0 };
+    store.forEach(position -> {
+      String id = channelIds.get(position.getChannelNumber());
+      if (id == null || (!all && !id.equals(channelId)) || result.size() >= count)
+        return;
+      if (skipped[0]++ >= offset)
+        result.add(describe(id, position));
+    });
+    return result;
+  }
+
+  private static String describe(String channelId, NmeaPositionStore.Position position)
+  {
+    StringBuilder line = new StringBuilder(160);
+    line.append(channelId).append(',').append(position.getTalker()).append(',');
+    if (position.getTime() != NmeaTimeParser.INVALID)
+      line.append(Instant.ofEpochMilli(position.getTime()));
+    line.append(',').append(position.getLatitude()).append(',').append(position.getLongitude());
+    line.append(',').append(position.getAltitude()).append(',').append(position.getSpeed()).append(',').append(position.getCourse());
+    line.append(',').append(position.getQuality()).append(',').append(position.getSatellites()).append(',').append(position.getHdop());
+    line.append(',').append(Instant.ofEpochMilli(position.getUpdated()));
+    return line.toString();
+  }
+
+  String getTypeName(int typeIndex)
+  {
+    return typeNames.get(typeIndex);
+  }
+
+  synchronized long getDroppedBufferCount()
+  {
+    return (workerPool != null) ? workerPool.getDroppedCount() : 0;
+  }
+
+  synchronized int getQueueDepth()
+  {
+    return (workerPool != null) ? workerPool.getQueueDepth() : 0;
+  }
+
+  int getChannelCount()
+  {
+    return channels.size();
+  }
+
+  long getRejectedCount(NmeaSentenceFramer.RejectReason reason)
+  {
+    long count = evictedRejects.get(reason.ordinal());
+    for (NmeaChannel channel : channels.values())
+      count += channel.getRejectedCount(reason);
+    return count;
   }
 
   private GeoEventDefinition getGeoEventDefinition(String gedName)
@@ -203,33 +884,24 @@ public class NmeaInboundAdapter extends InboundAdapterBase
       LOGGER.trace("Getting GeoEvent Defintion for channel {0}", gedName);
       GeoEventDefinition adapterDef = ((AdapterDefinition) definition).getGeoEventDefinition(gedName);
       String guid = adapterDef.getGuid();
-      LOGGER.trace("Getting GeoEvent Defintion for channel {0} using guid {1}", gedName, guid);
-      result = definitionMap.get(guid);
+      LOGGER.trace("Getting GeoEvent Defintion from Definition Manager for channel {0} using guid {1}", gedName, guid);
+      result = geoEventCreator.getGeoEventDefinitionManager().getGeoEventDefinition(guid);
       if (result == null)
       {
-        LOGGER.trace("Getting GeoEvent Defintion from Definition Manager for channel {0} using guid {1}", gedName, guid);
-        result = geoEventCreator.getGeoEventDefinitionManager().getGeoEventDefinition(guid);
+        String name = adapterDef.getName();
+        String owner = adapterDef.getOwner();
+        LOGGER.trace("Failed to find GeoEvent Defintion for channel {0} using guid, checking with name/owner: {1}/{2}", gedName, name, owner);
+        result = geoEventCreator.getGeoEventDefinitionManager().searchGeoEventDefinition(name, owner);
+
         if (result == null)
         {
-          String name = adapterDef.getName();
-          String owner = adapterDef.getOwner();
-          LOGGER.trace("Failed to find GeoEvent Defintion for channel {0} using guid, checking with name/owner: {1}/{2}", gedName, name, owner);
-          result = geoEventCreator.getGeoEventDefinitionManager().searchGeoEventDefinition(name, owner);
-
-          if (result == null)
+          LOGGER.trace("Failed to find GeoEvent Defintion channel {0} using name/owner, using definition returned with name = {0}", gedName, name);
+          Collection<GeoEventDefinition> possibleDefs = geoEventCreator.getGeoEventDefinitionManager().searchGeoEventDefinitionByName(name);
+          if (possibleDefs.size() > 0)
           {
-            LOGGER.trace("Failed to find GeoEvent Defintion channel {0} using name/owner, using definition returned with name = {0}", gedName, name);
-            Collection<GeoEventDefinition> possibleDefs = geoEventCreator.getGeoEventDefinitionManager().searchGeoEventDefinitionByName(name);
-            if (possibleDefs.size() > 0)
-            {
-              result = possibleDefs.iterator().next();
-            }
+            result = possibleDefs.iterator().next();
           }
         }
-        if (result != null)
-        {
-          definitionMap.put(guid, result);
-        }
       }
     }
     catch (Exception e)
@@ -243,6 +915,6 @@ public class NmeaInboundAdapter extends InboundAdapterBase
   public void setGeoEventCreator(GeoEventCreator geoEventCreator)
   {
     super.setGeoEventCreator(geoEventCreator);
-    loadGeoEventDefinitions();
+    resolveGeoEventDefinitions();
   }
 }
@@ -39,6 +39,8 @@ public class NmeaInboundAdapterService extends AdapterServiceBase
     try
     {
       xmlAdapterDefinition.loadConnector(getResourceAsStream("connector-definition.xml"));
+      xmlAdapterDefinition.loadConnector(getResourceAsStream("udp-connector-definition.xml"));
+      xmlAdapterDefinition.loadConnector(getResourceAsStream("file-connector-definition.xml"));
     }
     catch (JAXBException e)
     {
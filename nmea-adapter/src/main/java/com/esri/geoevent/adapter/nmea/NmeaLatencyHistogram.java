@@ -0,0 +1,109 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+package com.esri.geoevent.adapter.nmea;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear histogram of durations in microseconds. Values below 16
+ * have their own bucket, larger values fall into 8 buckets per power of two,
+ * so percentiles are reported within 12.5%. Recording is a single atomic
+ * increment of one of about 500 buckets, plus a rarely contended maximum.
+ */
+public class NmeaLatencyHistogram
+{
+  private static final int      LINEAR_BUCKETS  = 16;
+  private static final int      SUB_BUCKET_BITS = 3;
+  private static final int      SUB_BUCKETS     = 1 << SUB_BUCKET_BITS;
+  private static final int      BUCKETS         = LINEAR_BUCKETS + (63 - 4) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts          = new AtomicLongArray(BUCKETS);
+  private final AtomicLong      max             = new AtomicLong();
+
+  public void recordNanos(long nanos)
+  {
+    long micros = Math.max(0, nanos / 1000);
+    counts.incrementAndGet(indexOf(micros));
+    long current = max.get();
+    while (micros > current && !max.compareAndSet(current, micros))
+      current = max.get();
+  }
+
+  public long getCount()
+  {
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++)
+      count += counts.get(i);
+    return count;
+  }
+
+  public long getMaxMicros()
+  {
+    return max.get();
+  }
+
+  /**
+   * @param percentile
+   *          between 0 and 100
+   * @return the upper bound, in microseconds, of the bucket holding the
+   *         percentile, or 0 if nothing was recorded.
+   */
+  public long getPercentileMicros(double percentile)
+  {
+    long[] snapshot = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++)
+      total += (snapshot[i] = counts.get(i));
+    if (total == 0)
+      return 0;
+    long rank = (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++)
+    {
+      seen += snapshot[i];
+      if (seen >= rank && snapshot[i] > 0)
+        return Math.min(upperBoundOf(i), max.get());
+    }
+    return max.get();
+  }
+
+  private static int indexOf(long micros)
+  {
+    if (micros < LINEAR_BUCKETS)
+      return (int) micros;
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return LINEAR_BUCKETS + (exponent - 4) * SUB_BUCKETS + sub;
+  }
+
+  private static long upperBoundOf(int index)
+  {
+    if (index < LINEAR_BUCKETS)
+      return index;
+    int exponent = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 4;
+    int sub = (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+    return ((long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+  }
+}
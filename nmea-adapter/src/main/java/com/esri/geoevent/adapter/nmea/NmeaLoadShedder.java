@@ -0,0 +1,154 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.adapter.nmea;
+
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+
+/**
+ * Decides which sentences to drop when the workers fall behind. A worker is
+ * overloaded when a received buffer waited longer than the lag threshold in
+ * its queue, or when more buffers than the depth threshold are queued behind
+ * it. The shedding level grows by one each time the threshold is exceeded
+ * twice over, and sentence types whose priority is below the level are
+ * dropped, except for the highest priority which is never dropped.
+ * <p>
+ * While overloaded, a sentence of a coalesced type is also dropped if a newer
+ * sentence of the same type and talker has already been received on its
+ * channel (see {@link NmeaChannel#isSuperseded(int, int)}), so only the newest
+ * fix of each device is translated. Instances are immutable.
+ */
+public class NmeaLoadShedder
+{
+  private static final BundleLogger LOGGER = BundleLoggerFactory.getLogger(NmeaLoadShedder.class);
+
+  private final long                lagThresholdNanos;
+  private final int                 depthThreshold;
+  // by sentence formatter (see NmeaTranslatorTable.formatterOf)
+  private final byte[]              priorities;
+  private final boolean[]           coalesced;
+  private final int                 maxPriority;
+
+  /**
+   * @param lagThresholdMillis
+   *          the queue time from which a worker is overloaded, or 0.
+   * @param depthThreshold
+   *          the queued buffers from which a worker is overloaded, or 0.
+   * @param priorities
+   *          the priority of the sentence types, e.g. "RMC=3,GGA=3,GSA=0".
+   *          Unlisted types have priority 0.
+   * @param coalescedTypes
+   *          the sentence types of which only the newest sentence per talker
+   *          is kept while overloaded, e.g. "RMC,GGA".
+   */
+  public NmeaLoadShedder(long lagThresholdMillis, int depthThreshold, String priorities, String coalescedTypes)
+  {
+    this.lagThresholdNanos = Math.max(0, lagThresholdMillis) * 1000000L;
+    this.depthThreshold = Math.max(0, depthThreshold);
+    this.priorities = new byte[NmeaTranslatorTable.FORMATTERS];
+    this.coalesced = new boolean[NmeaTranslatorTable.FORMATTERS];
+    int max = 0;
+    for (String entry : split(priorities))
+    {
+      int separator = entry.indexOf('=');
+      int formatter = (separator > 0) ? NmeaTranslatorTable.formatterOf(entry.substring(0, separator).trim()) : -1;
+      int priority = -1;
+      try
+      {
+        priority = Integer.parseInt(entry.substring(separator + 1).trim());
+      }
+      catch (NumberFormatException e)
+      {
+        // reported below
+      }
+      if (formatter < 0 || priority < 0 || priority > Byte.MAX_VALUE)
+      {
+        LOGGER.warn("INVALID_SENTENCE_PRIORITY", entry);
+        continue;
+      }
+      this.priorities[formatter] = (byte) priority;
+      max = Math.max(max, priority);
+    }
+    this.maxPriority = max;
+    for (String type : split(coalescedTypes))
+    {
+      int formatter = NmeaTranslatorTable.formatterOf(type);
+      if (formatter < 0)
+        LOGGER.warn("INVALID_SENTENCE_PRIORITY", type);
+      else
+        this.coalesced[formatter] = true;
+    }
+  }
+
+  /**
+   * @return false if neither threshold is set, so nothing is ever shed.
+   */
+  public boolean isEnabled()
+  {
+    return lagThresholdNanos > 0 || depthThreshold > 0;
+  }
+
+  /**
+   * @param lagNanos
+   *          the time the buffer being processed waited in its queue.
+   * @param backlog
+   *          the number of buffers queued behind it.
+   * @return the shedding level, 0 if the worker is not overloaded.
+   */
+  public int getLevel(long lagNanos, int backlog)
+  {
+    int level = 0;
+    if (lagThresholdNanos > 0 && lagNanos >= lagThresholdNanos)
+      level = 64 - Long.numberOfLeadingZeros(lagNanos / lagThresholdNanos);
+    if (depthThreshold > 0 && backlog >= depthThreshold)
+      level = Math.max(level, 32 - Integer.numberOfLeadingZeros(backlog / depthThreshold));
+    return level;
+  }
+
+  /**
+   * @return true if sentences with the address key are dropped at the level.
+   */
+  public boolean isShed(int addressKey, int level)
+  {
+    if (addressKey < 0)
+      return false;
+    int priority = priorities[NmeaTranslatorTable.formatterOf(addressKey)];
+    return priority < maxPriority && priority < level;
+  }
+
+  /**
+   * @return true if only the newest sentence with the address key is kept
+   *         while overloaded.
+   */
+  public boolean isCoalesced(int addressKey)
+  {
+    return addressKey >= 0 && coalesced[NmeaTranslatorTable.formatterOf(addressKey)];
+  }
+
+  private static String[] split(String list)
+  {
+    return (list == null || list.trim().isEmpty()) ? new String[0] : list.trim().split("\\s*,\\s*");
+  }
+}
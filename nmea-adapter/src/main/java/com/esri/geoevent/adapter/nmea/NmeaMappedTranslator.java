@@ -0,0 +1,318 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.adapter.nmea;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import com.esri.ges.core.geoevent.FieldDefinition;
+import com.esri.ges.core.geoevent.FieldException;
+import com.esri.ges.core.geoevent.GeoEvent;
+import com.esri.ges.core.geoevent.GeoEventDefinition;
+import com.esri.ges.core.validation.ValidationException;
+
+/**
+ * Translates the sentences of one address (e.g. "PGRME") through their
+ * {@link NmeaSentenceMapping}s instead of hand-written code. When the GeoEvent
+ * Definitions are resolved, each mapping is compiled into a plan: parallel
+ * arrays of operations and sentence and GeoEvent field positions, so
+ * translating a sentence is a loop over a switch, without field name lookups
+ * or reflection. A sentence whose address has several mappings is matched on
+ * its subtype (field 1, e.g. "030" for $PSTI,030).
+ * <p>
+ * Mapped sentences do not take part in fusion or per-device downsampling.
+ */
+public class NmeaMappedTranslator extends NMEAMessageTranslator
+{
+  private static final int            STRING   = 0;
+  private static final int            SHORT    = 1;
+  private static final int            INTEGER  = 2;
+  private static final int            LONG     = 3;
+  private static final int            FLOAT    = 4;
+  private static final int            DOUBLE   = 5;
+  private static final int            BOOLEAN  = 6;
+  private static final int            DATE     = 7;
+  private static final int            GEOMETRY = 8;
+
+  private final String                address;
+  private final NmeaSentenceMapping[] mappings;
+  private final int[]                 definitionIndexes;
+  // by mapping, replaced as a whole when the definitions are resolved again
+  private volatile Plan[]             plans;
+  // by mapping, the GeoEvent field of each mapped field (-1 if it is left
+  // out) the plan was compiled for
+  private final int[][]               compiledFields;
+
+  /**
+   * @param mappings
+   *          the mappings of one address, with their definition indexes.
+   */
+  public NmeaMappedTranslator(List<NmeaSentenceMapping> mappings, int[] definitionIndexes)
+  {
+    this.address = mappings.get(0).getAddress();
+    this.mappings = mappings.toArray(new NmeaSentenceMapping[mappings.size()]);
+    this.definitionIndexes = definitionIndexes.clone();
+    this.plans = new Plan[this.mappings.length];
+    this.compiledFields = new int[this.mappings.length][];
+    setGeoEventDefinitionName(this.mappings[0].getGeoEventDefinitionName());
+    setIndex(definitionIndexes[0]);
+  }
+
+  public String getAddress()
+  {
+    return address;
+  }
+
+  /**
+   * @return the address, since the mappings of an address may produce
+   *         several definitions.
+   */
+  @Override
+  public String getTypeName()
+  {
+    return address;
+  }
+
+  /**
+   * Compiles the plan of every mapping against its resolved definition.
+   * Mapped fields the definition lacks, or declares with another type, are
+   * logged and left out, once per change of the plan: a mapping whose fields
+   * resolve as they did keeps its plan. Must not be called concurrently.
+   *
+   * @param definitions
+   *          the resolved definitions, by definition index; null entries are
+   *          not compiled.
+   */
+  public void compile(IntFunction<GeoEventDefinition> definitions)
+  {
+    Plan[] current = plans;
+    Plan[] compiled = new Plan[mappings.length];
+    for (int i = 0; i < mappings.length; i++)
+    {
+      GeoEventDefinition definition = definitions.apply(definitionIndexes[i]);
+      if (definition == null)
+        continue;
+      int[] eventFields = resolve(mappings[i], definition);
+      if (current[i] != null && Arrays.equals(eventFields, compiledFields[i]))
+      {
+        compiled[i] = current[i];
+        continue;
+      }
+      compiled[i] = compile(mappings[i], definition, eventFields);
+      compiledFields[i] = eventFields;
+    }
+    plans = compiled;
+  }
+
+  /**
+   * @return the GeoEvent field of each mapped field, or -1 if the definition
+   *         lacks it or declares it with another type.
+   */
+  private static int[] resolve(NmeaSentenceMapping mapping, GeoEventDefinition definition)
+  {
+    List<NmeaSentenceMapping.Field> fields = mapping.getFields();
+    int[] eventFields = new int[fields.size()];
+    for (int i = 0; i < eventFields.length; i++)
+    {
+      NmeaSentenceMapping.Field field = fields.get(i);
+      int eventField = definition.getIndexOf(field.getName());
+      FieldDefinition fieldDefinition = (eventField >= 0) ? definition.getFieldDefinitions().get(eventField) : null;
+      eventFields[i] = (fieldDefinition != null && fieldDefinition.getType() == field.getType()) ? eventField : -1;
+    }
+    return eventFields;
+  }
+
+  private Plan compile(NmeaSentenceMapping mapping, GeoEventDefinition definition, int[] eventFields)
+  {
+    List<NmeaSentenceMapping.Field> fields = mapping.getFields();
+    int size = 0;
+    for (int i = 0; i < eventFields.length; i++)
+    {
+      if (eventFields[i] >= 0)
+        size++;
+      else
+        LOGGER.warn("MAPPED_FIELD_MISMATCH", mapping.getAddress(), fields.get(i).getName(), fields.get(i).getType(), definition.getName());
+    }
+    Plan plan = new Plan(size);
+    for (int i = 0, j = 0; i < eventFields.length; i++)
+    {
+      if (eventFields[i] < 0)
+        continue;
+      NmeaSentenceMapping.Field field = fields.get(i);
+      plan.operations[j] = operationOf(field);
+      plan.sentenceFields[j] = field.getIndex();
+      plan.extraFields[j] = field.getExtraIndex();
+      plan.eventFields[j] = eventFields[i];
+      plan.scales[j] = field.getScale();
+      plan.trueValues[j] = field.getTrueValue();
+      j++;
+    }
+    return plan;
+  }
+
+  private static int operationOf(NmeaSentenceMapping.Field field)
+  {
+    switch (field.getType())
+    {
+      case Short:
+        return SHORT;
+      case Integer:
+        return INTEGER;
+      case Long:
+        return LONG;
+      case Float:
+        return FLOAT;
+      case Double:
+        return DOUBLE;
+      case Boolean:
+        return BOOLEAN;
+      case Date:
+        return DATE;
+      case Geometry:
+        return GEOMETRY;
+      default:
+        return STRING;
+    }
+  }
+
+  @Override
+  protected void validate(NmeaSentence sentence) throws ValidationException
+  {
+    int mapping = mappingOf(sentence);
+    if (mapping < 0 || sentence.getFieldCount() < mappings[mapping].getMinFields())
+      throw new ValidationException(LOGGER.translate("INVALID_MAPPED_MSG", address));
+  }
+
+  @Override
+  protected int getDefinitionIndex(NmeaChannel channel, NmeaSentence sentence) throws ValidationException
+  {
+    return definitionIndexes[mappingOf(sentence)];
+  }
+
+  @Override
+  protected boolean describesReceiver()
+  {
+    return false;
+  }
+
+  @Override
+  protected void translate(NmeaChannel channel, GeoEvent geoEvent, NmeaSentence sentence) throws FieldException
+  {
+    Plan plan = plans[mappingOf(sentence)];
+    if (plan == null)
+      return;
+    for (int i = 0; i < plan.operations.length; i++)
+    {
+      int field = plan.sentenceFields[i];
+      int operation = plan.operations[i];
+      if (sentence.isEmpty(field))
+        continue;
+      Object value;
+      switch (operation)
+      {
+        case STRING:
+          value = sentence.getString(field);
+          break;
+        case BOOLEAN:
+          value = Boolean.valueOf(sentence.is(field, plan.trueValues[i]));
+          break;
+        case DATE:
+          value = toTime(channel, sentence, field, plan.extraFields[i]);
+          break;
+        case GEOMETRY:
+          value = toPoint(sentence, field, plan.extraFields[i]);
+          break;
+        default:
+          value = toNumber(operation, parseDouble(sentence, field) * plan.scales[i]);
+          break;
+      }
+      geoEvent.setField(plan.eventFields[i], value);
+    }
+
+    if (LOGGER.isTraceEnabled())
+      LOGGER.trace("Translated {0} {1} to {2}", address, sentence, geoEvent);
+  }
+
+  /**
+   * @return the numeric value boxed for its field type, or null for NaN.
+   */
+  private static Object toNumber(int operation, double value)
+  {
+    if (Double.isNaN(value))
+      return null;
+    switch (operation)
+    {
+      case SHORT:
+        return Short.valueOf((short) Math.round(value));
+      case INTEGER:
+        return Integer.valueOf((int) Math.round(value));
+      case LONG:
+        return Long.valueOf(Math.round(value));
+      case FLOAT:
+        return Float.valueOf((float) value);
+      default:
+        return Double.valueOf(value);
+    }
+  }
+
+  /**
+   * @return the position of the mapping of the sentence, or -1.
+   */
+  private int mappingOf(NmeaSentence sentence)
+  {
+    for (int i = 0; i < mappings.length; i++)
+    {
+      String subtype = mappings[i].getSubtype();
+      if (subtype == null || sentence.is(1, subtype))
+        return i;
+    }
+    return -1;
+  }
+
+  /**
+   * The compiled translation of one mapping, as parallel arrays by mapped
+   * field.
+   */
+  private static class Plan
+  {
+    private final int[]    operations;
+    private final int[]    sentenceFields;
+    private final int[]    extraFields;
+    private final int[]    eventFields;
+    private final double[] scales;
+    private final String[] trueValues;
+
+    Plan(int size)
+    {
+      operations = new int[size];
+      sentenceFields = new int[size];
+      extraFields = new int[size];
+      eventFields = new int[size];
+      scales = new double[size];
+      trueValues = new String[size];
+    }
+  }
+}
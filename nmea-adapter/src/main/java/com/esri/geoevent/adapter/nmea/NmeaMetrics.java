@@ -0,0 +1,402 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+package com.esri.geoevent.adapter.nmea;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+
+/**
+ * Counters of one adapter, updated from the receiving and worker threads
+ * through LongAdders (created on first use for the per-type and per-talker
+ * ones) and read through JMX. Values that the adapter already tracks, such as
+ * queue depth or framer rejects, are read from it when requested.
+ */
+public class NmeaMetrics implements NmeaMetricsMXBean
+{
+  private static final BundleLogger  LOGGER                    = BundleLoggerFactory.getLogger(NmeaMetrics.class);
+  private static final String        DOMAIN                    = "com.esri.geoevent.adapter.nmea";
+  private static final int           TALKERS                   = 26 * 26 + 1;
+  private static final int           MAX_REGISTRATION_ATTEMPTS = 100;
+  // numbers the registrations, so adapters sharing an id get distinct names
+  private static final AtomicInteger INSTANCES                 = new AtomicInteger();
+
+  private final NmeaInboundAdapter              adapter;
+  private final LongAdder                       receivedBuffers    = new LongAdder();
+  private final LongAdder                       receivedBytes      = new LongAdder();
+  private final LongAdder                       unknownSentences   = new LongAdder();
+  private final LongAdder                       translationErrors  = new LongAdder();
+  private final LongAdder                       suppressedEvents   = new LongAdder();
+  private final LongAdder                       emittedEvents      = new LongAdder();
+  private final LongAdder                       emitErrors         = new LongAdder();
+  private final AtomicReferenceArray<LongAdder> sentencesByType;
+  private final AtomicReferenceArray<LongAdder> validationFailuresByType;
+  private final AtomicReferenceArray<LongAdder> shedSentencesByType;
+  private final LongAdder                       coalescedSentences = new LongAdder();
+  private final AtomicReferenceArray<LongAdder> sentencesByTalker  = new AtomicReferenceArray<LongAdder>(TALKERS);
+  private final NmeaLatencyHistogram            latency            = new NmeaLatencyHistogram();
+  private ObjectName                            objectName;
+
+  /**
+   * @param typeCount
+   *          the number of sentence types of the adapter (see
+   *          {@link NMEAMessageTranslator#getTypeIndex()}), which index the
+   *          per-type counters.
+   */
+  public NmeaMetrics(NmeaInboundAdapter adapter, int typeCount)
+  {
+    this.adapter = adapter;
+    this.sentencesByType = new AtomicReferenceArray<LongAdder>(typeCount);
+    this.validationFailuresByType = new AtomicReferenceArray<LongAdder>(typeCount);
+    this.shedSentencesByType = new AtomicReferenceArray<LongAdder>(typeCount);
+  }
+
+  public void onReceived(int bytes)
+  {
+    receivedBuffers.increment();
+    receivedBytes.add(bytes);
+  }
+
+  /**
+   * @param typeIndex
+   *          the type of the sentence's translator, or -1 for an unknown
+   *          sentence type.
+   */
+  public void onSentence(int typeIndex, int talkerIndex)
+  {
+    if (typeIndex < 0)
+      unknownSentences.increment();
+    else
+      adder(sentencesByType, typeIndex).increment();
+    adder(sentencesByTalker, talkerIndex).increment();
+  }
+
+  public void onValidationFailure(int typeIndex)
+  {
+    adder(validationFailuresByType, typeIndex).increment();
+  }
+
+  public void onTranslationError()
+  {
+    translationErrors.increment();
+  }
+
+  /**
+   * @param coalesced
+   *          true if the sentence was dropped because a newer one of its
+   *          talker and type was queued, false if for its priority.
+   */
+  public void onShed(int typeIndex, boolean coalesced)
+  {
+    adder(shedSentencesByType, typeIndex).increment();
+    if (coalesced)
+      coalescedSentences.increment();
+  }
+
+  public void onSuppressed()
+  {
+    suppressedEvents.increment();
+  }
+
+  public void onEmitted()
+  {
+    emittedEvents.increment();
+  }
+
+  public void onEmitError()
+  {
+    emitErrors.increment();
+  }
+
+  /**
+   * @return the histogram of the time from receive() to the listener.
+   */
+  public NmeaLatencyHistogram getLatency()
+  {
+    return latency;
+  }
+
+  /**
+   * Registers the metrics with the platform MBean server, named after the id
+   * and an instance number. A name already registered, e.g. by an adapter of
+   * a previous deployment, is left alone and the next number is tried.
+   */
+  public synchronized void register(String id)
+  {
+    if (objectName != null)
+      return;
+    try
+    {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      for (int attempt = 0; attempt < MAX_REGISTRATION_ATTEMPTS && objectName == null; attempt++)
+      {
+        ObjectName name = new ObjectName(DOMAIN + ":type=NmeaInboundAdapter,name=" + ObjectName.quote(id + "-" + INSTANCES.incrementAndGet()));
+        try
+        {
+          server.registerMBean(this, name);
+          objectName = name;
+        }
+        catch (InstanceAlreadyExistsException e)
+        {
+          LOGGER.debug("MBean {0} is already registered, trying the next number", name);
+        }
+      }
+      if (objectName == null)
+        LOGGER.warn("METRICS_NAMES_IN_USE", id, MAX_REGISTRATION_ATTEMPTS);
+    }
+    catch (Exception error)
+    {
+      LOGGER.warn("METRICS_REGISTRATION_FAILED", id, error.getMessage());
+      LOGGER.debug(error.getMessage(), error);
+    }
+  }
+
+  public synchronized void unregister()
+  {
+    if (objectName == null)
+      return;
+    try
+    {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    }
+    catch (Exception error)
+    {
+      LOGGER.debug(error.getMessage(), error);
+    }
+    objectName = null;
+  }
+
+  @Override
+  public long getReceivedBuffers()
+  {
+    return receivedBuffers.sum();
+  }
+
+  @Override
+  public long getReceivedBytes()
+  {
+    return receivedBytes.sum();
+  }
+
+  @Override
+  public long getSentences()
+  {
+    long sentences = unknownSentences.sum();
+    for (int i = 0; i < sentencesByType.length(); i++)
+      sentences += sum(sentencesByType, i);
+    return sentences;
+  }
+
+  @Override
+  public Map<String, Long> getSentencesByType()
+  {
+    return byType(sentencesByType);
+  }
+
+  @Override
+  public Map<String, Long> getSentencesByTalker()
+  {
+    Map<String, Long> result = new LinkedHashMap<String, Long>();
+    for (int i = 0; i < TALKERS; i++)
+    {
+      long count = sum(sentencesByTalker, i);
+      if (count > 0)
+        result.put((i < TALKERS - 1) ? String.valueOf(new char[] { (char) ('A' + i / 26), (char) ('A' + i % 26) }) : "?", count);
+    }
+    return result;
+  }
+
+  @Override
+  public long getUnknownSentences()
+  {
+    return unknownSentences.sum();
+  }
+
+  @Override
+  public Map<String, Long> getValidationFailuresByType()
+  {
+    return byType(validationFailuresByType);
+  }
+
+  @Override
+  public long getTranslationErrors()
+  {
+    return translationErrors.sum();
+  }
+
+  @Override
+  public Map<String, Long> getRejectedSentences()
+  {
+    Map<String, Long> result = new LinkedHashMap<String, Long>();
+    for (NmeaSentenceFramer.RejectReason reason : NmeaSentenceFramer.RejectReason.values())
+      result.put(reason.name(), adapter.getRejectedCount(reason));
+    return result;
+  }
+
+  @Override
+  public Map<String, Long> getShedSentencesByType()
+  {
+    return byType(shedSentencesByType);
+  }
+
+  @Override
+  public long getCoalescedSentences()
+  {
+    return coalescedSentences.sum();
+  }
+
+  @Override
+  public long getSuppressedEvents()
+  {
+    return suppressedEvents.sum();
+  }
+
+  @Override
+  public long getMissingDefinitionEvents()
+  {
+    return adapter.getMissingGeoEventDefinitionCount();
+  }
+
+  @Override
+  public long getEmittedEvents()
+  {
+    return emittedEvents.sum();
+  }
+
+  @Override
+  public long getEmitErrors()
+  {
+    return emitErrors.sum();
+  }
+
+  @Override
+  public long getDroppedBuffers()
+  {
+    return adapter.getDroppedBufferCount();
+  }
+
+  @Override
+  public int getQueueDepth()
+  {
+    return adapter.getQueueDepth();
+  }
+
+  @Override
+  public int getChannelCount()
+  {
+    return adapter.getChannelCount();
+  }
+
+  @Override
+  public long getTrackedDevices()
+  {
+    NmeaPositionStore store = adapter.getPositionStore();
+    return (store != null) ? store.size() : 0;
+  }
+
+  @Override
+  public long getDroppedPositionUpdates()
+  {
+    NmeaPositionStore store = adapter.getPositionStore();
+    return (store != null) ? store.getDroppedUpdates() : 0;
+  }
+
+  @Override
+  public List<String> lastPositions(String channelId, int offset, int count)
+  {
+    return adapter.getLastPositions(channelId, Math.max(0, offset), Math.max(0, count));
+  }
+
+  @Override
+  public long getLatencyCount()
+  {
+    return latency.getCount();
+  }
+
+  @Override
+  public long getLatencyP50Micros()
+  {
+    return latency.getPercentileMicros(50);
+  }
+
+  @Override
+  public long getLatencyP90Micros()
+  {
+    return latency.getPercentileMicros(90);
+  }
+
+  @Override
+  public long getLatencyP99Micros()
+  {
+    return latency.getPercentileMicros(99);
+  }
+
+  @Override
+  public long getLatencyP999Micros()
+  {
+    return latency.getPercentileMicros(99.9);
+  }
+
+  @Override
+  public long getLatencyMaxMicros()
+  {
+    return latency.getMaxMicros();
+  }
+
+  private Map<String, Long> byType(AtomicReferenceArray<LongAdder> adders)
+  {
+    Map<String, Long> result = new LinkedHashMap<String, Long>();
+    for (int i = 0; i < adders.length(); i++)
+      result.put(adapter.getTypeName(i), sum(adders, i));
+    return result;
+  }
+
+  private static LongAdder adder(AtomicReferenceArray<LongAdder> adders, int index)
+  {
+    LongAdder adder = adders.get(index);
+    if (adder == null)
+    {
+      adders.compareAndSet(index, null, new LongAdder());
+      adder = adders.get(index);
+    }
+    return adder;
+  }
+
+  private static long sum(AtomicReferenceArray<LongAdder> adders, int index)
+  {
+    LongAdder adder = adders.get(index);
+    return (adder != null) ? adder.sum() : 0;
+  }
+}
@@ -0,0 +1,111 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+package com.esri.geoevent.adapter.nmea;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runtime counters of one NMEA adapter instance, registered as
+ * <code>com.esri.geoevent.adapter.nmea:type=NmeaInboundAdapter,name=&lt;id&gt;</code>.
+ * Counts are totals since the adapter started.
+ */
+public interface NmeaMetricsMXBean
+{
+  long getReceivedBuffers();
+
+  long getReceivedBytes();
+
+  /** Framed sentences handed to the workers. */
+  long getSentences();
+
+  /**
+   * Framed sentences by type: built-in types by their GeoEvent Definition,
+   * AIS fragments as "AIS" and mapped sentences by their address.
+   */
+  Map<String, Long> getSentencesByType();
+
+  Map<String, Long> getSentencesByTalker();
+
+  /** Sentences without a translator for their type. */
+  long getUnknownSentences();
+
+  Map<String, Long> getValidationFailuresByType();
+
+  long getTranslationErrors();
+
+  /** Sentences dropped by the framers, by reason (bad checksum, overlong, ...). */
+  Map<String, Long> getRejectedSentences();
+
+  /** Sentences dropped by load shedding, by type, including coalesced ones. */
+  Map<String, Long> getShedSentencesByType();
+
+  /** Sentences dropped while overloaded because a newer one was queued. */
+  long getCoalescedSentences();
+
+  /** Sentences and epochs suppressed by downsampling. */
+  long getSuppressedEvents();
+
+  long getMissingDefinitionEvents();
+
+  long getEmittedEvents();
+
+  long getEmitErrors();
+
+  /** Received buffers dropped by the queue overflow policy. */
+  long getDroppedBuffers();
+
+  int getQueueDepth();
+
+  int getChannelCount();
+
+  /** Devices (channel and talker) in the last known position store. */
+  long getTrackedDevices();
+
+  /** Position updates of new devices dropped because the store was full. */
+  long getDroppedPositionUpdates();
+
+  /**
+   * Last known positions, one line per device: channel, talker, time,
+   * latitude, longitude, altitude, speed, course, quality, satellites, HDOP
+   * and update time.
+   *
+   * @param channelId
+   *          the channel, or empty for all channels.
+   */
+  List<String> lastPositions(String channelId, int offset, int count);
+
+  /** GeoEvents whose time from receive() to the listener was recorded. */
+  long getLatencyCount();
+
+  long getLatencyP50Micros();
+
+  long getLatencyP90Micros();
+
+  long getLatencyP99Micros();
+
+  long getLatencyP999Micros();
+
+  long getLatencyMaxMicros();
+}
@@ -0,0 +1,124 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.adapter.nmea;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses the fixed-point decimal numbers found in NMEA fields directly from
+ * the sentence bytes.
+ * <p>
+ * Plain decimals with at most 15 significant digits and 22 fraction digits
+ * (every value a GPS receiver sends) are parsed without allocating: the digits
+ * are accumulated into a long, which is exact below 2^53, and divided by an
+ * exactly representable power of ten. That single correctly rounded division
+ * gives the same double as {@link Double#parseDouble(String)}. Anything else
+ * (exponents, very long mantissas, ...) falls back to Double.parseDouble.
+ */
+public final class NmeaNumberParser
+{
+  private static final int      MAX_SIGNIFICANT_DIGITS = 15;
+  private static final double[] POWERS_OF_TEN          = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+  private NmeaNumberParser()
+  {
+  }
+
+  /**
+   * @return the parsed value, or <code>defaultValue</code> if the bytes are
+   *         empty or not a number.
+   */
+  public static double parseDouble(byte[] data, int offset, int length, double defaultValue)
+  {
+    if (length <= 0)
+      return defaultValue;
+
+    int i = offset;
+    int end = offset + length;
+    boolean negative = false;
+    if (data[i] == '-' || data[i] == '+')
+    {
+      negative = data[i] == '-';
+      i++;
+    }
+
+    long mantissa = 0;
+    int significant = 0;
+    int scale = 0;
+    int digits = 0;
+    boolean fraction = false;
+    for (; i < end; i++)
+    {
+      int c = data[i] - '0';
+      if (c >= 0 && c <= 9)
+      {
+        if (mantissa != 0 || c != 0)
+          significant++;
+        mantissa = mantissa * 10 + c;
+        digits++;
+        if (fraction)
+          scale++;
+      }
+      else if (data[i] == '.' && !fraction)
+        fraction = true;
+      else
+        return parseDoubleSlow(data, offset, length, defaultValue);
+    }
+    if (digits == 0 || significant > MAX_SIGNIFICANT_DIGITS || scale >= POWERS_OF_TEN.length)
+      return parseDoubleSlow(data, offset, length, defaultValue);
+
+    double value = (scale == 0) ? (double) mantissa : mantissa / POWERS_OF_TEN[scale];
+    return negative ? -value : value;
+  }
+
+  /**
+   * Converts a ddmm.mmmm (latitude, 2 degree digits) or dddmm.mmmm (longitude,
+   * 3 degree digits) field to decimal degrees. Like the String based
+   * conversion it replaces, unparsable degree or minute parts count as 0.
+   *
+   * @return the decimal degrees, or NaN if the field is shorter than the
+   *         degree digits.
+   */
+  public static double parseDegreesMinutes(byte[] data, int offset, int length, int degreeDigits)
+  {
+    if (length < degreeDigits)
+      return Double.NaN;
+    double degrees = parseDouble(data, offset, degreeDigits, 0d);
+    double minutes = parseDouble(data, offset + degreeDigits, length - degreeDigits, 0d);
+    return degrees + (minutes / 60.0);
+  }
+
+  private static double parseDoubleSlow(byte[] data, int offset, int length, double defaultValue)
+  {
+    try
+    {
+      return Double.parseDouble(new String(data, offset, length, StandardCharsets.ISO_8859_1));
+    }
+    catch (NumberFormatException e)
+    {
+      return defaultValue;
+    }
+  }
+}
@@ -0,0 +1,261 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.adapter.nmea;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.esri.core.geometry.MapGeometry;
+import com.esri.core.geometry.Point;
+import com.esri.ges.adapter.AdapterDefinition;
+import com.esri.ges.adapter.OutboundAdapterBase;
+import com.esri.ges.core.component.ComponentException;
+import com.esri.ges.core.geoevent.GeoEvent;
+import com.esri.ges.core.geoevent.GeoEventDefinition;
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+
+/**
+ * Writes GeoEvents as RMC, GGA and VTG sentences, e.g. to drive chart
+ * plotters and simulators. The values are read from the fields the inbound
+ * adapter's GeoEvent Definitions use (TimeStamp, Speed, Course, HDOP, ...), so
+ * NMEAGPRMC, NMEAGPGGA, NMEAGPVTG and NMEAFix events, or any event with fields
+ * of those names, can be sent; the position is the event's geometry. The
+ * field positions are looked up once per GeoEvent Definition.
+ * <p>
+ * The sentences of a GeoEvent are formatted into a byte array of the calling
+ * thread, which is passed on to the transport without being copied.
+ */
+public class NmeaOutboundAdapter extends OutboundAdapterBase
+{
+  private static final BundleLogger                LOGGER             = BundleLoggerFactory.getLogger(NmeaOutboundAdapter.class);
+  private static final double                      KNOTS_TO_KMH       = 1.852;
+
+  private static final int                         RMC                = 0;
+  private static final int                         GGA                = 1;
+  private static final int                         VTG                = 2;
+  private static final String[]                    FORMATTERS         = { "RMC", "GGA", "VTG" };
+
+  // the values read from an event, with the names of their fields
+  private static final int                         TIME               = 0;
+  private static final int                         VALIDITY           = 1;
+  private static final int                         SPEED              = 2;
+  private static final int                         COURSE             = 3;
+  private static final int                         MAGNETIC_COURSE    = 4;
+  private static final int                         VARIATION          = 5;
+  private static final int                         VARIATION_SIDE     = 6;
+  private static final int                         MODE               = 7;
+  private static final int                         QUALITY            = 8;
+  private static final int                         SATELLITES         = 9;
+  private static final int                         HDOP               = 10;
+  private static final int                         ALTITUDE           = 11;
+  private static final int                         HEIGHT             = 12;
+  private static final String[][]                  FIELD_NAMES        = { { "TimeStamp", "ReceiveTime" }, { "Validity" }, { "Speed", "GroundSpeedKnots" }, { "Course", "TrackTrue" }, { "TrackMagnetic" }, { "Variation" }, { "EastWest" }, { "Mode" }, { "FixQuality", "GPSQuality" }, { "Satellites" }, { "HDOP" }, { "Altitude" }, { "Height" } };
+
+  private final ThreadLocal<NmeaSentenceFormatter> formatters         = ThreadLocal.withInitial(NmeaSentenceFormatter::new);
+  // field positions by value, by GeoEvent Definition GUID
+  private final ConcurrentMap<String, int[]>       fieldsByDefinition = new ConcurrentHashMap<String, int[]>();
+  private String                                   talker             = "GP";
+  private int[]                                    sentences          = { RMC, GGA, VTG };
+  private int                                      minuteDigits       = 4;
+
+  public NmeaOutboundAdapter(AdapterDefinition definition) throws ComponentException
+  {
+    super(definition);
+  }
+
+  @Override
+  public void afterPropertiesSet()
+  {
+    super.afterPropertiesSet();
+    String talkerProperty = getStringProperty("talker", "GP").toUpperCase();
+    if (talkerProperty.matches("[A-Z]{2}"))
+      talker = talkerProperty;
+    else
+      LOGGER.warn("INVALID_PROPERTY_VALUE", "talker", talker);
+    List<Integer> types = new ArrayList<Integer>();
+    for (String type : getStringProperty("sentences", "RMC,GGA,VTG").toUpperCase().split(","))
+    {
+      int index = indexOf(FORMATTERS, type.trim());
+      if (index >= 0)
+        types.add(index);
+      else if (!type.trim().isEmpty())
+        LOGGER.warn("OUTBOUND_INVALID_SENTENCE", type.trim());
+    }
+    sentences = new int[types.size()];
+    for (int i = 0; i < sentences.length; i++)
+      sentences[i] = types.get(i);
+    minuteDigits = Math.max(1, Math.min(8, getIntProperty("positionPrecision", 4)));
+    fieldsByDefinition.clear();
+  }
+
+  @Override
+  public void receive(GeoEvent geoEvent)
+  {
+    int[] fields = fieldsOf(geoEvent.getGeoEventDefinition());
+    double lat = Double.NaN;
+    double lon = Double.NaN;
+    MapGeometry geometry = geoEvent.getGeometry();
+    if (geometry != null && geometry.getGeometry() instanceof Point)
+    {
+      Point point = (Point) geometry.getGeometry();
+      lat = point.getY();
+      lon = point.getX();
+    }
+    boolean hasPosition = !Double.isNaN(lat) && !Double.isNaN(lon);
+    Object time = field(geoEvent, fields[TIME]);
+    long epochMillis = (time instanceof Date) ? ((Date) time).getTime() : System.currentTimeMillis();
+
+    NmeaSentenceFormatter formatter = formatters.get().reset();
+    for (int sentence : sentences)
+    {
+      switch (sentence)
+      {
+        case RMC:
+          char validity = charOf(geoEvent, fields[VALIDITY], hasPosition ? 'A' : 'V');
+          formatter.begin(talker, "RMC").timeField(epochMillis).field(validity);
+          formatter.latitudeFields(lat, minuteDigits).longitudeFields(lon, minuteDigits);
+          formatter.field(doubleOf(geoEvent, fields[SPEED]), 1).field(courseOf(geoEvent, fields[COURSE]), 1).dateField(epochMillis);
+          formatter.field(doubleOf(geoEvent, fields[VARIATION]), 1).field(charOf(geoEvent, fields[VARIATION_SIDE], (char) 0));
+          formatter.field(charOf(geoEvent, fields[MODE], (validity == 'A') ? 'A' : 'N')).end();
+          break;
+        case GGA:
+          double altitude = doubleOf(geoEvent, fields[ALTITUDE]);
+          double height = doubleOf(geoEvent, fields[HEIGHT]);
+          formatter.begin(talker, "GGA").timeField(epochMillis);
+          formatter.latitudeFields(lat, minuteDigits).longitudeFields(lon, minuteDigits);
+          formatter.field(longOf(geoEvent, fields[QUALITY], hasPosition ? 1 : 0), 1).field(longOf(geoEvent, fields[SATELLITES], -1), 2);
+          formatter.field(doubleOf(geoEvent, fields[HDOP]), 1);
+          formatter.field(altitude, 1).field(Double.isNaN(altitude) ? (char) 0 : 'M');
+          formatter.field(height, 1).field(Double.isNaN(height) ? (char) 0 : 'M');
+          formatter.field().field().end();
+          break;
+        case VTG:
+          double speed = doubleOf(geoEvent, fields[SPEED]);
+          formatter.begin(talker, "VTG").field(courseOf(geoEvent, fields[COURSE]), 1).field('T');
+          formatter.field(courseOf(geoEvent, fields[MAGNETIC_COURSE]), 1).field('M');
+          formatter.field(speed, 1).field('N').field(speed * KNOTS_TO_KMH, 1).field('K');
+          formatter.field(charOf(geoEvent, fields[MODE], hasPosition ? 'A' : 'N')).end();
+          break;
+        default:
+          break;
+      }
+    }
+    ByteBuffer buffer = formatter.getBuffer();
+    if (buffer.hasRemaining() && byteListener != null)
+      byteListener.receive(buffer, geoEvent.getTrackId());
+  }
+
+  /**
+   * @return the positions of the values' fields in the definition, -1 for
+   *         the ones it lacks.
+   */
+  private int[] fieldsOf(GeoEventDefinition definition)
+  {
+    int[] fields = fieldsByDefinition.get(definition.getGuid());
+    if (fields == null)
+    {
+      fields = new int[FIELD_NAMES.length];
+      for (int value = 0; value < fields.length; value++)
+      {
+        fields[value] = -1;
+        for (int i = 0; i < FIELD_NAMES[value].length && fields[value] < 0; i++)
+          fields[value] = definition.getIndexOf(FIELD_NAMES[value][i]);
+      }
+      fieldsByDefinition.put(definition.getGuid(), fields);
+    }
+    return fields;
+  }
+
+  private static Object field(GeoEvent geoEvent, int index)
+  {
+    return (index >= 0) ? geoEvent.getField(index) : null;
+  }
+
+  private static double doubleOf(GeoEvent geoEvent, int index)
+  {
+    Object value = field(geoEvent, index);
+    return (value instanceof Number) ? ((Number) value).doubleValue() : Double.NaN;
+  }
+
+  /**
+   * @return the course in [0, 360) once rounded to a tenth of a degree, or
+   *         NaN.
+   */
+  private static double courseOf(GeoEvent geoEvent, int index)
+  {
+    double course = doubleOf(geoEvent, index) % 360;
+    if (course < 0)
+      course += 360;
+    return (course >= 359.95) ? 0 : course;
+  }
+
+  private static long longOf(GeoEvent geoEvent, int index, long defaultValue)
+  {
+    Object value = field(geoEvent, index);
+    return (value instanceof Number) ? ((Number) value).longValue() : defaultValue;
+  }
+
+  private static char charOf(GeoEvent geoEvent, int index, char defaultValue)
+  {
+    Object value = field(geoEvent, index);
+    return (value instanceof String && !((String) value).isEmpty()) ? ((String) value).charAt(0) : defaultValue;
+  }
+
+  private static int indexOf(String[] values, String value)
+  {
+    for (int i = 0; i < values.length; i++)
+    {
+      if (values[i].equals(value))
+        return i;
+    }
+    return -1;
+  }
+
+  private int getIntProperty(String name, int defaultValue)
+  {
+    try
+    {
+      if (hasProperty(name))
+        return Integer.parseInt(getProperty(name).getValueAsString().trim());
+    }
+    catch (Exception e)
+    {
+      LOGGER.warn("INVALID_PROPERTY_VALUE", name, defaultValue);
+    }
+    return defaultValue;
+  }
+
+  private String getStringProperty(String name, String defaultValue)
+  {
+    if (hasProperty(name) && getProperty(name).getValue() != null)
+      return getProperty(name).getValueAsString().trim();
+    return defaultValue;
+  }
+}
@@ -0,0 +1,444 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.adapter.nmea;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * The last known position and state of every device (channel and talker), in
+ * two primitive arrays and without an object per device: an open addressing
+ * table of device keys and, at the same slot, a record of longs (doubles as
+ * their bits).
+ * <p>
+ * A device's record only ever has one writer, the worker owning its channel,
+ * so it is updated without locks under a sequence number that is odd while
+ * the record changes (a seqlock). Readers retry until they see the same even
+ * sequence before and after copying a record, so every record read is
+ * consistent; a snapshot of all devices is consistent per device, not across
+ * devices. Devices are added until the store holds its maximum; updates of
+ * further devices are counted and dropped. A removed device leaves a
+ * tombstone, which the next device added along its probe sequence takes over
+ * and which is cleared as soon as nothing is stored past it, so devices come
+ * and go without the table filling up. Adding a device and clearing
+ * tombstones take a lock, so no key is ever stored past an empty slot, while
+ * updating, reading and removing stored devices take none.
+ */
+public class NmeaPositionStore
+{
+  private static final long EMPTY      = 0;
+  // never a key, as channel numbers are not negative
+  private static final long TOMBSTONE  = -1;
+  private static final int  SEQUENCE   = 0;
+  private static final int  TIME       = 1;
+  private static final int  LATITUDE   = 2;
+  private static final int  LONGITUDE  = 3;
+  private static final int  ALTITUDE   = 4;
+  private static final int  SPEED      = 5;
+  private static final int  COURSE     = 6;
+  private static final int  PDOP       = 7;
+  private static final int  HDOP       = 8;
+  private static final int  VDOP       = 9;
+  // quality in the high and satellites in the low 32 bits
+  private static final int  COUNTS     = 10;
+  private static final int  UPDATED    = 11;
+  private static final int  FIELDS     = 12;
+
+  private final int             maxDevices;
+  private final int             mask;
+  private final AtomicLongArray keys;
+  private final AtomicLongArray records;
+  // serializes adding keys and clearing tombstones
+  private final Object          tableLock      = new Object();
+  private final LongAdder       devices        = new LongAdder();
+  private final LongAdder       droppedUpdates = new LongAdder();
+
+  /**
+   * @param maxDevices
+   *          the number of devices kept; the table is sized for a load
+   *          factor of at most 1/2.
+   */
+  public NmeaPositionStore(int maxDevices)
+  {
+    this.maxDevices = Math.max(1, maxDevices);
+    int capacity = Integer.highestOneBit(Math.max(2, Math.min(1 << 29, this.maxDevices * 2 - 1))) << 1;
+    this.mask = capacity - 1;
+    this.keys = new AtomicLongArray(capacity);
+    this.records = new AtomicLongArray(capacity * FIELDS);
+  }
+
+  /**
+   * Merges the values present in the fix (extracted from one sentence or
+   * fused from an epoch) into the device's record. Must only be called by the
+   * worker owning the channel.
+   *
+   * @return true if the device was added to the store.
+   */
+  public boolean update(int channelNumber, int talkerIndex, NmeaFix fix)
+  {
+    int slot = slotOf(keyOf(channelNumber, talkerIndex), true);
+    if (slot < 0)
+    {
+      droppedUpdates.increment();
+      return false;
+    }
+    int base = slot * FIELDS;
+    long sequence = records.get(base + SEQUENCE);
+    // a record without update time is new, none of its values are kept
+    boolean added = records.get(base + UPDATED) == 0;
+    records.set(base + SEQUENCE, sequence + 1);
+    if (fix.getTime() != NmeaTimeParser.INVALID || added)
+      records.set(base + TIME, fix.getTime());
+    if (fix.hasPosition())
+    {
+      setDouble(base + LATITUDE, fix.getLatitude());
+      setDouble(base + LONGITUDE, fix.getLongitude());
+    }
+    else if (added)
+    {
+      setDouble(base + LATITUDE, Double.NaN);
+      setDouble(base + LONGITUDE, Double.NaN);
+    }
+    mergeDouble(base + ALTITUDE, fix.getAltitude(), added);
+    mergeDouble(base + SPEED, fix.getSpeed(), added);
+    mergeDouble(base + COURSE, fix.getCourse(), added);
+    mergeDouble(base + PDOP, fix.getPdop(), added);
+    mergeDouble(base + HDOP, fix.getHdop(), added);
+    mergeDouble(base + VDOP, fix.getVdop(), added);
+    long counts = added ? -1L : records.get(base + COUNTS);
+    int quality = (fix.getQuality() >= 0) ? fix.getQuality() : (int) (counts >> 32);
+    int satellites = (fix.getSatellites() >= 0) ? fix.getSatellites() : (int) counts;
+    records.set(base + COUNTS, ((long) quality << 32) | (satellites & 0xFFFFFFFFL));
+    records.set(base + UPDATED, System.currentTimeMillis());
+    records.set(base + SEQUENCE, sequence + 2);
+    return added;
+  }
+
+  /**
+   * Removes a device, e.g. of a channel that was closed. Must only be called
+   * by the worker owning the channel, or when no worker updates it anymore.
+   *
+   * @return false if the device was not stored.
+   */
+  public boolean remove(int channelNumber, int talkerIndex)
+  {
+    int slot = slotOf(keyOf(channelNumber, talkerIndex), false);
+    if (slot < 0)
+      return false;
+    int base = slot * FIELDS;
+    // the sequence keeps growing, so a reader that overlaps the removal and a
+    // new device taking the slot over never sees the sequence it started with
+    long sequence = records.get(base + SEQUENCE);
+    records.set(base + SEQUENCE, sequence + 1);
+    records.set(base + UPDATED, 0);
+    keys.set(slot, TOMBSTONE);
+    records.set(base + SEQUENCE, sequence + 2);
+    devices.decrement();
+    synchronized (tableLock)
+    {
+      clearTombstones(slot);
+    }
+    return true;
+  }
+
+  /**
+   * Copies the record of a device.
+   *
+   * @return false if the device has not reported yet.
+   */
+  public boolean get(int channelNumber, int talkerIndex, Position position)
+  {
+    int slot = slotOf(keyOf(channelNumber, talkerIndex), false);
+    return slot >= 0 && read(slot, position);
+  }
+
+  /**
+   * Passes the record of every device to the consumer, through the same
+   * Position instance.
+   *
+   * @return the number of devices passed.
+   */
+  public int forEach(Consumer<Position> consumer)
+  {
+    Position position = new Position();
+    int count = 0;
+    for (int slot = 0; slot <= mask; slot++)
+    {
+      long key = keys.get(slot);
+      if (key != EMPTY && key != TOMBSTONE && read(slot, position))
+      {
+        consumer.accept(position);
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @return the number of devices with a record.
+   */
+  public long size()
+  {
+    return devices.sum();
+  }
+
+  /**
+   * @return the updates dropped because the store was full.
+   */
+  public long getDroppedUpdates()
+  {
+    return droppedUpdates.sum();
+  }
+
+  private boolean read(int slot, Position position)
+  {
+    int base = slot * FIELDS;
+    for (int attempt = 0;; attempt++)
+    {
+      long sequence = records.get(base + SEQUENCE);
+      if (sequence == 0)
+        return false;
+      if ((sequence & 1) == 0)
+      {
+        long key = keys.get(slot);
+        long updated = records.get(base + UPDATED);
+        position.channelNumber = (int) (key >>> 16) - 1;
+        position.talkerIndex = (int) (key & 0xFFFF);
+        position.time = records.get(base + TIME);
+        position.latitude = getDouble(base + LATITUDE);
+        position.longitude = getDouble(base + LONGITUDE);
+        position.altitude = getDouble(base + ALTITUDE);
+        position.speed = getDouble(base + SPEED);
+        position.course = getDouble(base + COURSE);
+        position.pdop = getDouble(base + PDOP);
+        position.hdop = getDouble(base + HDOP);
+        position.vdop = getDouble(base + VDOP);
+        long counts = records.get(base + COUNTS);
+        position.quality = (int) (counts >> 32);
+        position.satellites = (int) counts;
+        position.updated = updated;
+        if (records.get(base + SEQUENCE) == sequence)
+          return updated != 0 && key != EMPTY && key != TOMBSTONE;
+      }
+      // the record is being written
+      if (attempt >= 100)
+        Thread.yield();
+    }
+  }
+
+  /**
+   * @return the slot of the key, added if <code>add</code> is true and the
+   *         store is not full, or -1.
+   */
+  private int slotOf(long key, boolean add)
+  {
+    // Fibonacci hashing spreads the sequential channel numbers
+    int home = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    int slot = home;
+    for (int probes = 0; probes <= mask; probes++)
+    {
+      long current = keys.get(slot);
+      if (current == key)
+        return slot;
+      if (current == EMPTY)
+        break;
+      slot = (slot + 1) & mask;
+    }
+    if (!add)
+      return -1;
+    synchronized (tableLock)
+    {
+      if (devices.sum() >= maxDevices)
+        return -1;
+      // only the worker owning the channel adds its keys, so the key is still
+      // absent and takes the first tombstone or empty slot of its probe
+      // sequence, which no other worker can fill or clear meanwhile
+      slot = home;
+      for (int probes = 0; probes <= mask; probes++)
+      {
+        long current = keys.get(slot);
+        if (current == EMPTY || current == TOMBSTONE)
+        {
+          keys.set(slot, key);
+          devices.increment();
+          return slot;
+        }
+        slot = (slot + 1) & mask;
+      }
+      return -1;
+    }
+  }
+
+  /**
+   * Empties the tombstones that end a probe sequence, from the one at
+   * <code>slot</code> backwards, so lookups of absent keys stay short. Must be
+   * called holding the table lock.
+   */
+  private void clearTombstones(int slot)
+  {
+    for (int i = 0; i <= mask; i++)
+    {
+      if (keys.get((slot + 1) & mask) != EMPTY || keys.get(slot) != TOMBSTONE)
+        return;
+      keys.set(slot, EMPTY);
+      slot = (slot - 1) & mask;
+    }
+  }
+
+  private static long keyOf(int channelNumber, int talkerIndex)
+  {
+    // never EMPTY
+    return ((long) (channelNumber + 1) << 16) | talkerIndex;
+  }
+
+  private void mergeDouble(int index, double value, boolean added)
+  {
+    if (!Double.isNaN(value) || added)
+      setDouble(index, value);
+  }
+
+  private void setDouble(int index, double value)
+  {
+    records.set(index, Double.doubleToRawLongBits(value));
+  }
+
+  private double getDouble(int index)
+  {
+    return Double.longBitsToDouble(records.get(index));
+  }
+
+  /**
+   * A copy of a device's record. Missing numbers are NaN (or -1 for counts)
+   * and the time is NmeaTimeParser.INVALID until a sentence reported one.
+   */
+  public static class Position
+  {
+    private int    channelNumber;
+    private int    talkerIndex;
+    private long   time;
+    private double latitude;
+    private double longitude;
+    private double altitude;
+    private double speed;
+    private double course;
+    private double pdop;
+    private double hdop;
+    private double vdop;
+    private int    quality;
+    private int    satellites;
+    private long   updated;
+
+    public int getChannelNumber()
+    {
+      return channelNumber;
+    }
+
+    public int getTalkerIndex()
+    {
+      return talkerIndex;
+    }
+
+    /**
+     * @return the talker ID, e.g. "GP", or null.
+     */
+    public String getTalker()
+    {
+      return NmeaTranslatorTable.talkerOf(talkerIndex);
+    }
+
+    public long getTime()
+    {
+      return time;
+    }
+
+    public boolean hasPosition()
+    {
+      return !Double.isNaN(latitude) && !Double.isNaN(longitude);
+    }
+
+    public double getLatitude()
+    {
+      return latitude;
+    }
+
+    public double getLongitude()
+    {
+      return longitude;
+    }
+
+    public double getAltitude()
+    {
+      return altitude;
+    }
+
+    /**
+     * @return speed over ground in knots
+     */
+    public double getSpeed()
+    {
+      return speed;
+    }
+
+    public double getCourse()
+    {
+      return course;
+    }
+
+    public double getPdop()
+    {
+      return pdop;
+    }
+
+    public double getHdop()
+    {
+      return hdop;
+    }
+
+    public double getVdop()
+    {
+      return vdop;
+    }
+
+    public int getQuality()
+    {
+      return quality;
+    }
+
+    public int getSatellites()
+    {
+      return satellites;
+    }
+
+    /**
+     * @return when the record was last updated (in milliseconds since the
+     *         epoch).
+     */
+    public long getUpdated()
+    {
+      return updated;
+    }
+  }
+}
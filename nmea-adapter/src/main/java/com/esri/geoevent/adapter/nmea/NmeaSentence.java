@@ -0,0 +1,228 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.adapter.nmea;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reusable cursor over the comma separated fields of one framed sentence
+ * (without the leading '$'). Field 0 is the address field (e.g. "GPRMC"), the
+ * checksum after '*' is not part of any field. Tokenizing only records field
+ * offsets; Strings are created on demand by {@link #getString(int)}.
+ * Instances are not thread safe and are meant to be reused by one worker.
+ */
+public class NmeaSentence
+{
+  private static final int      INITIAL_FIELDS = 32;
+
+  // shared Strings of the short fields that make up most of a sentence:
+  // ASCII flags and units ("A", "N", "M") and 2-digit numbers (PRNs)
+  private static final String[] CHARACTERS     = new String[128];
+  private static final String[] DIGIT_PAIRS    = new String[100];
+
+  static
+  {
+    for (int i = 0; i < CHARACTERS.length; i++)
+      CHARACTERS[i] = String.valueOf((char) i);
+    for (int i = 0; i < DIGIT_PAIRS.length; i++)
+      DIGIT_PAIRS[i] = String.valueOf(new char[] { (char) ('0' + i / 10), (char) ('0' + i % 10) });
+  }
+
+  private byte[]                data;
+  private int                   offset;
+  private int                   length;
+  private int[]                 starts         = new int[INITIAL_FIELDS];
+  private int[]                 ends           = new int[INITIAL_FIELDS];
+  private int                   fieldCount;
+
+  public NmeaSentence reset(byte[] data)
+  {
+    return reset(data, 0, data.length);
+  }
+
+  public NmeaSentence reset(byte[] data, int offset, int length)
+  {
+    this.data = data;
+    this.offset = offset;
+    this.length = length;
+    fieldCount = 0;
+
+    int end = offset + length;
+    int start = offset;
+    for (int i = offset; i < end; i++)
+    {
+      byte b = data[i];
+      if (b == ',')
+      {
+        addField(start, i);
+        start = i + 1;
+      }
+      else if (b == '*')
+      {
+        end = i;
+        break;
+      }
+    }
+    if (length > 0)
+      addField(start, end);
+    return this;
+  }
+
+  public byte[] getData()
+  {
+    return data;
+  }
+
+  public int getLength()
+  {
+    return length;
+  }
+
+  public int getFieldCount()
+  {
+    return fieldCount;
+  }
+
+  public int getFieldOffset(int field)
+  {
+    return starts[field];
+  }
+
+  public int getFieldLength(int field)
+  {
+    return ends[field] - starts[field];
+  }
+
+  public boolean isEmpty(int field)
+  {
+    return field >= fieldCount || ends[field] == starts[field];
+  }
+
+  /**
+   * @return the byte at <code>index</code> within the field, or 0 when the
+   *         field is shorter.
+   */
+  public byte byteAt(int field, int index)
+  {
+    if (field >= fieldCount || index >= ends[field] - starts[field])
+      return 0;
+    return data[starts[field] + index];
+  }
+
+  /**
+   * @return true if the field is exactly the single character <code>c</code>.
+   */
+  public boolean is(int field, char c)
+  {
+    return field < fieldCount && ends[field] - starts[field] == 1 && data[starts[field]] == c;
+  }
+
+  /**
+   * @return true if the field is exactly the ASCII characters of
+   *         <code>value</code>.
+   */
+  public boolean is(int field, String value)
+  {
+    if (field >= fieldCount || ends[field] - starts[field] != value.length())
+      return false;
+    for (int i = 0; i < value.length(); i++)
+    {
+      if (data[starts[field] + i] != value.charAt(i))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * @return true if the field starts with <code>c</code>, ignoring case.
+   */
+  public boolean startsWithIgnoreCase(int field, char c)
+  {
+    if (field >= fieldCount || ends[field] == starts[field])
+      return false;
+    int b = data[starts[field]];
+    return b == Character.toLowerCase(c) || b == Character.toUpperCase(c);
+  }
+
+  /**
+   * @return the field as a String, "" for an empty field and null if the
+   *         sentence has no such field. Fields of one ASCII character or two
+   *         digits return shared instances.
+   */
+  public String getString(int field)
+  {
+    if (field >= fieldCount)
+      return null;
+    int start = starts[field];
+    switch (ends[field] - start)
+    {
+      case 0:
+        return "";
+      case 1:
+        if (data[start] >= 0)
+          return CHARACTERS[data[start]];
+        break;
+      case 2:
+        int tens = data[start] - '0';
+        int ones = data[start + 1] - '0';
+        if (tens >= 0 && tens <= 9 && ones >= 0 && ones <= 9)
+          return DIGIT_PAIRS[tens * 10 + ones];
+        break;
+      default:
+        break;
+    }
+    return new String(data, start, ends[field] - start, StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * @return the shared 1-character String of an ASCII character.
+   */
+  public static String toString(byte c)
+  {
+    return (c >= 0) ? CHARACTERS[c] : String.valueOf((char) (c & 0xff));
+  }
+
+  @Override
+  public String toString()
+  {
+    return (data != null) ? new String(data, offset, length, StandardCharsets.ISO_8859_1) : "";
+  }
+
+  private void addField(int start, int end)
+  {
+    if (fieldCount == starts.length)
+    {
+      int[] s = new int[fieldCount * 2];
+      int[] e = new int[fieldCount * 2];
+      System.arraycopy(starts, 0, s, 0, fieldCount);
+      System.arraycopy(ends, 0, e, 0, fieldCount);
+      starts = s;
+      ends = e;
+    }
+    starts[fieldCount] = start;
+    ends[fieldCount] = end;
+    fieldCount++;
+  }
+}
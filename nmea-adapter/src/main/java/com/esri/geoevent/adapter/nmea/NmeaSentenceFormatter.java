@@ -0,0 +1,297 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.adapter.nmea;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes NMEA sentences into a reusable byte array: begin a sentence, append
+ * its fields, and end it, which appends the *hh checksum and CR LF. Numbers
+ * are written with a fixed number of fraction digits through long arithmetic,
+ * so formatting does not allocate. Instances are not thread safe and are meant
+ * to be reused by one thread.
+ */
+public class NmeaSentenceFormatter
+{
+  private static final int    CAPACITY      = 1024;
+  private static final long[] POWERS_OF_TEN = { 1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L };
+  private static final byte[] HEX           = "0123456789ABCDEF".getBytes(StandardCharsets.ISO_8859_1);
+  // largest value written with fixed digits, so the scaled value fits a long
+  private static final double MAX_VALUE     = 1e9;
+
+  private final byte[]        data          = new byte[CAPACITY];
+  private final ByteBuffer    buffer        = ByteBuffer.wrap(data);
+  private int                 length;
+  private int                 sentenceStart;
+
+  /**
+   * Discards the sentences written so far.
+   */
+  public NmeaSentenceFormatter reset()
+  {
+    length = 0;
+    return this;
+  }
+
+  /**
+   * Starts a sentence with its address field, e.g. "$GPRMC".
+   */
+  public NmeaSentenceFormatter begin(String talker, String formatter)
+  {
+    sentenceStart = length;
+    append('$');
+    append(talker);
+    append(formatter);
+    return this;
+  }
+
+  /**
+   * Ends the sentence with its checksum and CR LF.
+   */
+  public NmeaSentenceFormatter end()
+  {
+    int checksum = 0;
+    for (int i = sentenceStart + 1; i < length; i++)
+      checksum ^= data[i];
+    append('*');
+    append((char) HEX[(checksum >> 4) & 0xF]);
+    append((char) HEX[checksum & 0xF]);
+    append('\r');
+    append('\n');
+    return this;
+  }
+
+  /**
+   * Appends an empty field.
+   */
+  public NmeaSentenceFormatter field()
+  {
+    append(',');
+    return this;
+  }
+
+  /**
+   * Appends a 1-character field, or an empty one for 0.
+   */
+  public NmeaSentenceFormatter field(char c)
+  {
+    append(',');
+    if (c != 0)
+      append(c);
+    return this;
+  }
+
+  /**
+   * Appends a field of ASCII text, or an empty one for null.
+   */
+  public NmeaSentenceFormatter field(String value)
+  {
+    append(',');
+    if (value != null)
+      append(value);
+    return this;
+  }
+
+  /**
+   * Appends a non-negative integer with at least <code>minDigits</code>
+   * digits, or an empty field for a negative value.
+   */
+  public NmeaSentenceFormatter field(long value, int minDigits)
+  {
+    append(',');
+    if (value >= 0)
+      appendDigits(value, minDigits);
+    return this;
+  }
+
+  /**
+   * Appends a number with exactly <code>fractionDigits</code> fraction digits
+   * (at most 8), or an empty field for NaN and values beyond 1e9.
+   */
+  public NmeaSentenceFormatter field(double value, int fractionDigits)
+  {
+    append(',');
+    if (Double.isNaN(value) || Math.abs(value) >= MAX_VALUE)
+      return this;
+    long scaled = Math.round(Math.abs(value) * POWERS_OF_TEN[fractionDigits]);
+    if (value < 0 && scaled != 0)
+      append('-');
+    appendFixed(scaled, 1, fractionDigits);
+    return this;
+  }
+
+  /**
+   * Appends the hhmmss.ss time of day of a UTC time.
+   */
+  public NmeaSentenceFormatter timeField(long epochMillis)
+  {
+    append(',');
+    long timeOfDay = Math.floorMod(epochMillis, NmeaTimeParser.MILLIS_PER_DAY);
+    long seconds = timeOfDay / 1000;
+    appendDigits(seconds / 3600, 2);
+    appendDigits(seconds / 60 % 60, 2);
+    appendDigits(seconds % 60, 2);
+    append('.');
+    appendDigits(timeOfDay % 1000 / 10, 2);
+    return this;
+  }
+
+  /**
+   * Appends the ddmmyy date of a UTC time.
+   */
+  public NmeaSentenceFormatter dateField(long epochMillis)
+  {
+    append(',');
+    // H. Hinnant's civil_from_days
+    long epochDay = Math.floorDiv(epochMillis, NmeaTimeParser.MILLIS_PER_DAY) + 719468;
+    long era = Math.floorDiv(epochDay, 146097);
+    long dayOfEra = epochDay - era * 146097;
+    long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    long monthIndex = (5 * dayOfYear + 2) / 153;
+    long day = dayOfYear - (153 * monthIndex + 2) / 5 + 1;
+    long month = (monthIndex < 10) ? monthIndex + 3 : monthIndex - 9;
+    long year = yearOfEra + era * 400 + ((month <= 2) ? 1 : 0);
+    appendDigits(day, 2);
+    appendDigits(month, 2);
+    appendDigits(Math.floorMod(year, 100), 2);
+    return this;
+  }
+
+  /**
+   * Appends the ddmm.mmmm latitude and N/S fields, or two empty fields for
+   * NaN.
+   */
+  public NmeaSentenceFormatter latitudeFields(double latitude, int minuteDigits)
+  {
+    return field(appendDegreesMinutes(latitude, 2, minuteDigits, 'N', 'S'));
+  }
+
+  /**
+   * Appends the dddmm.mmmm longitude and E/W fields, or two empty fields for
+   * NaN.
+   */
+  public NmeaSentenceFormatter longitudeFields(double longitude, int minuteDigits)
+  {
+    return field(appendDegreesMinutes(longitude, 3, minuteDigits, 'E', 'W'));
+  }
+
+  /**
+   * @return the array the sentences are written to, valid up to
+   *         {@link #getLength()}.
+   */
+  public byte[] getData()
+  {
+    return data;
+  }
+
+  public int getLength()
+  {
+    return length;
+  }
+
+  /**
+   * @return the sentences written so far, as a view of the formatter's array
+   *         that is valid until the formatter is reset.
+   */
+  public ByteBuffer getBuffer()
+  {
+    buffer.limit(length);
+    buffer.position(0);
+    return buffer;
+  }
+
+  @Override
+  public String toString()
+  {
+    return new String(data, 0, length, StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * @return the hemisphere of the value as written, or 0 for NaN.
+   */
+  private char appendDegreesMinutes(double value, int degreeDigits, int minuteDigits, char positive, char negative)
+  {
+    append(',');
+    if (Double.isNaN(value))
+      return 0;
+    // rounded as a whole, so 59.99999 minutes carry over to the degrees
+    long minuteUnits = 60 * POWERS_OF_TEN[minuteDigits];
+    long scaled = Math.round(Math.abs(value) * minuteUnits);
+    appendDigits(scaled / minuteUnits, degreeDigits);
+    appendFixed(scaled % minuteUnits, 2, minuteDigits);
+    // a value that rounds to 0 is not south or west
+    return (value < 0 && scaled != 0) ? negative : positive;
+  }
+
+  /**
+   * Appends a value scaled by 10^fractionDigits as a decimal.
+   */
+  private void appendFixed(long scaled, int integerDigits, int fractionDigits)
+  {
+    long power = POWERS_OF_TEN[fractionDigits];
+    appendDigits(scaled / power, integerDigits);
+    if (fractionDigits > 0)
+    {
+      append('.');
+      appendDigits(scaled % power, fractionDigits);
+    }
+  }
+
+  private void appendDigits(long value, int minDigits)
+  {
+    int digits = 1;
+    for (long rest = value / 10; rest > 0; rest /= 10)
+      digits++;
+    digits = Math.max(digits, minDigits);
+    ensureCapacity(digits);
+    for (int i = length + digits - 1; i >= length; i--)
+    {
+      data[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    length += digits;
+  }
+
+  private void append(String s)
+  {
+    ensureCapacity(s.length());
+    for (int i = 0; i < s.length(); i++)
+      data[length++] = (byte) s.charAt(i);
+  }
+
+  private void append(char c)
+  {
+    ensureCapacity(1);
+    data[length++] = (byte) c;
+  }
+
+  private void ensureCapacity(int more)
+  {
+    if (length + more > data.length)
+      throw new IllegalStateException("NMEA output buffer full");
+  }
+}
@@ -0,0 +1,375 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.adapter.nmea;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Incremental sentence framer for one channel. Sentences start with '$' (or
+ * '!' for encapsulated sentences such as AIS !AIVDM) and end with CR or LF; a
+ * sentence that is not terminated at the end of a buffer is carried over to
+ * the next call, unless the frame is ended with {@link #endFrame(List)}.
+ * The framer only reads the buffer through absolute gets and bulk gets, so
+ * heap, direct and read-only buffers are all supported.
+ * <p>
+ * The '*hh' checksum is computed while scanning, so sentences failing the
+ * configured {@link ChecksumMode} are dropped before they are copied out of
+ * the buffer. Instances are not thread safe.
+ * <p>
+ * Large buffers, such as the backlog a client sends when it reconnects, can
+ * be framed in parallel: after a line terminator a framer holds no state, so
+ * the buffer is cut at line terminators into chunks that are framed by
+ * framers of their own and their sentences are merged back in order.
+ */
+public class NmeaSentenceFramer
+{
+  public enum ChecksumMode
+  {
+    /** Sentences with a checksum must match it; sentences without one pass. */
+    VERIFY,
+    /** Checksums are not checked. */
+    IGNORE,
+    /** Every sentence must carry a matching checksum. */
+    REQUIRE
+  }
+
+  public enum Framing
+  {
+    /**
+     * The data is a byte stream (TCP, serial, file): a sentence that is not
+     * terminated at the end of a buffer continues in the next one.
+     */
+    STREAM,
+    /**
+     * Every buffer is a complete datagram (UDP, IEC 61162-450): a sentence
+     * that is not terminated at the end of a buffer ends there.
+     */
+    DATAGRAM
+  }
+
+  public enum RejectReason
+  {
+    BAD_CHECKSUM, MISSING_CHECKSUM, MALFORMED_CHECKSUM, OVERLONG
+  }
+
+  private static final byte  BOM          = (byte) '$';
+  private static final byte  ENCAPSULATED = (byte) '!';
+  private static final byte  CR           = (byte) '\r';
+  private static final byte  LF           = (byte) '\n';
+  private static final byte  CHECKSUM     = (byte) '*';
+  private static final int   MIN_CHUNK    = 65536;
+
+  private final int          maxSentenceLength;
+  private final ChecksumMode checksumMode;
+  private final long[]       rejected     = new long[RejectReason.values().length];
+  private byte[]             pending;
+  private int                pendingLength;
+  private boolean            inSentence;
+  private boolean            discarding;
+
+  // checksum state of the current sentence, kept across buffers
+  private int                checksum;
+  private int                checksumDigits = -1;
+  private int                expectedChecksum;
+  private boolean            malformedChecksum;
+
+  public NmeaSentenceFramer(int maxSentenceLength, ChecksumMode checksumMode)
+  {
+    this.maxSentenceLength = maxSentenceLength;
+    this.checksumMode = (checksumMode != null) ? checksumMode : ChecksumMode.VERIFY;
+  }
+
+  /**
+   * Frames all complete sentences in the remaining bytes of the buffer into
+   * <code>out</code> (without the leading '$' or '!' and the line
+   * terminator) and consumes the buffer.
+   */
+  public void frame(ByteBuffer in, List<byte[]> out)
+  {
+    int limit = in.limit();
+    int start = inSentence ? in.position() : -1;
+    for (int i = in.position(); i < limit; i++)
+    {
+      byte b = in.get(i);
+      if (b == BOM || b == ENCAPSULATED)
+      {
+        // a new sentence discards any unterminated one
+        begin();
+        start = i + 1;
+      }
+      else if (b == CR || b == LF)
+      {
+        if (inSentence && !discarding && accept())
+          emit(in, start, i, out);
+        pendingLength = 0;
+        discarding = false;
+        inSentence = false;
+        start = -1;
+      }
+      else if (inSentence && !discarding)
+      {
+        if (pendingLength + (i + 1 - start) > maxSentenceLength)
+        {
+          discarding = true;
+          pendingLength = 0;
+          rejected[RejectReason.OVERLONG.ordinal()]++;
+        }
+        else if (checksumDigits < 0)
+        {
+          if (b == CHECKSUM)
+            checksumDigits = 0;
+          else
+            checksum ^= b;
+        }
+        else
+          checksumDigit(b);
+      }
+    }
+    if (inSentence && !discarding && start >= 0 && start < limit)
+      carry(in, start, limit);
+    in.position(limit);
+  }
+
+  /**
+   * Frames like {@link #frame(ByteBuffer, List)}, but a buffer of at least
+   * <code>parallelThreshold</code> bytes is cut into chunks framed in
+   * parallel in <code>pool</code>. The calling thread frames the first and
+   * the last chunk, which continue and carry over the sentences of the
+   * neighbouring buffers, with this framer.
+   *
+   * @param parallelThreshold
+   *          the size from which buffers are framed in parallel, 0 to never
+   *          frame in parallel.
+   */
+  public void frame(ByteBuffer in, List<byte[]> out, ForkJoinPool pool, int parallelThreshold)
+  {
+    int position = in.position();
+    int limit = in.limit();
+    int chunkSize = Math.max(MIN_CHUNK, (limit - position) / (pool.getParallelism() * 2));
+    if (parallelThreshold <= 0 || limit - position < Math.max(parallelThreshold, 2 * chunkSize))
+    {
+      frame(in, out);
+      return;
+    }
+    int first = nextTerminator(in, position + chunkSize, limit);
+    int last = previousTerminator(in, first, limit);
+    if (first < 0 || last - first < chunkSize)
+    {
+      frame(in, out);
+      return;
+    }
+
+    // the chunks between the first and the last one start and end after a
+    // line terminator
+    List<Chunk> chunks = new ArrayList<Chunk>();
+    for (int start = first + 1; start <= last;)
+    {
+      int end = nextTerminator(in, Math.min(start + chunkSize, last), last + 1) + 1;
+      Chunk chunk = new Chunk(new NmeaSentenceFramer(maxSentenceLength, checksumMode), slice(in, start, end));
+      pool.execute(chunk);
+      chunks.add(chunk);
+      start = end;
+    }
+    frame(slice(in, position, first + 1), out);
+    // a framer holds no state after a line terminator either, so the last
+    // chunk is framed before the middle ones are merged
+    List<byte[]> tail = new ArrayList<byte[]>();
+    frame(slice(in, last + 1, limit), tail);
+    for (Chunk chunk : chunks)
+    {
+      chunk.join();
+      out.addAll(chunk.messages);
+      for (int i = 0; i < rejected.length; i++)
+        rejected[i] += chunk.framer.rejected[i];
+    }
+    out.addAll(tail);
+    in.position(limit);
+  }
+
+  /**
+   * Ends the current frame (datagram): a sentence left unterminated by the
+   * last call to {@link #frame(ByteBuffer, List)} is completed as if it was
+   * terminated, so nothing carries over to the next frame.
+   */
+  public void endFrame(List<byte[]> out)
+  {
+    if (inSentence && !discarding && pendingLength > 0 && accept())
+    {
+      byte[] message = new byte[pendingLength];
+      System.arraycopy(pending, 0, message, 0, pendingLength);
+      out.add(message);
+    }
+    reset();
+  }
+
+  /**
+   * Discards the partial sentence, if any.
+   */
+  public void reset()
+  {
+    begin();
+    inSentence = false;
+  }
+
+  /**
+   * @return the number of sentences dropped for the given reason.
+   */
+  public long getRejectedCount(RejectReason reason)
+  {
+    return rejected[reason.ordinal()];
+  }
+
+  private void begin()
+  {
+    pendingLength = 0;
+    discarding = false;
+    inSentence = true;
+    checksum = 0;
+    checksumDigits = -1;
+    expectedChecksum = 0;
+    malformedChecksum = false;
+  }
+
+  private void checksumDigit(byte b)
+  {
+    int digit = Character.digit(b, 16);
+    if (digit < 0 || ++checksumDigits > 2)
+      malformedChecksum = true;
+    else
+      expectedChecksum = (expectedChecksum << 4) | digit;
+  }
+
+  private boolean accept()
+  {
+    if (checksumMode == ChecksumMode.IGNORE)
+      return true;
+    RejectReason reason = null;
+    if (checksumDigits < 0)
+    {
+      if (checksumMode == ChecksumMode.REQUIRE)
+        reason = RejectReason.MISSING_CHECKSUM;
+    }
+    else if (malformedChecksum || checksumDigits != 2)
+      reason = RejectReason.MALFORMED_CHECKSUM;
+    else if (expectedChecksum != checksum)
+      reason = RejectReason.BAD_CHECKSUM;
+
+    if (reason == null)
+      return true;
+    rejected[reason.ordinal()]++;
+    return false;
+  }
+
+  private void emit(ByteBuffer in, int start, int end, List<byte[]> out)
+  {
+    int length = end - start;
+    if (pendingLength + length == 0)
+      return;
+    byte[] message = new byte[pendingLength + length];
+    if (pendingLength > 0)
+      System.arraycopy(pending, 0, message, 0, pendingLength);
+    if (length > 0)
+    {
+      in.position(start);
+      in.get(message, pendingLength, length);
+    }
+    out.add(message);
+  }
+
+  /**
+   * @return the position of the first CR or LF in [from, limit), or -1.
+   */
+  private static int nextTerminator(ByteBuffer in, int from, int limit)
+  {
+    for (int i = from; i < limit; i++)
+    {
+      byte b = in.get(i);
+      if (b == CR || b == LF)
+        return i;
+    }
+    return -1;
+  }
+
+  /**
+   * @return the position of the last CR or LF in [from, limit), or -1.
+   */
+  private static int previousTerminator(ByteBuffer in, int from, int limit)
+  {
+    if (from < 0)
+      return -1;
+    for (int i = limit - 1; i >= from; i--)
+    {
+      byte b = in.get(i);
+      if (b == CR || b == LF)
+        return i;
+    }
+    return -1;
+  }
+
+  private static ByteBuffer slice(ByteBuffer in, int start, int end)
+  {
+    ByteBuffer slice = in.duplicate();
+    slice.limit(end);
+    slice.position(start);
+    return slice;
+  }
+
+  private void carry(ByteBuffer in, int start, int end)
+  {
+    if (pending == null)
+      pending = new byte[maxSentenceLength];
+    in.position(start);
+    in.get(pending, pendingLength, end - start);
+    pendingLength += end - start;
+  }
+
+  /**
+   * The sentences of one chunk, framed by a framer of their own.
+   */
+  private static class Chunk extends RecursiveAction
+  {
+    private static final long        serialVersionUID = 1L;
+
+    private final NmeaSentenceFramer framer;
+    private final ByteBuffer         buffer;
+    private final List<byte[]>       messages         = new ArrayList<byte[]>();
+
+    Chunk(NmeaSentenceFramer framer, ByteBuffer buffer)
+    {
+      this.framer = framer;
+      this.buffer = buffer;
+    }
+
+    @Override
+    protected void compute()
+    {
+      framer.frame(buffer, messages);
+    }
+  }
+}
@@ -0,0 +1,319 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.adapter.nmea;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import com.esri.ges.core.geoevent.ConfigurationException;
+import com.esri.ges.core.geoevent.FieldType;
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+
+/**
+ * Declarative translation of a sentence type, read from sentence-mappings.xml:
+ *
+ * <pre>
+ * &lt;sentence address="PSTI" subtype="030" geoEventDefinition="NMEAPSTI030"&gt;
+ *   &lt;field index="2" name="TimeStamp" type="Date" dateIndex="12" /&gt;
+ *   &lt;field index="4" name="Shape" type="Geometry" longitudeIndex="6" /&gt;
+ *   &lt;field index="8" name="Altitude" type="Double" unit="M" toUnit="FT" /&gt;
+ *   &lt;field index="3" name="Valid" type="Boolean" trueValue="A" /&gt;
+ * &lt;/sentence&gt;
+ * </pre>
+ *
+ * Fields are identified by their position in the sentence (0 being the address
+ * field) and written to the GeoEvent field of the given name and type. A Date
+ * field is an hhmmss.ss time with an optional ddmmyy date field, a Geometry
+ * field a ddmm.mmmm latitude and a dddmm.mmmm longitude, each followed by its
+ * hemisphere. Numeric fields are converted between units of the same kind
+ * when both are given. Instances are immutable.
+ */
+public class NmeaSentenceMapping
+{
+  private static final BundleLogger LOGGER = BundleLoggerFactory.getLogger(NmeaSentenceMapping.class);
+
+  private enum Unit
+  {
+    M(0, 1), KM(0, 1000), NM(0, 1852), FT(0, 0.3048), MS(1, 1), KMH(1, 1 / 3.6), KN(1, 1852 / 3600.0), MPH(1, 0.44704), DEG(2, 1), RAD(2, 180 / Math.PI);
+
+    // units of the same kind convert into each other
+    private final int    kind;
+    private final double factor;
+
+    Unit(int kind, double factor)
+    {
+      this.kind = kind;
+      this.factor = factor;
+    }
+  }
+
+  private final String      address;
+  private final String      subtype;
+  private final String      geoEventDefinitionName;
+  private final int         minFields;
+  private final List<Field> fields;
+
+  private NmeaSentenceMapping(String address, String subtype, String geoEventDefinitionName, int minFields, List<Field> fields)
+  {
+    this.address = address;
+    this.subtype = subtype;
+    this.geoEventDefinitionName = geoEventDefinitionName;
+    this.minFields = minFields;
+    this.fields = Collections.unmodifiableList(fields);
+  }
+
+  /**
+   * @return the address field of the sentence, e.g. "PGRME".
+   */
+  public String getAddress()
+  {
+    return address;
+  }
+
+  /**
+   * @return the value of field 1 that selects this mapping among the mappings
+   *         of the address, e.g. "030" for $PSTI,030, or null.
+   */
+  public String getSubtype()
+  {
+    return subtype;
+  }
+
+  public String getGeoEventDefinitionName()
+  {
+    return geoEventDefinitionName;
+  }
+
+  /**
+   * @return the number of fields, including the address field, below which a
+   *         sentence is invalid.
+   */
+  public int getMinFields()
+  {
+    return minFields;
+  }
+
+  public List<Field> getFields()
+  {
+    return fields;
+  }
+
+  /**
+   * The mapping of one sentence field to a GeoEvent field.
+   */
+  public static class Field
+  {
+    private final int       index;
+    private final String    name;
+    private final FieldType type;
+    private final int       extraIndex;
+    private final double    scale;
+    private final String    trueValue;
+
+    private Field(int index, String name, FieldType type, int extraIndex, double scale, String trueValue)
+    {
+      this.index = index;
+      this.name = name;
+      this.type = type;
+      this.extraIndex = extraIndex;
+      this.scale = scale;
+      this.trueValue = trueValue;
+    }
+
+    public int getIndex()
+    {
+      return index;
+    }
+
+    public String getName()
+    {
+      return name;
+    }
+
+    public FieldType getType()
+    {
+      return type;
+    }
+
+    /**
+     * @return the date field of a Date, the longitude field of a Geometry, or
+     *         -1.
+     */
+    public int getExtraIndex()
+    {
+      return extraIndex;
+    }
+
+    /**
+     * @return the factor applied to a numeric value, 1 without unit
+     *         conversion.
+     */
+    public double getScale()
+    {
+      return scale;
+    }
+
+    /**
+     * @return the value of a Boolean field that means true.
+     */
+    public String getTrueValue()
+    {
+      return trueValue;
+    }
+  }
+
+  /**
+   * Reads the &lt;sentence&gt; elements of a sentence mappings document.
+   */
+  public static List<NmeaSentenceMapping> parse(InputStream in) throws ConfigurationException
+  {
+    Document document;
+    try
+    {
+      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+      factory.setExpandEntityReferences(false);
+      DocumentBuilder builder = factory.newDocumentBuilder();
+      document = builder.parse(in);
+    }
+    catch (Exception error)
+    {
+      throw new ConfigurationException(LOGGER.translate("MAPPING_INVALID_DOCUMENT", error.getMessage()));
+    }
+    List<NmeaSentenceMapping> mappings = new ArrayList<NmeaSentenceMapping>();
+    NodeList sentences = document.getDocumentElement().getElementsByTagName("sentence");
+    for (int i = 0; i < sentences.getLength(); i++)
+      mappings.add(parseSentence((Element) sentences.item(i)));
+    return mappings;
+  }
+
+  private static NmeaSentenceMapping parseSentence(Element element) throws ConfigurationException
+  {
+    String address = attribute(element, "address", null);
+    String geoEventDefinitionName = attribute(element, "geoEventDefinition", null);
+    if (address == null || geoEventDefinitionName == null)
+      throw new ConfigurationException(LOGGER.translate("MAPPING_MISSING_ATTRIBUTES", address, geoEventDefinitionName));
+    String subtype = attribute(element, "subtype", null);
+    // the fields referenced, hemisphere indicators included
+    int referencedFields = (subtype != null) ? 2 : 1;
+    List<Field> fields = new ArrayList<Field>();
+    NodeList fieldElements = element.getElementsByTagName("field");
+    for (int i = 0; i < fieldElements.getLength(); i++)
+    {
+      Field field = parseField(address, (Element) fieldElements.item(i));
+      fields.add(field);
+      referencedFields = Math.max(referencedFields, field.index + 1);
+      if (field.type == FieldType.Geometry)
+        referencedFields = Math.max(referencedFields, Math.max(field.index, field.extraIndex) + 2);
+      else if (field.extraIndex >= 0)
+        referencedFields = Math.max(referencedFields, field.extraIndex + 1);
+    }
+    int minFields = integer(element, "minFields", referencedFields);
+    return new NmeaSentenceMapping(address, subtype, geoEventDefinitionName, minFields, fields);
+  }
+
+  private static Field parseField(String address, Element element) throws ConfigurationException
+  {
+    String name = attribute(element, "name", null);
+    int index = integer(element, "index", -1);
+    if (name == null || index < 1)
+      throw new ConfigurationException(LOGGER.translate("MAPPING_INVALID_FIELD", address, name, index));
+    FieldType type;
+    try
+    {
+      type = FieldType.valueOf(attribute(element, "type", "String"));
+    }
+    catch (IllegalArgumentException error)
+    {
+      throw new ConfigurationException(LOGGER.translate("MAPPING_INVALID_TYPE", address, name, element.getAttribute("type")));
+    }
+    int extraIndex = -1;
+    switch (type)
+    {
+      case Date:
+        extraIndex = integer(element, "dateIndex", -1);
+        break;
+      case Geometry:
+        extraIndex = integer(element, "longitudeIndex", index + 2);
+        break;
+      case Group:
+        throw new ConfigurationException(LOGGER.translate("MAPPING_INVALID_TYPE", address, name, type));
+      default:
+        break;
+    }
+    return new Field(index, name, type, extraIndex, scale(address, element), attribute(element, "trueValue", "A"));
+  }
+
+  private static double scale(String address, Element element) throws ConfigurationException
+  {
+    String from = attribute(element, "unit", null);
+    String to = attribute(element, "toUnit", from);
+    if (from == null)
+      return 1;
+    try
+    {
+      Unit fromUnit = Unit.valueOf(from.toUpperCase());
+      Unit toUnit = Unit.valueOf(to.toUpperCase());
+      if (fromUnit.kind != toUnit.kind)
+        throw new ConfigurationException(LOGGER.translate("MAPPING_INVALID_UNITS", address, element.getAttribute("name"), from, to));
+      return fromUnit.factor / toUnit.factor;
+    }
+    catch (IllegalArgumentException error)
+    {
+      throw new ConfigurationException(LOGGER.translate("MAPPING_INVALID_UNITS", address, element.getAttribute("name"), from, to));
+    }
+  }
+
+  private static String attribute(Element element, String name, String defaultValue)
+  {
+    String value = element.getAttribute(name).trim();
+    return (value.length() > 0) ? value : defaultValue;
+  }
+
+  private static int integer(Element element, String name, int defaultValue) throws ConfigurationException
+  {
+    String value = attribute(element, name, null);
+    if (value == null)
+      return defaultValue;
+    try
+    {
+      return Integer.parseInt(value);
+    }
+    catch (NumberFormatException error)
+    {
+      throw new ConfigurationException(LOGGER.translate("MAPPING_INVALID_NUMBER", name, value));
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.adapter.nmea;
+
+/**
+ * Decodes NMEA UTC time (hhmmss or hhmmss.sss) and date (ddmmyy) fields
+ * directly from the sentence bytes, without Calendar or TimeZone lookups.
+ */
+public final class NmeaTimeParser
+{
+  public static final long MILLIS_PER_DAY = 86400000L;
+  public static final long INVALID        = Long.MIN_VALUE;
+
+  private NmeaTimeParser()
+  {
+  }
+
+  /**
+   * @return the milliseconds since midnight UTC, or {@link #INVALID}.
+   *         Fractional seconds are kept to the millisecond.
+   */
+  public static long parseTimeOfDay(byte[] data, int offset, int length)
+  {
+    if (length < 6)
+      return INVALID;
+    int hours = twoDigits(data, offset);
+    int minutes = twoDigits(data, offset + 2);
+    int seconds = twoDigits(data, offset + 4);
+    if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59 || seconds < 0 || seconds > 60)
+      return INVALID;
+
+    int millis = 0;
+    if (length > 6)
+    {
+      if (data[offset + 6] != '.')
+        return INVALID;
+      int scale = 100;
+      for (int i = offset + 7; i < offset + length; i++)
+      {
+        int d = data[i] - '0';
+        if (d < 0 || d > 9)
+          return INVALID;
+        millis += d * scale;
+        scale /= 10;
+      }
+    }
+    return ((hours * 60L + minutes) * 60L + seconds) * 1000L + millis;
+  }
+
+  /**
+   * @return the days since 1970-01-01 of a ddmmyy date (years 2000-2099), or
+   *         {@link #INVALID}.
+   */
+  public static long parseEpochDay(byte[] data, int offset, int length)
+  {
+    if (length != 6)
+      return INVALID;
+    int day = twoDigits(data, offset);
+    int month = twoDigits(data, offset + 2);
+    int year = twoDigits(data, offset + 4);
+    if (day < 1 || day > 31 || month < 1 || month > 12 || year < 0)
+      return INVALID;
+    return toEpochDay(2000 + year, month, day);
+  }
+
+  /**
+   * Days since 1970-01-01 of a proleptic Gregorian date (H. Hinnant's
+   * days_from_civil).
+   */
+  public static long toEpochDay(int year, int month, int day)
+  {
+    int y = (month <= 2) ? year - 1 : year;
+    int era = (y >= 0 ? y : y - 399) / 400;
+    int yearOfEra = y - era * 400;
+    int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+    int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return era * 146097L + dayOfEra - 719468L;
+  }
+
+  private static int twoDigits(byte[] data, int offset)
+  {
+    int tens = data[offset] - '0';
+    int ones = data[offset + 1] - '0';
+    if (tens < 0 || tens > 9 || ones < 0 || ones > 9)
+      return -1;
+    return tens * 10 + ones;
+  }
+}
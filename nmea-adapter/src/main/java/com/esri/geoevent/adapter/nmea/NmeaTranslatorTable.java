@@ -0,0 +1,234 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.adapter.nmea;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Maps the 3-letter sentence formatter of an address field (the "RMC" of
+ * "GPRMC", "GNRMC", "BDRMC", ...) to its translator through a table indexed
+ * by the letters themselves, so dispatching a sentence does not build any
+ * String. The 2-letter talker ID is resolved the same way to a shared String.
+ * Proprietary sentences, whose address starts with 'P' (e.g. "PGRME"), are
+ * looked up by their whole address in a short list instead.
+ */
+public class NmeaTranslatorTable
+{
+  private static final int      LETTERS    = 26;
+  private static final String[] TALKERS    = new String[LETTERS * LETTERS];
+  /** The number of possible 3-letter sentence formatters. */
+  public static final int       FORMATTERS = LETTERS * LETTERS * LETTERS;
+
+  static
+  {
+    for (int i = 0; i < TALKERS.length; i++)
+      TALKERS[i] = new String(new char[] { (char) ('A' + i / LETTERS), (char) ('A' + i % LETTERS) });
+  }
+
+  private final NMEAMessageTranslator[] translators            = new NMEAMessageTranslator[FORMATTERS];
+  private byte[][]                      proprietaryAddresses   = new byte[0][];
+  private NMEAMessageTranslator[]       proprietaryTranslators = new NMEAMessageTranslator[0];
+
+  public void register(String formatter, NMEAMessageTranslator translator)
+  {
+    int key = formatterOf(formatter);
+    if (key < 0)
+      throw new IllegalArgumentException(formatter);
+    translators[key] = translator;
+  }
+
+  /**
+   * Registers the translator of a proprietary address, e.g. "PGRME",
+   * replacing the one already registered for it.
+   */
+  public void registerProprietary(String address, NMEAMessageTranslator translator)
+  {
+    if (address == null || address.length() < 2 || address.charAt(0) != 'P')
+      throw new IllegalArgumentException(address);
+    byte[] bytes = address.getBytes(StandardCharsets.ISO_8859_1);
+    for (int i = 0; i < proprietaryAddresses.length; i++)
+    {
+      if (Arrays.equals(proprietaryAddresses[i], bytes))
+      {
+        proprietaryTranslators[i] = translator;
+        return;
+      }
+    }
+    int size = proprietaryAddresses.length;
+    proprietaryAddresses = Arrays.copyOf(proprietaryAddresses, size + 1);
+    proprietaryTranslators = Arrays.copyOf(proprietaryTranslators, size + 1);
+    proprietaryAddresses[size] = bytes;
+    proprietaryTranslators[size] = translator;
+  }
+
+  public void clear()
+  {
+    Arrays.fill(translators, null);
+    proprietaryAddresses = new byte[0][];
+    proprietaryTranslators = new NMEAMessageTranslator[0];
+  }
+
+  /**
+   * @return the translator for a "ttfff" or proprietary address field, or
+   *         null.
+   */
+  public NMEAMessageTranslator lookup(NmeaSentence sentence)
+  {
+    if (sentence.byteAt(0, 0) == 'P')
+      return lookupProprietary(sentence);
+    if (sentence.getFieldLength(0) != 5)
+      return null;
+    byte[] data = sentence.getData();
+    int offset = sentence.getFieldOffset(0) + 2;
+    int key = key(data[offset], data[offset + 1], data[offset + 2]);
+    return (key >= 0) ? translators[key] : null;
+  }
+
+  private NMEAMessageTranslator lookupProprietary(NmeaSentence sentence)
+  {
+    byte[] data = sentence.getData();
+    int offset = sentence.getFieldOffset(0);
+    int length = sentence.getFieldLength(0);
+    for (int i = 0; i < proprietaryAddresses.length; i++)
+    {
+      byte[] address = proprietaryAddresses[i];
+      if (address.length != length)
+        continue;
+      int j = 0;
+      while (j < length && data[offset + j] == address[j])
+        j++;
+      if (j == length)
+        return proprietaryTranslators[i];
+    }
+    return null;
+  }
+
+  /**
+   * @return the position of a 3-letter formatter, e.g. "RMC", in the
+   *         formatter tables, or -1.
+   */
+  public static int formatterOf(String formatter)
+  {
+    if (formatter == null || formatter.length() != 3)
+      return -1;
+    return key(formatter.charAt(0), formatter.charAt(1), formatter.charAt(2));
+  }
+
+  /**
+   * @return the formatter part of an address key.
+   */
+  public static int formatterOf(int addressKey)
+  {
+    return addressKey % FORMATTERS;
+  }
+
+  /**
+   * @return a number identifying the talker and formatter of the sentence's
+   *         "ttfff" address field, or -1.
+   */
+  public static int addressKeyOf(NmeaSentence sentence)
+  {
+    if (sentence.getFieldLength(0) != 5)
+      return -1;
+    return addressKeyOf(sentence.getData(), sentence.getFieldOffset(0));
+  }
+
+  /**
+   * @return the address key of a framed sentence (without its leading '$'),
+   *         or -1.
+   */
+  public static int addressKeyOf(byte[] message)
+  {
+    if (message.length < 5 || (message.length > 5 && message[5] != ',' && message[5] != '*'))
+      return -1;
+    return addressKeyOf(message, 0);
+  }
+
+  private static int addressKeyOf(byte[] data, int offset)
+  {
+    int first = data[offset] - 'A';
+    int second = data[offset + 1] - 'A';
+    int formatter = key(data[offset + 2], data[offset + 3], data[offset + 4]);
+    if (first < 0 || first >= LETTERS || second < 0 || second >= LETTERS || formatter < 0)
+      return -1;
+    return (first * LETTERS + second) * FORMATTERS + formatter;
+  }
+
+  /**
+   * @return the talker ID of the sentence, e.g. "GP" or "GN", or null.
+   */
+  public static String talkerOf(NmeaSentence sentence)
+  {
+    int index = talkerIndexOf(sentence);
+    return (index < TALKERS.length) ? TALKERS[index] : null;
+  }
+
+  /**
+   * @return the talker ID at a position of the talker table, or null.
+   */
+  public static String talkerOf(int talkerIndex)
+  {
+    return (talkerIndex >= 0 && talkerIndex < TALKERS.length) ? TALKERS[talkerIndex] : null;
+  }
+
+  /**
+   * @return the position of the sentence's talker ID in the talker table, or
+   *         the table size if it has none, as proprietary sentences.
+   */
+  public static int talkerIndexOf(NmeaSentence sentence)
+  {
+    if (sentence.getFieldLength(0) < 2 || sentence.byteAt(0, 0) == 'P')
+      return TALKERS.length;
+    byte[] data = sentence.getData();
+    int offset = sentence.getFieldOffset(0);
+    int first = data[offset] - 'A';
+    int second = data[offset + 1] - 'A';
+    if (first < 0 || first >= LETTERS || second < 0 || second >= LETTERS)
+      return TALKERS.length;
+    return first * LETTERS + second;
+  }
+
+  /**
+   * @return the position of a talker ID String in the talker table, or the
+   *         table size for null.
+   */
+  public static int talkerIndexOf(String talker)
+  {
+    if (talker == null || talker.length() != 2)
+      return TALKERS.length;
+    return (talker.charAt(0) - 'A') * LETTERS + (talker.charAt(1) - 'A');
+  }
+
+  private static int key(int a, int b, int c)
+  {
+    a -= 'A';
+    b -= 'A';
+    c -= 'A';
+    if (a < 0 || a >= LETTERS || b < 0 || b >= LETTERS || c < 0 || c >= LETTERS)
+      return -1;
+    return (a * LETTERS + b) * LETTERS + c;
+  }
+}
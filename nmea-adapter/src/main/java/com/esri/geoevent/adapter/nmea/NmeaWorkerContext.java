@@ -0,0 +1,132 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+package com.esri.geoevent.adapter.nmea;
+
+/**
+ * Scratch objects and pending output owned by one worker. Tasks run by the
+ * worker may use them without synchronization.
+ */
+public class NmeaWorkerContext
+{
+  private final NmeaSentence      sentence = new NmeaSentence();
+  private final NmeaFix           fix      = new NmeaFix(null, null);
+  private final NmeaEventBatcher  batcher;
+  private final NmeaFusion        fusion;
+  private final NmeaDeviceFilter  filter;
+  private final NmeaErrorReporter errorReporter;
+  private int                     backlog;
+
+  /**
+   * @param fusion
+   *          the fusion of the worker's channels, or null if only sentence
+   *          events are produced.
+   * @param filter
+   *          the downsampling of the worker's devices, or null.
+   */
+  public NmeaWorkerContext(NmeaEventBatcher batcher, NmeaFusion fusion, NmeaDeviceFilter filter, NmeaErrorReporter errorReporter)
+  {
+    this.batcher = batcher;
+    this.fusion = fusion;
+    this.filter = filter;
+    this.errorReporter = errorReporter;
+  }
+
+  public NmeaSentence getSentence()
+  {
+    return sentence;
+  }
+
+  /**
+   * @return a scratch fix for the values of one sentence.
+   */
+  public NmeaFix getFix()
+  {
+    return fix;
+  }
+
+  public NmeaEventBatcher getBatcher()
+  {
+    return batcher;
+  }
+
+  public NmeaFusion getFusion()
+  {
+    return fusion;
+  }
+
+  public NmeaDeviceFilter getFilter()
+  {
+    return filter;
+  }
+
+  public NmeaErrorReporter getErrorReporter()
+  {
+    return errorReporter;
+  }
+
+  /**
+   * @return the number of tasks queued behind the running one when it was
+   *         taken from the worker's queue.
+   */
+  public int getBacklog()
+  {
+    return backlog;
+  }
+
+  public void setBacklog(int backlog)
+  {
+    this.backlog = backlog;
+  }
+
+  /**
+   * @return the time (in milliseconds) at which {@link #onTimer(long)} must be
+   *         called, or Long.MAX_VALUE.
+   */
+  public long getDeadline()
+  {
+    long deadline = Math.min(batcher.getDeadline(), errorReporter.getDeadline());
+    return (fusion != null) ? Math.min(deadline, fusion.getDeadline()) : deadline;
+  }
+
+  public void onTimer(long now)
+  {
+    // expired epochs go to the batcher first so they are not held back
+    if (fusion != null)
+      fusion.onTimer(now);
+    if (now >= batcher.getDeadline())
+      batcher.flush();
+    errorReporter.onTimer(now);
+  }
+
+  /**
+   * Emits everything still pending, called when the worker stops.
+   */
+  public void close()
+  {
+    if (fusion != null)
+      fusion.close();
+    batcher.flush();
+    errorReporter.close();
+  }
+}
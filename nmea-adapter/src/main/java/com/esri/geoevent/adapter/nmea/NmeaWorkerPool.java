@@ -0,0 +1,503 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+package com.esri.geoevent.adapter.nmea;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+
+/**
+ * Workers, each draining its own bounded queue, so the messages of a channel
+ * are always processed in the order they were received. Each worker owns a
+ * {@link NmeaWorkerContext}, which it wakes up at the context's deadline and
+ * closes when it stops.
+ * <p>
+ * With {@link ExecutionMode#PLATFORM} a fixed set of platform threads is
+ * started and every channel is pinned to one of them. With
+ * {@link ExecutionMode#VIRTUAL} every channel gets its own worker on a virtual
+ * thread, started on its first message and retired once the channel has been
+ * idle for a while; a semaphore limits how many of them run at once.
+ */
+public class NmeaWorkerPool
+{
+  private static final BundleLogger LOGGER = BundleLoggerFactory.getLogger(NmeaWorkerPool.class);
+
+  public enum OverflowPolicy
+  {
+    /** Block the receiving (transport) thread until the worker catches up. */
+    BLOCK,
+    /** Discard the task that could not be queued. */
+    DROP_NEWEST,
+    /** Discard the oldest queued task of the worker to make room. */
+    DROP_OLDEST
+  }
+
+  public enum ExecutionMode
+  {
+    /** A fixed number of platform threads shared by all channels. */
+    PLATFORM,
+    /**
+     * A virtual thread per channel (Java 21 or later), falling back to
+     * PLATFORM on older runtimes.
+     */
+    VIRTUAL
+  }
+
+  private static final long                   SHUTDOWN_TIMEOUT = 5000L;
+  // time after which the virtual worker of a quiet channel is retired
+  private static final long                   IDLE_TIMEOUT     = 60000L;
+  // queued behind the remaining tasks of a worker to stop it
+  private static final NmeaWorkerTask         STOP             = context -> {};
+
+  private final int                           queueCapacity;
+  private final OverflowPolicy                overflowPolicy;
+  private final Supplier<NmeaWorkerContext>   contextFactory;
+  private final ExecutionMode                 executionMode;
+  // PLATFORM: the workers the channels are pinned to
+  private final Worker[]                      workers;
+  // VIRTUAL: the worker of each active channel, and the thread factory and
+  // concurrency limit they share
+  private final ConcurrentMap<String, Worker> channelWorkers   = new ConcurrentHashMap<String, Worker>();
+  private final ThreadFactory                 virtualThreads;
+  private final Semaphore                     concurrency;
+  private final AtomicLong                    dropped          = new AtomicLong();
+  private volatile boolean                    running          = true;
+
+  public NmeaWorkerPool(String name, int workerCount, int queueCapacity, OverflowPolicy overflowPolicy, Supplier<NmeaWorkerContext> contextFactory)
+  {
+    this(name, workerCount, queueCapacity, overflowPolicy, ExecutionMode.PLATFORM, contextFactory);
+  }
+
+  /**
+   * @param workerCount
+   *          the number of platform threads, or with VIRTUAL the number of
+   *          channels processed at once. 0 uses the number of available
+   *          processors.
+   */
+  public NmeaWorkerPool(String name, int workerCount, int queueCapacity, OverflowPolicy overflowPolicy, ExecutionMode executionMode, Supplier<NmeaWorkerContext> contextFactory)
+  {
+    if (workerCount <= 0)
+      workerCount = Runtime.getRuntime().availableProcessors();
+    if (queueCapacity <= 0)
+      queueCapacity = 1;
+    this.queueCapacity = queueCapacity;
+    this.overflowPolicy = (overflowPolicy != null) ? overflowPolicy : OverflowPolicy.BLOCK;
+    this.contextFactory = contextFactory;
+
+    ThreadFactory factory = null;
+    if (executionMode == ExecutionMode.VIRTUAL)
+    {
+      factory = createVirtualThreadFactory(name + "-channel-");
+      if (factory == null)
+        LOGGER.warn("VIRTUAL_THREADS_UNAVAILABLE", System.getProperty("java.version"), workerCount);
+    }
+    this.virtualThreads = factory;
+    this.executionMode = (factory != null) ? ExecutionMode.VIRTUAL : ExecutionMode.PLATFORM;
+    if (this.executionMode == ExecutionMode.VIRTUAL)
+    {
+      workers = null;
+      concurrency = new Semaphore(workerCount);
+    }
+    else
+    {
+      concurrency = null;
+      workers = new Worker[workerCount];
+      for (int i = 0; i < workerCount; i++)
+      {
+        workers[i] = new Worker(null, contextFactory.get());
+        Thread thread = new Thread(workers[i], name + "-worker-" + i);
+        thread.setDaemon(true);
+        workers[i].start(thread);
+      }
+    }
+    LOGGER.trace("Started {0} pool of {1} workers with queue capacity {2} and overflow policy {3}", this.executionMode, workerCount, queueCapacity, this.overflowPolicy);
+  }
+
+  /**
+   * @return a factory of virtual threads, or null if the runtime has none.
+   *         Looked up reflectively so the adapter still runs on Java 8.
+   */
+  static ThreadFactory createVirtualThreadFactory(String prefix)
+  {
+    try
+    {
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+      return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    }
+    catch (ReflectiveOperationException | RuntimeException e)
+    {
+      // before Java 21, or a preview feature that is not enabled
+      return null;
+    }
+  }
+
+  /**
+   * Queues a task on the worker owning the channel.
+   *
+   * @return false if the task (or an older one, with DROP_OLDEST) was
+   *         discarded or the pool is shut down.
+   */
+  public boolean submit(String channelId, NmeaWorkerTask task)
+  {
+    if (!running)
+      return false;
+    if (workers != null)
+      return offer(workers[indexOf(channelId)].queue, channelId, task);
+
+    while (running)
+    {
+      Worker worker = channelWorkers.get(channelId);
+      if (worker == null)
+        worker = startChannelWorker(channelId);
+      // the lock keeps the worker from retiring while the task is queued
+      worker.lock.lock();
+      try
+      {
+        if (!worker.retired)
+          return offer(worker.queue, channelId, task);
+      }
+      finally
+      {
+        worker.lock.unlock();
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Queues a housekeeping task on the worker owning the channel, without
+   * waiting and without counting it as dropped if the queue is full. With
+   * VIRTUAL, a channel without worker has no state in any worker context, so
+   * instead of starting a worker the task is run on the calling thread, with
+   * a null context.
+   *
+   * @return false if the task was not queued or run.
+   */
+  public boolean offer(String channelId, NmeaWorkerTask task)
+  {
+    if (!running)
+      return false;
+    if (workers != null)
+      return workers[indexOf(channelId)].queue.offer(task);
+
+    Worker worker = channelWorkers.get(channelId);
+    if (worker != null)
+    {
+      worker.lock.lock();
+      try
+      {
+        if (!worker.retired)
+          return worker.queue.offer(task);
+      }
+      finally
+      {
+        worker.lock.unlock();
+      }
+    }
+    task.run(null);
+    return true;
+  }
+
+  private boolean offer(BlockingQueue<NmeaWorkerTask> queue, String channelId, NmeaWorkerTask task)
+  {
+    switch (overflowPolicy)
+    {
+      case DROP_NEWEST:
+        if (queue.offer(task))
+          return true;
+        onDropped(channelId);
+        return false;
+
+      case DROP_OLDEST:
+        boolean displaced = false;
+        while (!queue.offer(task))
+        {
+          if (queue.poll() != null)
+            displaced = true;
+        }
+        if (displaced)
+          onDropped(channelId);
+        return !displaced;
+
+      default:
+        try
+        {
+          queue.put(task);
+          return true;
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+    }
+  }
+
+  private Worker startChannelWorker(String channelId)
+  {
+    Worker worker = new Worker(channelId, contextFactory.get());
+    Worker existing = channelWorkers.putIfAbsent(channelId, worker);
+    if (existing != null)
+    {
+      // another thread started one first; the unused context has nothing
+      // pending
+      return existing;
+    }
+    worker.start(virtualThreads.newThread(worker));
+    return worker;
+  }
+
+  public long getDroppedCount()
+  {
+    return dropped.get();
+  }
+
+  public int getQueueDepth()
+  {
+    int depth = 0;
+    for (Worker worker : getWorkers())
+      depth += worker.queue.size();
+    return depth;
+  }
+
+  /**
+   * @return the number of workers, i.e. of active channels with VIRTUAL.
+   */
+  public int getWorkerCount()
+  {
+    return (workers != null) ? workers.length : channelWorkers.size();
+  }
+
+  public ExecutionMode getExecutionMode()
+  {
+    return executionMode;
+  }
+
+  /**
+   * Stops taking tasks and lets the workers process the queued ones and emit
+   * their pending events, for a few seconds. The workers still busy then are
+   * interrupted, and the tasks left in the queues are counted as dropped.
+   */
+  public void shutdown()
+  {
+    running = false;
+    List<Worker> stopping = getWorkers();
+    long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT;
+    try
+    {
+      for (Worker worker : stopping)
+      {
+        long wait = deadline - System.currentTimeMillis();
+        if (wait <= 0 || !worker.queue.offer(STOP, wait, TimeUnit.MILLISECONDS))
+          break;
+      }
+      for (Worker worker : stopping)
+      {
+        Thread thread = worker.thread;
+        long wait = deadline - System.currentTimeMillis();
+        if (wait > 0 && thread != null && thread != Thread.currentThread())
+          thread.join(wait);
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+    long discarded = 0;
+    for (Worker worker : stopping)
+    {
+      Thread thread = worker.thread;
+      if (thread != null && thread.isAlive() && thread != Thread.currentThread())
+        thread.interrupt();
+      List<NmeaWorkerTask> left = new ArrayList<NmeaWorkerTask>();
+      worker.queue.drainTo(left);
+      for (NmeaWorkerTask task : left)
+      {
+        if (task != STOP)
+          discarded++;
+      }
+    }
+    if (discarded > 0)
+    {
+      dropped.addAndGet(discarded);
+      LOGGER.warn("SHUTDOWN_DISCARDED", discarded);
+    }
+  }
+
+  private List<Worker> getWorkers()
+  {
+    List<Worker> result = new ArrayList<Worker>();
+    if (workers != null)
+    {
+      for (Worker worker : workers)
+        result.add(worker);
+    }
+    else
+      result.addAll(channelWorkers.values());
+    return result;
+  }
+
+  private int indexOf(String channelId)
+  {
+    int h = (channelId != null) ? channelId.hashCode() : 0;
+    return Math.floorMod(h ^ (h >>> 16), workers.length);
+  }
+
+  private void onDropped(String channelId)
+  {
+    // log the first drop and then every 10000th so an overloaded pool does
+    // not also flood the log
+    if (dropped.getAndIncrement() % 10000 == 0)
+      LOGGER.warn("QUEUE_FULL_DROPPING", channelId, overflowPolicy, dropped.get());
+  }
+
+  private class Worker implements Runnable
+  {
+    private final BlockingQueue<NmeaWorkerTask> queue;
+    private final NmeaWorkerContext             context;
+    // VIRTUAL: the channel served by the worker, and whether it has retired
+    // (guarded by the lock)
+    private final String                        channelId;
+    private final ReentrantLock                 lock = new ReentrantLock();
+    private boolean                             retired;
+    private volatile Thread                     thread;
+
+    Worker(String channelId, NmeaWorkerContext context)
+    {
+      this.queue = new ArrayBlockingQueue<NmeaWorkerTask>(queueCapacity);
+      this.context = context;
+      this.channelId = channelId;
+    }
+
+    void start(Thread thread)
+    {
+      this.thread = thread;
+      thread.start();
+    }
+
+    @Override
+    public void run()
+    {
+      try
+      {
+        // runs until the STOP queued by shutdown() is reached
+        while (true)
+        {
+          try
+          {
+            NmeaWorkerTask task;
+            long deadline = context.getDeadline();
+            if (deadline != Long.MAX_VALUE)
+              task = queue.poll(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            else if (concurrency == null)
+              task = queue.take();
+            else
+            {
+              task = queue.poll(IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+              if (task == null && retire())
+                return;
+            }
+            if (task == STOP)
+              return;
+            if (concurrency != null)
+              concurrency.acquire();
+            try
+            {
+              if (task != null)
+              {
+                context.setBacklog(queue.size());
+                task.run(context);
+              }
+              context.onTimer(System.currentTimeMillis());
+            }
+            finally
+            {
+              if (concurrency != null)
+                concurrency.release();
+            }
+          }
+          catch (InterruptedException e)
+          {
+            return;
+          }
+          catch (Throwable error)
+          {
+            LOGGER.debug(error.getMessage(), error);
+          }
+        }
+      }
+      finally
+      {
+        // clear the interrupt so the pending events can still be emitted
+        Thread.interrupted();
+        try
+        {
+          context.close();
+        }
+        catch (Throwable error)
+        {
+          LOGGER.debug(error.getMessage(), error);
+        }
+      }
+    }
+
+    /**
+     * @return true if the worker of an idle channel was removed from the pool.
+     *         A later message of the channel starts a new worker.
+     */
+    private boolean retire()
+    {
+      // never wait for the lock: a submitter holding it may be blocked on the
+      // full queue this worker has to drain
+      if (!lock.tryLock())
+        return false;
+      try
+      {
+        if (!queue.isEmpty())
+          return false;
+        retired = true;
+        channelWorkers.remove(channelId, this);
+        return true;
+      }
+      finally
+      {
+        lock.unlock();
+      }
+    }
+  }
+}
@@ -0,0 +1,658 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.transport.nmea;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.esri.geoevent.adapter.nmea.NmeaByteListener;
+
+import com.esri.ges.core.component.ComponentException;
+import com.esri.ges.core.component.RunningState;
+import com.esri.ges.core.validation.ValidationException;
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+import com.esri.ges.transport.InboundTransportBase;
+import com.esri.ges.transport.TransportDefinition;
+
+/**
+ * Replays recorded NMEA log files, a file or every file of a directory in name
+ * order. Files are memory-mapped a region at a time and passed on as views of
+ * the mapping, cut at line ends, so sentences are framed in place by the
+ * adapter without being copied or decoded here.
+ * <p>
+ * At speed 0 the files are replayed as fast as the adapter takes them (its
+ * BLOCK overflow policy pushes back on the replay thread). Otherwise the
+ * replay follows the times of day of the RMC, GGA, GLL, GNS and ZDA sentences,
+ * real time at speed 1 and N times faster at speed N; the sentences in
+ * between are sent with the time before them. All files are replayed by one
+ * thread on one channel, so the order of every device's sentences is kept.
+ * <p>
+ * The position reached (file and byte offset) is written to the checkpoint
+ * file, if any, every few seconds and when the replay stops, and a replay
+ * started again resumes from it. With the NMEA adapter, only the bytes its
+ * workers have processed count as reached, so the bytes still queued when the
+ * replay stops are replayed again on resume. Without a checkpoint, the replay of the
+ * first file starts at the configured byte offset.
+ */
+public class NmeaFileReplayInboundTransport extends InboundTransportBase implements Runnable
+{
+  private static final BundleLogger LOGGER              = BundleLoggerFactory.getLogger(NmeaFileReplayInboundTransport.class);
+  // mapped at a time, so files above 2 GB can be replayed
+  private static final long         REGION_SIZE         = 1L << 28;
+  // passed on at a time, cut at the last line end
+  private static final int          CHUNK_SIZE          = 65536;
+  private static final long         CHECKPOINT_INTERVAL = 5000L;
+  private static final long         DAY                 = 86400000L;
+  private static final long         STOP_TIMEOUT        = 5000L;
+
+  private String                    path                = "";
+  private String                    channelId           = "";
+  private double                    speed;
+  private long                      startOffset;
+  private String                    checkpointFile      = "";
+  private volatile boolean          running;
+  private Thread                    thread;
+  // position the listener has processed the files up to, acknowledged from
+  // its worker threads
+  private final AtomicReference<ReplayPosition> processed = new AtomicReference<ReplayPosition>();
+  // position passed on to the listener up to
+  private ReplayPosition            sent;
+  private long                      checkpointTime;
+  // pacing: the first time of day seen, when it was sent, and the days
+  // crossed since
+  private long                      firstTimeOfDay      = -1;
+  private long                      firstSentNanos;
+  private long                      lastTimeOfDay;
+  private long                      dayOffset;
+
+  public NmeaFileReplayInboundTransport(TransportDefinition definition) throws ComponentException
+  {
+    super(definition);
+  }
+
+  @Override
+  public void afterPropertiesSet()
+  {
+    super.afterPropertiesSet();
+    path = getStringProperty("path");
+    channelId = getStringProperty("channelId");
+    speed = getDoubleProperty("speed", 0);
+    startOffset = getLongProperty("startOffset", 0);
+    checkpointFile = getStringProperty("checkpointFile");
+  }
+
+  @Override
+  public void validate() throws ValidationException
+  {
+    super.validate();
+    if (path.isEmpty() || !Files.exists(Paths.get(path)))
+      throw new ValidationException(LOGGER.translate("REPLAY_INVALID_PATH", path));
+    if (speed < 0 || Double.isNaN(speed))
+      throw new ValidationException(LOGGER.translate("REPLAY_INVALID_SPEED", speed));
+    if (startOffset < 0)
+      throw new ValidationException(LOGGER.translate("REPLAY_INVALID_OFFSET", startOffset));
+  }
+
+  @Override
+  public synchronized void start()
+  {
+    switch (getRunningState())
+    {
+      case STARTING:
+      case STARTED:
+      case STOPPING:
+        return;
+      default:
+        break;
+    }
+    setRunningState(RunningState.STARTING);
+    running = true;
+    thread = new Thread(this, "nmea-replay-" + Paths.get(path).getFileName());
+    thread.setDaemon(true);
+    thread.start();
+    setErrorMessage(null);
+    setRunningState(RunningState.STARTED);
+  }
+
+  /**
+   * Stops the replay and waits for its last checkpoint, outside the monitor
+   * so the replay thread can still change the running state meanwhile.
+   */
+  @Override
+  public void stop()
+  {
+    Thread stopping;
+    synchronized (this)
+    {
+      if (getRunningState() == RunningState.STOPPED || getRunningState() == RunningState.STOPPING)
+        return;
+      setRunningState(RunningState.STOPPING);
+      running = false;
+      stopping = thread;
+      thread = null;
+    }
+    if (stopping != null && stopping != Thread.currentThread())
+    {
+      // ends a pacing sleep
+      stopping.interrupt();
+      try
+      {
+        // the replay thread waits for the bytes sent to be processed too
+        stopping.join(2 * STOP_TIMEOUT);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+    }
+    synchronized (this)
+    {
+      if (getRunningState() == RunningState.STOPPING)
+        setRunningState(RunningState.STOPPED);
+    }
+  }
+
+  @Override
+  public void shutdown()
+  {
+    stop();
+    super.shutdown();
+  }
+
+  @Override
+  public void run()
+  {
+    boolean finished = false;
+    String error = null;
+    try
+    {
+      List<Path> files = getFiles();
+      int first = 0;
+      long offset = startOffset;
+      Properties checkpoint = readCheckpoint();
+      if (checkpoint != null)
+      {
+        // skip the files replayed before the checkpoint
+        Path resumeFile = Paths.get(checkpoint.getProperty("file")).toAbsolutePath();
+        first = -1;
+        for (int i = 0; i < files.size() && first < 0; i++)
+        {
+          if (files.get(i).toAbsolutePath().equals(resumeFile))
+            first = i;
+        }
+        if (first >= 0)
+        {
+          offset = Long.parseLong(checkpoint.getProperty("offset"));
+          LOGGER.info("REPLAY_RESUMING", resumeFile, offset);
+        }
+        else
+        {
+          LOGGER.warn("REPLAY_INVALID_CHECKPOINT", checkpointFile);
+          first = 0;
+        }
+      }
+      firstTimeOfDay = -1;
+      sent = null;
+      processed.set(files.isEmpty() ? null : new ReplayPosition(first, files.get(first), offset));
+      for (int i = first; i < files.size() && running; i++)
+        replay(i, files.get(i), (i == first) ? offset : 0);
+      finished = running;
+    }
+    catch (IOException | RuntimeException e)
+    {
+      LOGGER.error("REPLAY_FAILED", path, e.getMessage());
+      LOGGER.debug(e.getMessage(), e);
+      error = e.getMessage();
+    }
+    finally
+    {
+      awaitProcessed();
+      writeCheckpoint();
+    }
+    // the state changes once the last checkpoint is written, so a replay
+    // started again resumes from it
+    if (finished)
+      LOGGER.info("REPLAY_FINISHED", path);
+    synchronized (this)
+    {
+      if (finished || error != null)
+      {
+        running = false;
+        if (error != null)
+          setErrorMessage(LOGGER.translate("REPLAY_FAILED", path, error));
+        // unless stop() was called meanwhile
+        if (getRunningState() == RunningState.STARTED)
+          setRunningState((error != null) ? RunningState.ERROR : RunningState.STOPPED);
+      }
+    }
+  }
+
+  /**
+   * Maps the file a region at a time, each region starting at a line start.
+   */
+  private void replay(int fileIndex, Path file, long offset) throws IOException
+  {
+    // one channel for all the files, so rotated logs are processed in order
+    // by one worker and the state of their devices carries over
+    String channel = channelId.isEmpty() ? path : channelId;
+    long startNanos = System.nanoTime();
+    try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ))
+    {
+      long size = fileChannel.size();
+      long position = Math.min(offset, size);
+      while (position < size && running)
+      {
+        long regionSize = Math.min(REGION_SIZE, size - position);
+        MappedByteBuffer region = fileChannel.map(FileChannel.MapMode.READ_ONLY, position, regionSize);
+        boolean last = (position + regionSize == size);
+        int end = last ? (int) regionSize : lastLineEnd(region, 0, (int) regionSize);
+        // a region without any line end is passed on as is
+        if (end == 0)
+          end = (int) regionSize;
+        replay(region, end, fileIndex, file, position, channel);
+        position += end;
+      }
+      LOGGER.info("REPLAY_FILE_DONE", file, position - offset, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos));
+    }
+  }
+
+  /**
+   * Passes the first <code>end</code> bytes of the region on in chunks cut at
+   * line ends, and at the sentences whose time is still to come when pacing.
+   */
+  private void replay(ByteBuffer region, int end, int fileIndex, Path file, long regionPosition, String channel)
+  {
+    ByteBuffer view = region.duplicate();
+    int chunkStart = 0;
+    int lineStart = 0;
+    while (chunkStart < end && running)
+    {
+      int chunkEnd;
+      if (speed == 0)
+      {
+        chunkEnd = (end - chunkStart > CHUNK_SIZE) ? lastLineEnd(region, chunkStart, chunkStart + CHUNK_SIZE) : end;
+        if (chunkEnd == chunkStart)
+          chunkEnd = Math.min(end, chunkStart + CHUNK_SIZE);
+      }
+      else
+      {
+        // lines up to the next one with a time to wait for
+        chunkEnd = chunkStart;
+        long waitNanos = 0;
+        while (lineStart < end && chunkEnd - chunkStart < CHUNK_SIZE)
+        {
+          int lineEnd = nextLineEnd(region, lineStart, end);
+          waitNanos = waitNanos(timeOfDay(region, lineStart, lineEnd));
+          if (waitNanos > 0)
+            break;
+          lineStart = lineEnd;
+          chunkEnd = lineEnd;
+        }
+        if (chunkEnd == chunkStart && waitNanos > 0)
+        {
+          pause(waitNanos);
+          continue;
+        }
+      }
+      if (chunkEnd > chunkStart)
+      {
+        view.limit(chunkEnd);
+        view.position(chunkStart);
+        send(view, channel, new ReplayPosition(fileIndex, file, regionPosition + chunkEnd));
+      }
+      chunkStart = chunkEnd;
+      lineStart = Math.max(lineStart, chunkEnd);
+      long now = System.currentTimeMillis();
+      if (now - checkpointTime >= CHECKPOINT_INTERVAL)
+      {
+        checkpointTime = now;
+        writeCheckpoint();
+      }
+    }
+  }
+
+  /**
+   * Passes the bytes on, and moves the processed position to the end of them
+   * once the listener has processed them.
+   */
+  private void send(ByteBuffer bytes, String channel, ReplayPosition end)
+  {
+    if (byteListener instanceof NmeaByteListener)
+    {
+      // bytes dropped (e.g. by an interrupted stop) are not waited for
+      if (((NmeaByteListener) byteListener).receive(bytes, channel, () -> processed.accumulateAndGet(end, ReplayPosition::later)))
+        sent = end;
+    }
+    else
+    {
+      // other listeners process the bytes before returning or not at all
+      receive(bytes, channel);
+      processed.accumulateAndGet(end, ReplayPosition::later);
+    }
+  }
+
+  /**
+   * Waits, up to the stop timeout, for the listener to process the bytes sent.
+   */
+  private void awaitProcessed()
+  {
+    boolean interrupted = Thread.interrupted();
+    long deadline = System.currentTimeMillis() + STOP_TIMEOUT;
+    while (!ReplayPosition.reached(processed.get(), sent) && System.currentTimeMillis() < deadline)
+    {
+      try
+      {
+        Thread.sleep(10);
+      }
+      catch (InterruptedException e)
+      {
+        interrupted = true;
+      }
+    }
+    ReplayPosition reached = processed.get();
+    if (!ReplayPosition.reached(reached, sent))
+      LOGGER.warn("REPLAY_UNPROCESSED", path, (reached != null) ? reached.file : "", (reached != null) ? reached.offset : 0);
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  }
+
+  /**
+   * @return how long to wait before sending a sentence of the time of day,
+   *         0 if it is due or has no time.
+   */
+  private long waitNanos(long timeOfDay)
+  {
+    if (timeOfDay < 0)
+      return 0;
+    if (firstTimeOfDay < 0)
+    {
+      firstTimeOfDay = timeOfDay;
+      firstSentNanos = System.nanoTime();
+      lastTimeOfDay = timeOfDay;
+      dayOffset = 0;
+      return 0;
+    }
+    // a time more than 12 hours earlier crossed midnight
+    if (timeOfDay < lastTimeOfDay - DAY / 2)
+      dayOffset += DAY;
+    lastTimeOfDay = timeOfDay;
+    long elapsedMillis = dayOffset + timeOfDay - firstTimeOfDay;
+    long dueNanos = firstSentNanos + (long) (TimeUnit.MILLISECONDS.toNanos(elapsedMillis) / speed);
+    return Math.max(0, dueNanos - System.nanoTime());
+  }
+
+  private void pause(long nanos)
+  {
+    try
+    {
+      TimeUnit.NANOSECONDS.sleep(nanos);
+    }
+    catch (InterruptedException e)
+    {
+      // stopped
+      running = false;
+    }
+  }
+
+  /**
+   * @return the time of day (in milliseconds) of an RMC, GGA, GLL, GNS or ZDA
+   *         sentence, or -1.
+   */
+  static long timeOfDay(ByteBuffer buffer, int start, int end)
+  {
+    int address = start;
+    while (address < end && buffer.get(address) != '$')
+      address++;
+    address++;
+    if (end - address < 7 || buffer.get(address + 5) != ',')
+      return -1;
+    int a = buffer.get(address + 2);
+    int b = buffer.get(address + 3);
+    int c = buffer.get(address + 4);
+    int timeField;
+    if ((a == 'R' && b == 'M' && c == 'C') || (a == 'G' && b == 'G' && c == 'A') || (a == 'G' && b == 'N' && c == 'S') || (a == 'Z' && b == 'D' && c == 'A'))
+      timeField = 1;
+    else if (a == 'G' && b == 'L' && c == 'L')
+      timeField = 5;
+    else
+      return -1;
+    int i = address + 5;
+    for (int field = 0; field < timeField; i++)
+    {
+      if (i >= end)
+        return -1;
+      if (buffer.get(i) == ',')
+        field++;
+    }
+    int hours = twoDigits(buffer, i, end);
+    int minutes = twoDigits(buffer, i + 2, end);
+    int seconds = twoDigits(buffer, i + 4, end);
+    if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59 || seconds < 0 || seconds > 60)
+      return -1;
+    long millis = ((hours * 60 + minutes) * 60 + seconds) * 1000L;
+    i += 6;
+    if (i < end && buffer.get(i) == '.')
+    {
+      long scale = 100;
+      for (i++; i < end && scale > 0; i++, scale /= 10)
+      {
+        int digit = buffer.get(i) - '0';
+        if (digit < 0 || digit > 9)
+          break;
+        millis += digit * scale;
+      }
+    }
+    return millis;
+  }
+
+  /**
+   * @return the 2-digit number at <code>index</code>, or -1.
+   */
+  private static int twoDigits(ByteBuffer buffer, int index, int end)
+  {
+    if (index + 2 > end)
+      return -1;
+    int tens = buffer.get(index) - '0';
+    int ones = buffer.get(index + 1) - '0';
+    return (tens >= 0 && tens <= 9 && ones >= 0 && ones <= 9) ? tens * 10 + ones : -1;
+  }
+
+  /**
+   * @return the position after the last '\n' in [start, end), or start.
+   */
+  private static int lastLineEnd(ByteBuffer buffer, int start, int end)
+  {
+    for (int i = end - 1; i >= start; i--)
+    {
+      if (buffer.get(i) == '\n')
+        return i + 1;
+    }
+    return start;
+  }
+
+  /**
+   * @return the position after the next '\n' from start, or end.
+   */
+  private static int nextLineEnd(ByteBuffer buffer, int start, int end)
+  {
+    for (int i = start; i < end; i++)
+    {
+      if (buffer.get(i) == '\n')
+        return i + 1;
+    }
+    return end;
+  }
+
+  private List<Path> getFiles() throws IOException
+  {
+    Path root = Paths.get(path);
+    if (!Files.isDirectory(root))
+      return Collections.singletonList(root);
+    List<Path> files = new ArrayList<Path>();
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(root))
+    {
+      for (Path entry : entries)
+      {
+        if (Files.isRegularFile(entry))
+          files.add(entry);
+      }
+    }
+    Collections.sort(files);
+    return files;
+  }
+
+  private Properties readCheckpoint()
+  {
+    if (checkpointFile.isEmpty() || !Files.exists(Paths.get(checkpointFile)))
+      return null;
+    Properties checkpoint = new Properties();
+    try (InputStream in = Files.newInputStream(Paths.get(checkpointFile)))
+    {
+      checkpoint.load(in);
+      Long.parseLong(checkpoint.getProperty("offset"));
+      if (checkpoint.getProperty("file") != null)
+        return checkpoint;
+    }
+    catch (IOException | RuntimeException e)
+    {
+      LOGGER.debug(e.getMessage(), e);
+    }
+    LOGGER.warn("REPLAY_INVALID_CHECKPOINT", checkpointFile);
+    return null;
+  }
+
+  /**
+   * Records the position reached, through a temporary file moved into place
+   * so a crash does not leave a partial checkpoint.
+   */
+  private void writeCheckpoint()
+  {
+    ReplayPosition position = processed.get();
+    if (checkpointFile.isEmpty() || position == null)
+      return;
+    Properties checkpoint = new Properties();
+    checkpoint.setProperty("file", position.file.toAbsolutePath().toString());
+    checkpoint.setProperty("offset", Long.toString(position.offset));
+    Path target = Paths.get(checkpointFile);
+    Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+    try
+    {
+      try (OutputStream out = Files.newOutputStream(temporary))
+      {
+        checkpoint.store(out, null);
+      }
+      Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (IOException e)
+    {
+      LOGGER.warn("REPLAY_CHECKPOINT_FAILED", checkpointFile, e.getMessage());
+    }
+  }
+
+  /**
+   * A file and the byte offset in it.
+   */
+  private static final class ReplayPosition
+  {
+    private final int  fileIndex;
+    private final Path file;
+    private final long offset;
+
+    ReplayPosition(int fileIndex, Path file, long offset)
+    {
+      this.fileIndex = fileIndex;
+      this.file = file;
+      this.offset = offset;
+    }
+
+    static ReplayPosition later(ReplayPosition a, ReplayPosition b)
+    {
+      if (a == null)
+        return b;
+      if (a.fileIndex != b.fileIndex)
+        return (a.fileIndex > b.fileIndex) ? a : b;
+      return (a.offset >= b.offset) ? a : b;
+    }
+
+    /**
+     * @return true if <code>position</code> is at or after <code>target</code>
+     *         (or there is no target).
+     */
+    static boolean reached(ReplayPosition position, ReplayPosition target)
+    {
+      return target == null || later(position, target) == position;
+    }
+  }
+
+  private String getStringProperty(String name)
+  {
+    return (hasProperty(name) && getProperty(name).getValue() != null) ? getProperty(name).getValueAsString().trim() : "";
+  }
+
+  private long getLongProperty(String name, long defaultValue)
+  {
+    try
+    {
+      if (hasProperty(name))
+        return Long.parseLong(getProperty(name).getValueAsString().trim());
+    }
+    catch (Exception e)
+    {
+      LOGGER.warn("INVALID_PROPERTY_VALUE", name, defaultValue);
+    }
+    return defaultValue;
+  }
+
+  private double getDoubleProperty(String name, double defaultValue)
+  {
+    try
+    {
+      if (hasProperty(name))
+        return Double.parseDouble(getProperty(name).getValueAsString().trim());
+    }
+    catch (Exception e)
+    {
+      LOGGER.warn("INVALID_PROPERTY_VALUE", name, defaultValue);
+    }
+    return defaultValue;
+  }
+}
@@ -0,0 +1,404 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.transport.nmea;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.esri.ges.core.component.ComponentException;
+import com.esri.ges.core.component.RunningState;
+import com.esri.ges.core.validation.ValidationException;
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+import com.esri.ges.transport.InboundTransportBase;
+import com.esri.ges.transport.TransportDefinition;
+
+/**
+ * Receives NMEA 0183 sentences sent over UDP, to a unicast or broadcast
+ * address or to multicast groups such as the IEC 61162-450 ones. Each
+ * datagram is passed on as one buffer, on a channel named after its sender's
+ * address, so the adapter can frame it as a complete datagram.
+ * <p>
+ * The receiving thread reads every datagram into the same direct buffer and
+ * hands it to the adapter without copying it: the adapter frames the buffer
+ * before receive() returns and does not keep it.
+ */
+public class NmeaUdpInboundTransport extends InboundTransportBase implements Runnable
+{
+  private static final BundleLogger LOGGER          = BundleLoggerFactory.getLogger(NmeaUdpInboundTransport.class);
+  // largest UDP payload over IPv4
+  private static final int          MAX_DATAGRAM    = 65507;
+  // channel IDs kept for that many senders before the cache starts over
+  private static final int          MAX_SENDERS     = 4096;
+  private static final long         STOP_TIMEOUT    = 5000L;
+
+  private int                       port            = 10110;
+  private String                    bindAddress     = "";
+  private String                    multicastGroups = "";
+  private String                    interfaces      = "";
+  private int                       receiveBufferSize;
+  private DatagramChannel           channel;
+  private Thread                    thread;
+
+  public NmeaUdpInboundTransport(TransportDefinition definition) throws ComponentException
+  {
+    super(definition);
+  }
+
+  @Override
+  public void afterPropertiesSet()
+  {
+    super.afterPropertiesSet();
+    port = getIntProperty("port", 10110);
+    bindAddress = getStringProperty("bindAddress");
+    multicastGroups = getStringProperty("multicastGroups");
+    interfaces = getStringProperty("interfaces");
+    receiveBufferSize = Math.max(0, getIntProperty("receiveBufferSize", 4194304));
+  }
+
+  @Override
+  public void validate() throws ValidationException
+  {
+    super.validate();
+    if (port < 1 || port > 65535)
+      throw new ValidationException(LOGGER.translate("UDP_INVALID_PORT", port));
+    getNetworkInterfaces(getMulticastGroups());
+  }
+
+  @Override
+  public synchronized void start()
+  {
+    switch (getRunningState())
+    {
+      case STARTING:
+      case STARTED:
+      case STOPPING:
+        return;
+      default:
+        break;
+    }
+    setRunningState(RunningState.STARTING);
+    try
+    {
+      channel = open();
+    }
+    catch (Exception e)
+    {
+      LOGGER.error("UDP_START_FAILED", port, e.getMessage());
+      closeChannel();
+      setErrorMessage(LOGGER.translate("UDP_START_FAILED", port, e.getMessage()));
+      setRunningState(RunningState.ERROR);
+      return;
+    }
+    thread = new Thread(this, "nmea-udp-" + port);
+    thread.setDaemon(true);
+    thread.start();
+    setErrorMessage(null);
+    setRunningState(RunningState.STARTED);
+  }
+
+  @Override
+  public void stop()
+  {
+    Thread stopping;
+    synchronized (this)
+    {
+      if (getRunningState() == RunningState.STOPPED || getRunningState() == RunningState.STOPPING)
+        return;
+      setRunningState(RunningState.STOPPING);
+      // closing the channel ends the blocking receive of the thread
+      closeChannel();
+      stopping = thread;
+      thread = null;
+    }
+    // joined outside the monitor, which the thread takes when it fails
+    if (stopping != null && stopping != Thread.currentThread())
+    {
+      try
+      {
+        stopping.join(STOP_TIMEOUT);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+    }
+    synchronized (this)
+    {
+      if (getRunningState() == RunningState.STOPPING)
+        setRunningState(RunningState.STOPPED);
+    }
+  }
+
+  @Override
+  public void shutdown()
+  {
+    stop();
+    super.shutdown();
+  }
+
+  @Override
+  public void run()
+  {
+    DatagramChannel datagramChannel;
+    synchronized (this)
+    {
+      datagramChannel = channel;
+    }
+    if (datagramChannel == null)
+      return;
+    ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+    Map<InetAddress, String> channelIds = new HashMap<InetAddress, String>();
+    try
+    {
+      while (true)
+      {
+        buffer.clear();
+        SocketAddress sender = datagramChannel.receive(buffer);
+        if (sender == null)
+          continue;
+        buffer.flip();
+        try
+        {
+          receive(buffer, channelIdOf(channelIds, (InetSocketAddress) sender));
+        }
+        catch (RuntimeException e)
+        {
+          LOGGER.debug(e.getMessage(), e);
+        }
+      }
+    }
+    catch (ClosedChannelException e)
+    {
+      // stopped
+    }
+    catch (IOException e)
+    {
+      synchronized (this)
+      {
+        // unless stop() was called meanwhile, or the transport was started
+        // again with another channel
+        if (channel != datagramChannel || getRunningState() != RunningState.STARTED)
+        {
+          LOGGER.debug(e.getMessage(), e);
+          return;
+        }
+        LOGGER.error("UDP_RECEIVE_FAILED", port, e.getMessage());
+        closeChannel();
+        setErrorMessage(LOGGER.translate("UDP_RECEIVE_FAILED", port, e.getMessage()));
+        setRunningState(RunningState.ERROR);
+      }
+    }
+  }
+
+  /**
+   * @return the sender's address, kept per sender so receiving a datagram does
+   *         not build a String.
+   */
+  private static String channelIdOf(Map<InetAddress, String> channelIds, InetSocketAddress sender)
+  {
+    InetAddress address = sender.getAddress();
+    String channelId = channelIds.get(address);
+    if (channelId == null)
+    {
+      if (channelIds.size() >= MAX_SENDERS)
+        channelIds.clear();
+      channelId = address.getHostAddress();
+      channelIds.put(address, channelId);
+    }
+    return channelId;
+  }
+
+  private DatagramChannel open() throws IOException, ValidationException
+  {
+    List<InetAddress> groups = getMulticastGroups();
+    List<NetworkInterface> networkInterfaces = getNetworkInterfaces(groups);
+    ProtocolFamily family = StandardProtocolFamily.INET;
+    for (InetAddress group : groups)
+    {
+      if (group instanceof Inet6Address)
+        family = StandardProtocolFamily.INET6;
+    }
+    if (!bindAddress.isEmpty() && InetAddress.getByName(bindAddress) instanceof Inet6Address)
+      family = StandardProtocolFamily.INET6;
+
+    DatagramChannel datagramChannel = DatagramChannel.open(family);
+    try
+    {
+      // several receivers on the same host may listen to the same groups
+      datagramChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+      if (receiveBufferSize > 0)
+      {
+        datagramChannel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+        int actual = datagramChannel.getOption(StandardSocketOptions.SO_RCVBUF);
+        if (actual < receiveBufferSize)
+          LOGGER.warn("UDP_RECEIVE_BUFFER_LIMITED", receiveBufferSize, actual);
+      }
+      InetSocketAddress local = bindAddress.isEmpty() ? new InetSocketAddress(port) : new InetSocketAddress(InetAddress.getByName(bindAddress), port);
+      datagramChannel.bind(local);
+      for (InetAddress group : groups)
+      {
+        for (NetworkInterface networkInterface : networkInterfaces)
+          datagramChannel.join(group, networkInterface);
+      }
+      LOGGER.info("UDP_LISTENING", local, groups, networkInterfaces);
+      return datagramChannel;
+    }
+    catch (IOException | RuntimeException e)
+    {
+      datagramChannel.close();
+      throw e;
+    }
+  }
+
+  private void closeChannel()
+  {
+    if (channel == null)
+      return;
+    try
+    {
+      channel.close();
+    }
+    catch (IOException e)
+    {
+      LOGGER.debug(e.getMessage(), e);
+    }
+    channel = null;
+  }
+
+  private List<InetAddress> getMulticastGroups() throws ValidationException
+  {
+    List<InetAddress> groups = new ArrayList<InetAddress>();
+    for (String name : split(multicastGroups))
+    {
+      InetAddress group = null;
+      try
+      {
+        group = InetAddress.getByName(name);
+      }
+      catch (IOException e)
+      {
+        LOGGER.debug(e.getMessage(), e);
+      }
+      if (group == null || !group.isMulticastAddress())
+        throw new ValidationException(LOGGER.translate("UDP_INVALID_GROUP", name));
+      groups.add(group);
+    }
+    return groups;
+  }
+
+  /**
+   * @return the interfaces to join the groups on: the configured ones, or all
+   *         running multicast interfaces. Without groups there is nothing to
+   *         join.
+   */
+  private List<NetworkInterface> getNetworkInterfaces(List<InetAddress> groups) throws ValidationException
+  {
+    if (groups.isEmpty())
+      return Collections.emptyList();
+    List<NetworkInterface> networkInterfaces = new ArrayList<NetworkInterface>();
+    try
+    {
+      for (String name : split(interfaces))
+      {
+        NetworkInterface networkInterface = NetworkInterface.getByName(name);
+        if (networkInterface == null)
+        {
+          try
+          {
+            networkInterface = NetworkInterface.getByInetAddress(InetAddress.getByName(name));
+          }
+          catch (IOException e)
+          {
+            LOGGER.debug(e.getMessage(), e);
+          }
+        }
+        if (networkInterface == null)
+          throw new ValidationException(LOGGER.translate("UDP_INVALID_INTERFACE", name));
+        networkInterfaces.add(networkInterface);
+      }
+      if (networkInterfaces.isEmpty())
+      {
+        for (NetworkInterface networkInterface : Collections.list(NetworkInterface.getNetworkInterfaces()))
+        {
+          if (networkInterface.isUp() && networkInterface.supportsMulticast())
+            networkInterfaces.add(networkInterface);
+        }
+      }
+    }
+    catch (IOException e)
+    {
+      throw new ValidationException(e.getMessage());
+    }
+    if (networkInterfaces.isEmpty())
+      throw new ValidationException(LOGGER.translate("UDP_NO_INTERFACE"));
+    return networkInterfaces;
+  }
+
+  private static List<String> split(String list)
+  {
+    List<String> items = new ArrayList<String>();
+    for (String item : list.split(","))
+    {
+      if (!item.trim().isEmpty())
+        items.add(item.trim());
+    }
+    return items;
+  }
+
+  private String getStringProperty(String name)
+  {
+    return (hasProperty(name) && getProperty(name).getValue() != null) ? getProperty(name).getValueAsString().trim() : "";
+  }
+
+  private int getIntProperty(String name, int defaultValue)
+  {
+    try
+    {
+      if (hasProperty(name))
+        return Integer.parseInt(getProperty(name).getValueAsString().trim());
+    }
+    catch (Exception e)
+    {
+      LOGGER.warn("INVALID_PROPERTY_VALUE", name, defaultValue);
+    }
+    return defaultValue;
+  }
+}
@@ -0,0 +1,176 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.adapter.nmea;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.esri.ges.core.validation.ValidationException;
+
+public class NmeaAisAssemblerTest
+{
+  private static final String SINGLE       = "AIVDM,1,1,,B,177KQJ5000G?tO`K>RA1wUbN0TKH,0*5C";
+  // type 5 (static and voyage related data) in two fragments
+  private static final String STATIC_1     = "AIVDM,2,1,1,A,55?MbV02;H;s<HtKR20EHE:0@T4@Dn2222222216L961O5Gf0NSQEp6ClRp8,0*1C";
+  private static final String STATIC_2     = "AIVDM,2,2,1,A,88888888880,2*25";
+  private static final String OWN_STATIC_1 = "AIVDO,2,1,1,A,55?MbV02;H;s<HtKR20EHE:0@T4@Dn2222222216L961O5Gf0NSQEp6ClRp8,0*1E";
+  private static final long   TIMEOUT      = 1000;
+
+  private final NmeaAisAssembler assembler = new NmeaAisAssembler();
+
+  private static NmeaSentence sentence(String framed)
+  {
+    return new NmeaSentence().reset(framed.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  private NmeaAisPayload add(String framed, long now) throws ValidationException
+  {
+    return assembler.add(sentence(framed), framed.startsWith("AIVDO"), now, TIMEOUT);
+  }
+
+  @Test
+  public void completesSinglePartMessages() throws ValidationException
+  {
+    NmeaAisPayload payload = add(SINGLE, 0);
+    assertNotNull(payload);
+    assertSame(payload, assembler.getPayload());
+    assertEquals(1, payload.getMessageType());
+    assertEquals(477553000, payload.getUnsigned(8, 30));
+  }
+
+  @Test
+  public void reassemblesTwoPartStaticAndVoyageData() throws ValidationException
+  {
+    assertNull(add(STATIC_1, 0));
+    assertNull(assembler.getPayload());
+    NmeaAisPayload payload = add(STATIC_2, 10);
+    assertNotNull(payload);
+    // 71 characters, less 2 fill bits
+    assertEquals(424, payload.getBitLength());
+    assertEquals(5, payload.getMessageType());
+    assertEquals(351759000, payload.getUnsigned(8, 30));
+    assertEquals(9134270, payload.getUnsigned(40, 30));
+    assertEquals("3FOF8", payload.getText(70, 7));
+    assertEquals("EVER DIADEM", payload.getText(112, 20));
+    assertEquals(70, payload.getUnsigned(232, 8));
+    assertEquals(225, payload.getUnsigned(240, 9));
+    assertEquals(70, payload.getUnsigned(249, 9));
+    assertEquals(1, payload.getUnsigned(258, 6));
+    assertEquals(31, payload.getUnsigned(264, 6));
+    // ETA 05-15 14:00, draught 12.2 m
+    assertEquals(5, payload.getUnsigned(274, 4));
+    assertEquals(15, payload.getUnsigned(278, 5));
+    assertEquals(14, payload.getUnsigned(283, 5));
+    assertEquals(0, payload.getUnsigned(288, 6));
+    assertEquals(122, payload.getUnsigned(294, 8));
+    assertEquals("NEW YORK", payload.getText(302, 20));
+  }
+
+  @Test
+  public void keepsOwnShipMessagesApart() throws ValidationException
+  {
+    assertNull(add(STATIC_1, 0));
+    // the same sequential message ID, but a VDO
+    assertNull(add(OWN_STATIC_1, 0));
+    NmeaAisPayload payload = add(STATIC_2, 0);
+    assertNotNull(payload);
+    assertEquals("EVER DIADEM", payload.getText(112, 20));
+  }
+
+  @Test
+  public void interleavesSinglePartMessages() throws ValidationException
+  {
+    assertNull(add(STATIC_1, 0));
+    assertNotNull(add(SINGLE, 0));
+    assertEquals(5, add(STATIC_2, 0).getMessageType());
+  }
+
+  @Test
+  public void restartsOnANewFirstFragment() throws ValidationException
+  {
+    assertNull(add(STATIC_1, 0));
+    assertNull(add(STATIC_1, 0));
+    assertEquals(424, add(STATIC_2, 0).getBitLength());
+  }
+
+  @Test(expected = ValidationException.class)
+  public void rejectsAFragmentWithoutItsPredecessor() throws ValidationException
+  {
+    add(STATIC_2, 0);
+  }
+
+  @Test(expected = ValidationException.class)
+  public void rejectsAFragmentAfterTheTimeout() throws ValidationException
+  {
+    assertNull(add(STATIC_1, 0));
+    add(STATIC_2, TIMEOUT + 1);
+  }
+
+  @Test(expected = ValidationException.class)
+  public void rejectsAFragmentOfAnotherCount() throws ValidationException
+  {
+    assertNull(add(STATIC_1, 0));
+    add("AIVDM,3,2,1,A,88888888880,2", 0);
+  }
+
+  @Test(expected = ValidationException.class)
+  public void dropsThePartialMessageOfARejectedFragment() throws ValidationException
+  {
+    assertNull(add(STATIC_1, 0));
+    try
+    {
+      add("AIVDM,3,2,1,A,88888888880,2", 0);
+    }
+    catch (ValidationException e)
+    {
+      // the fragment of another count ends the message
+    }
+    add(STATIC_2, 0);
+  }
+
+  @Test(expected = ValidationException.class)
+  public void rejectsAFragmentNumberAboveTheCount() throws ValidationException
+  {
+    add("AIVDM,1,2,,B,177KQJ5000G?tO`K>RA1wUbN0TKH,0", 0);
+  }
+
+  @Test(expected = ValidationException.class)
+  public void rejectsTooManyFillBits() throws ValidationException
+  {
+    add("AIVDM,1,1,,B,177KQJ5000G?tO`K>RA1wUbN0TKH,6", 0);
+  }
+
+  @Test(expected = ValidationException.class)
+  public void rejectsInvalidArmoring() throws ValidationException
+  {
+    add("AIVDM,1,1,,B,177KQJ5000G?tO`K>RA1wUbN0TKX,0", 0);
+  }
+}
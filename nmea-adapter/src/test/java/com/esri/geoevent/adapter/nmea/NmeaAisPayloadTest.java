@@ -0,0 +1,140 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.adapter.nmea;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class NmeaAisPayloadTest
+{
+  // !AIVDM,1,1,,B,177KQJ5000G?tO`K>RA1wUbN0TKH,0*5C
+  private static final String POSITION_REPORT = "177KQJ5000G?tO`K>RA1wUbN0TKH";
+
+  private static NmeaAisPayload payload(String armored, int fillBits)
+  {
+    NmeaAisPayload payload = new NmeaAisPayload();
+    byte[] data = armored.getBytes(StandardCharsets.US_ASCII);
+    assertTrue(payload.append(data, 0, data.length));
+    payload.removeFillBits(fillBits);
+    return payload;
+  }
+
+  @Test
+  public void decodesPositionReport()
+  {
+    NmeaAisPayload payload = payload(POSITION_REPORT, 0);
+    assertEquals(168, payload.getBitLength());
+    assertEquals(1, payload.getMessageType());
+    assertEquals(0, payload.getUnsigned(6, 2));
+    assertEquals(477553000, payload.getUnsigned(8, 30));
+    assertEquals(5, payload.getUnsigned(38, 4));
+    assertEquals(0, payload.getSigned(42, 8));
+    assertEquals(0, payload.getUnsigned(50, 10));
+    assertFalse(payload.getFlag(60));
+    // 1/10000 minutes
+    assertEquals(-73407500, payload.getSigned(61, 28));
+    assertEquals(28549700, payload.getSigned(89, 27));
+    assertEquals(510, payload.getUnsigned(116, 12));
+    assertEquals(181, payload.getUnsigned(128, 9));
+    assertEquals(15, payload.getUnsigned(137, 6));
+  }
+
+  @Test
+  public void mapsBothRangesOfTheArmoringAlphabet()
+  {
+    // '0'..'W' are 0..39, '`'..'w' are 40..63
+    assertEquals(0, payload("0", 0).getUnsigned(0, 6));
+    assertEquals(39, payload("W", 0).getUnsigned(0, 6));
+    assertEquals(40, payload("`", 0).getUnsigned(0, 6));
+    assertEquals(63, payload("w", 0).getUnsigned(0, 6));
+  }
+
+  @Test
+  public void readsFieldsAcrossWordBoundaries()
+  {
+    // 12 characters of all ones, a field from bit 60 to 69 spans two longs
+    NmeaAisPayload payload = payload("wwwwwwwwwwww", 0);
+    assertEquals(72, payload.getBitLength());
+    assertEquals(1023, payload.getUnsigned(60, 10));
+    assertEquals(-1, payload.getSigned(60, 10));
+    assertEquals(0x7FFFFFFF, payload.getUnsigned(35, 31));
+    // bits past the end read as 0
+    assertEquals(0b111100, payload.getUnsigned(68, 6));
+  }
+
+  @Test
+  public void removesFillBits()
+  {
+    NmeaAisPayload payload = payload("w", 2);
+    assertEquals(4, payload.getBitLength());
+    assertEquals(0b111100, payload.getUnsigned(0, 6));
+  }
+
+  @Test
+  public void rejectsCharactersOutsideTheAlphabet()
+  {
+    NmeaAisPayload payload = new NmeaAisPayload();
+    for (byte c : new byte[] { 'X', '_', 'x', ',', '*', (byte) 0xC0 })
+      assertFalse(Character.toString((char) (c & 0xFF)), payload.append(new byte[] { c }, 0, 1));
+  }
+
+  @Test
+  public void rejectsPayloadsLongerThanMaxBits()
+  {
+    NmeaAisPayload payload = new NmeaAisPayload();
+    byte[] data = new byte[NmeaAisPayload.MAX_BITS / 6];
+    Arrays.fill(data, (byte) '1');
+    assertTrue(payload.append(data, 0, data.length));
+    assertFalse(payload.append(data, 0, 1));
+  }
+
+  @Test
+  public void clearResetsThePayload()
+  {
+    NmeaAisPayload payload = payload("wwwwwwwwwww", 0);
+    payload.clear();
+    assertEquals(0, payload.getBitLength());
+    assertEquals(0, payload.getUnsigned(0, 31));
+    assertTrue(payload.append(new byte[] { '1' }, 0, 1));
+    assertEquals(1, payload.getMessageType());
+  }
+
+  @Test
+  public void decodesSixBitText()
+  {
+    // "EVER DIADEM", one armored character per text character
+    NmeaAisPayload payload = payload("5F5BP49145=", 0);
+    assertEquals("EVER DIADEM", payload.getText(0, 11));
+    assertEquals("EVER", payload.getText(0, 5));
+    assertNull(payload("0000", 0).getText(0, 4));
+  }
+}
@@ -0,0 +1,173 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.adapter.nmea;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class NmeaDeviceFilterTest
+{
+  // the initial table size of the filter
+  private static final int     SLOTS     = 1024;
+  private static final String  TALKER    = "GP";
+  private static final long    HEARTBEAT = 3600000;
+
+  // only the heartbeat is set, so a known stream without position is
+  // suppressed and an unknown one is passed on
+  private final NmeaDeviceFilter filter  = new NmeaDeviceFilter(0, 0, 0, HEARTBEAT);
+
+  private static NmeaChannel channel(int number)
+  {
+    return new NmeaChannel("channel " + number, number, 512, NmeaSentenceFramer.ChecksumMode.VERIFY);
+  }
+
+  /**
+   * @return the home slot of a stream, hashed as the filter does.
+   */
+  private static int homeOf(int channelNumber, String talker, int definitionIndex)
+  {
+    long key = ((long) channelNumber << 32) | ((long) NmeaTranslatorTable.talkerIndexOf(talker) << 16) | definitionIndex;
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32)) & (SLOTS - 1);
+  }
+
+  /**
+   * @return channels whose stream of definition 0 has the home slot.
+   */
+  private static List<NmeaChannel> channelsAt(int home, int count, int from)
+  {
+    List<NmeaChannel> channels = new ArrayList<NmeaChannel>();
+    for (int number = from; channels.size() < count; number++)
+    {
+      if (homeOf(number, TALKER, 0) == home)
+        channels.add(channel(number));
+    }
+    return channels;
+  }
+
+  private boolean accept(NmeaChannel channel, String talker, int definitionIndex)
+  {
+    return filter.accept(new NmeaFix(channel, talker), definitionIndex);
+  }
+
+  private boolean accept(NmeaChannel channel)
+  {
+    return accept(channel, TALKER, 0);
+  }
+
+  @Test
+  public void suppressesKnownStreamsUntilTheHeartbeat()
+  {
+    NmeaChannel channel = channel(1);
+    assertTrue(accept(channel));
+    assertFalse(accept(channel));
+    assertTrue(accept(channel, "GN", 0));
+    assertTrue(accept(channel, TALKER, 1));
+    assertEquals(3, filter.size());
+    assertEquals(1, filter.getSuppressedCount());
+  }
+
+  @Test
+  public void removesAcrossTheWrapPoint()
+  {
+    // a cluster starting in the last slot and wrapping around to the first
+    // ones, with entries whose home is before and after the wrap point
+    List<NmeaChannel> last = channelsAt(SLOTS - 1, 3, 0);
+    List<NmeaChannel> first = channelsAt(0, 2, 0);
+    List<NmeaChannel> cluster = new ArrayList<NmeaChannel>();
+    cluster.add(last.get(0));
+    cluster.add(first.get(0));
+    cluster.add(last.get(1));
+    cluster.add(first.get(1));
+    cluster.add(last.get(2));
+    for (NmeaChannel channel : cluster)
+      assertTrue(accept(channel));
+
+    for (int removed = 0; removed < cluster.size(); removed++)
+    {
+      filter.removeChannel(cluster.get(removed).getNumber());
+      assertEquals(cluster.size() - removed - 1, filter.size());
+      // every stream left is still found, after the removed ones
+      for (int i = removed + 1; i < cluster.size(); i++)
+        assertFalse(accept(cluster.get(i)));
+    }
+    for (NmeaChannel channel : cluster)
+      assertTrue(accept(channel));
+  }
+
+  @Test
+  public void removesAChannelWithClusteredStreams()
+  {
+    String[] talkers = { "GP", "GN", "GL", "GA", "BD" };
+    List<NmeaChannel> channels = new ArrayList<NmeaChannel>();
+    for (int number = 0; number < 20; number++)
+      channels.add(channel(number));
+    // streams sharing home slots with the streams of other channels
+    channels.addAll(channelsAt(homeOf(7, TALKER, 0), 4, 20));
+    for (NmeaChannel channel : channels)
+      for (String talker : talkers)
+        for (int definitionIndex = 0; definitionIndex < 3; definitionIndex++)
+          assertTrue(accept(channel, talker, definitionIndex));
+    int streams = channels.size() * talkers.length * 3;
+    assertEquals(streams, filter.size());
+
+    Random random = new Random(7);
+    List<NmeaChannel> removed = new ArrayList<NmeaChannel>();
+    removed.add(channels.get(7));
+    while (removed.size() < channels.size() / 2)
+    {
+      NmeaChannel channel = channels.get(random.nextInt(channels.size()));
+      if (!removed.contains(channel))
+        removed.add(channel);
+    }
+    for (NmeaChannel channel : removed)
+    {
+      filter.removeChannel(channel.getNumber());
+      streams -= talkers.length * 3;
+      assertEquals(streams, filter.size());
+    }
+    for (NmeaChannel channel : channels)
+      for (String talker : talkers)
+        for (int definitionIndex = 0; definitionIndex < 3; definitionIndex++)
+          assertEquals(removed.contains(channel), accept(channel, talker, definitionIndex));
+  }
+
+  @Test
+  public void removingAnUnknownChannelKeepsTheOthers()
+  {
+    NmeaChannel channel = channel(1);
+    assertTrue(accept(channel));
+    filter.removeChannel(2);
+    assertEquals(1, filter.size());
+    assertFalse(accept(channel));
+  }
+}
@@ -0,0 +1,154 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.adapter.nmea;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class NmeaLoadShedderTest
+{
+  private static final long MILLIS = 1000000L;
+
+  private static int key(String address)
+  {
+    return NmeaTranslatorTable.addressKeyOf(address.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  private static List<byte[]> messages(String... messages)
+  {
+    List<byte[]> result = new ArrayList<byte[]>();
+    for (String message : messages)
+      result.add(message.getBytes(StandardCharsets.US_ASCII));
+    return result;
+  }
+
+  @Test
+  public void levelGrowsEachTimeTheLagDoubles()
+  {
+    NmeaLoadShedder shedder = new NmeaLoadShedder(100, 0, "RMC=1", "");
+    assertTrue(shedder.isEnabled());
+    assertEquals(0, shedder.getLevel(99 * MILLIS, 1000));
+    assertEquals(1, shedder.getLevel(100 * MILLIS, 0));
+    assertEquals(1, shedder.getLevel(199 * MILLIS, 0));
+    assertEquals(2, shedder.getLevel(200 * MILLIS, 0));
+    assertEquals(2, shedder.getLevel(399 * MILLIS, 0));
+    assertEquals(3, shedder.getLevel(400 * MILLIS, 0));
+    assertEquals(11, shedder.getLevel(100 * 1024 * MILLIS, 0));
+  }
+
+  @Test
+  public void levelGrowsEachTimeTheBacklogDoubles()
+  {
+    NmeaLoadShedder shedder = new NmeaLoadShedder(0, 10, "RMC=1", "");
+    assertEquals(0, shedder.getLevel(Long.MAX_VALUE, 9));
+    assertEquals(1, shedder.getLevel(0, 10));
+    assertEquals(1, shedder.getLevel(0, 19));
+    assertEquals(2, shedder.getLevel(0, 20));
+    assertEquals(3, shedder.getLevel(0, 40));
+  }
+
+  @Test
+  public void theHigherLevelOfLagAndBacklogApplies()
+  {
+    NmeaLoadShedder shedder = new NmeaLoadShedder(100, 10, "RMC=1", "");
+    assertEquals(3, shedder.getLevel(400 * MILLIS, 10));
+    assertEquals(3, shedder.getLevel(100 * MILLIS, 40));
+  }
+
+  @Test
+  public void withoutThresholdsNothingIsShed()
+  {
+    NmeaLoadShedder shedder = new NmeaLoadShedder(0, 0, "RMC=1", "");
+    assertFalse(shedder.isEnabled());
+    assertEquals(0, shedder.getLevel(Long.MAX_VALUE, Integer.MAX_VALUE));
+  }
+
+  @Test
+  public void shedsTypesBelowTheLevel()
+  {
+    NmeaLoadShedder shedder = new NmeaLoadShedder(100, 0, "RMC=3,GGA=3,GLL=2,VTG=1,GSA=0", "");
+    assertFalse(shedder.isShed(key("GPGSA"), 0));
+    assertTrue(shedder.isShed(key("GPGSA"), 1));
+    assertFalse(shedder.isShed(key("GPVTG"), 1));
+    assertTrue(shedder.isShed(key("GPVTG"), 2));
+    assertFalse(shedder.isShed(key("GPGLL"), 2));
+    assertTrue(shedder.isShed(key("GPGLL"), 3));
+    // unlisted types have priority 0, whatever the talker
+    assertTrue(shedder.isShed(key("GNZDA"), 1));
+    assertTrue(shedder.isShed(key("GNGSA"), 1));
+    assertFalse(shedder.isShed(-1, 100));
+  }
+
+  @Test
+  public void neverShedsTheHighestPriority()
+  {
+    NmeaLoadShedder shedder = new NmeaLoadShedder(100, 0, "RMC=3,GGA=3,GLL=2", "");
+    assertFalse(shedder.isShed(key("GPRMC"), 4));
+    assertFalse(shedder.isShed(key("GNGGA"), 64));
+    assertTrue(shedder.isShed(key("GPGLL"), 64));
+
+    // with a single priority, nothing is shed
+    shedder = new NmeaLoadShedder(100, 0, "", "");
+    assertFalse(shedder.isShed(key("GPRMC"), 64));
+  }
+
+  @Test
+  public void ignoresInvalidPriorities()
+  {
+    NmeaLoadShedder shedder = new NmeaLoadShedder(100, 0, "RMC=x, GLL, TOOLONG=5, VTG=-1, GSA=200, GGA = 2", "RMC, XX");
+    assertTrue(shedder.isShed(key("GPRMC"), 1));
+    assertTrue(shedder.isShed(key("GPVTG"), 1));
+    assertFalse(shedder.isShed(key("GPGGA"), 10));
+    assertTrue(shedder.isCoalesced(key("GPRMC")));
+    assertFalse(shedder.isCoalesced(key("GPGGA")));
+  }
+
+  @Test
+  public void newerSentencesOfACoalescedTypeAndTalkerSupersedeOlderOnes()
+  {
+    NmeaLoadShedder shedder = new NmeaLoadShedder(100, 0, "RMC=1", "RMC,GGA");
+    NmeaChannel channel = new NmeaChannel("device", 0, 512, NmeaSentenceFramer.ChecksumMode.VERIFY);
+    assertEquals(0, channel.sequence(messages("GPRMC,1", "GPGGA,1", "GPGSA,1", "GNRMC,1"), shedder));
+    assertEquals(4, channel.sequence(messages("GPRMC,2", "GPGSA,2"), shedder));
+
+    assertTrue(channel.isSuperseded(key("GPRMC"), 0));
+    assertFalse(channel.isSuperseded(key("GPRMC"), 4));
+    assertFalse(channel.isSuperseded(key("GPGGA"), 1));
+    // another talker is another device
+    assertFalse(channel.isSuperseded(key("GNRMC"), 3));
+    // only coalesced types are tracked
+    assertFalse(channel.isSuperseded(key("GPGSA"), 2));
+
+    assertEquals(6, channel.sequence(messages("GPGGA,2"), shedder));
+    assertTrue(channel.isSuperseded(key("GPGGA"), 1));
+  }
+}
@@ -0,0 +1,127 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.adapter.nmea;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class NmeaNumberParserTest
+{
+  private static double parse(String field)
+  {
+    byte[] data = field.getBytes(StandardCharsets.US_ASCII);
+    return NmeaNumberParser.parseDouble(data, 0, data.length, Double.NaN);
+  }
+
+  private static double parseDegreesMinutes(String field, int degreeDigits)
+  {
+    byte[] data = field.getBytes(StandardCharsets.US_ASCII);
+    return NmeaNumberParser.parseDegreesMinutes(data, 0, data.length, degreeDigits);
+  }
+
+  @Test
+  public void parsesDecimals()
+  {
+    assertEquals(4916.45, parse("4916.45"), 0);
+    assertEquals(545.4, parse("545.4"), 0);
+    assertEquals(12.34, parse("00012.3400"), 0);
+    assertEquals(-0.5, parse("-0.5"), 0);
+    assertEquals(5, parse("+5"), 0);
+    assertEquals(5, parse("5."), 0);
+    assertEquals(0.5, parse(".5"), 0);
+    assertEquals(0, parse("0"), 0);
+    assertEquals(Double.doubleToLongBits(-0d), Double.doubleToLongBits(parse("-0")));
+  }
+
+  @Test
+  public void returnsTheDefaultValueForEmptyOrInvalidFields()
+  {
+    assertTrue(Double.isNaN(parse("")));
+    assertTrue(Double.isNaN(parse(".")));
+    assertTrue(Double.isNaN(parse("-")));
+    assertTrue(Double.isNaN(parse("1.2.3")));
+    assertTrue(Double.isNaN(parse("abc")));
+    assertTrue(Double.isNaN(parse("12,5")));
+    byte[] data = new byte[0];
+    assertEquals(-1, NmeaNumberParser.parseDouble(data, 0, 0, -1), 0);
+  }
+
+  @Test
+  public void fallsBackForExponentsAndLongMantissas()
+  {
+    assertEquals(1e5, parse("1e5"), 0);
+    assertEquals(123456789012345678d, parse("123456789012345678"), 0);
+    assertEquals(1e-24, parse("0.000000000000000000000001"), 0);
+  }
+
+  @Test
+  public void matchesDoubleParseDouble()
+  {
+    String[] fields = { "0.1", "0.2", "0.3", "2.675", "1.005", "123456.789012", "999999999999999", "0.000000000000000000001", "89.9999999", "359.99", "4807.038", "01131.000", "12311.12" };
+    for (String field : fields)
+      assertEquals(field, Double.doubleToLongBits(Double.parseDouble(field)), Double.doubleToLongBits(parse(field)));
+  }
+
+  @Test
+  public void parsesWithinALargerBuffer()
+  {
+    byte[] data = "GPGGA,123519,4807.038,N".getBytes(StandardCharsets.US_ASCII);
+    assertEquals(4807.038, NmeaNumberParser.parseDouble(data, 13, 8, Double.NaN), 0);
+    assertEquals(48 + 7.038 / 60.0, NmeaNumberParser.parseDegreesMinutes(data, 13, 8, 2), 0);
+  }
+
+  @Test
+  public void convertsDegreesAndMinutes()
+  {
+    assertEquals(48 + 7.038 / 60.0, parseDegreesMinutes("4807.038", 2), 0);
+    assertEquals(11 + 31.0 / 60.0, parseDegreesMinutes("01131.000", 3), 0);
+    assertEquals(49 + 16.45 / 60.0, parseDegreesMinutes("4916.45", 2), 0);
+    assertEquals(123 + 11.12 / 60.0, parseDegreesMinutes("12311.12", 3), 0);
+  }
+
+  @Test
+  public void convertsDegreesAndMinutesEdgeCases()
+  {
+    assertEquals(0, parseDegreesMinutes("0000.0000", 2), 0);
+    assertEquals(89 + 59.9999 / 60.0, parseDegreesMinutes("8959.9999", 2), 0);
+    assertEquals(179 + 59.9999 / 60.0, parseDegreesMinutes("17959.9999", 3), 0);
+    // degrees only, and whole minutes
+    assertEquals(48, parseDegreesMinutes("48", 2), 0);
+    assertEquals(48 + 7 / 60.0, parseDegreesMinutes("4807", 2), 0);
+    // high resolution receivers send more minute digits
+    assertEquals(48 + 7.0380001 / 60.0, parseDegreesMinutes("4807.0380001", 2), 0);
+    // too short for the degrees
+    assertTrue(Double.isNaN(parseDegreesMinutes("4", 2)));
+    assertTrue(Double.isNaN(parseDegreesMinutes("", 2)));
+    assertTrue(Double.isNaN(parseDegreesMinutes("48", 3)));
+    // unparsable parts count as 0
+    assertEquals(7.5 / 60.0, parseDegreesMinutes("xx07.5", 2), 0);
+    assertEquals(48, parseDegreesMinutes("48xx", 2), 0);
+  }
+}
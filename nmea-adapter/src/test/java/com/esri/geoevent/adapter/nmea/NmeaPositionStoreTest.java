@@ -0,0 +1,179 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.adapter.nmea;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class NmeaPositionStoreTest
+{
+  private static final int GP = NmeaTranslatorTable.talkerIndexOf("GP");
+
+  private static NmeaFix fix(double latitude, double longitude)
+  {
+    NmeaFix fix = new NmeaFix(null, "GP");
+    fix.setPosition(latitude, longitude);
+    return fix;
+  }
+
+  @Test
+  public void mergesUpdatesIntoTheRecord()
+  {
+    NmeaPositionStore store = new NmeaPositionStore(4);
+    NmeaFix fix = fix(48.1173, 11.5167);
+    fix.setTime(1000);
+    fix.setQuality(1);
+    assertTrue(store.update(7, GP, fix));
+    fix = new NmeaFix(null, "GP");
+    fix.setSatellites(8);
+    fix.setHdop(0.9);
+    assertFalse(store.update(7, GP, fix));
+
+    NmeaPositionStore.Position position = new NmeaPositionStore.Position();
+    assertTrue(store.get(7, GP, position));
+    assertEquals(7, position.getChannelNumber());
+    assertEquals("GP", position.getTalker());
+    assertEquals(1000, position.getTime());
+    assertEquals(48.1173, position.getLatitude(), 0);
+    assertEquals(11.5167, position.getLongitude(), 0);
+    assertEquals(1, position.getQuality());
+    assertEquals(8, position.getSatellites());
+    assertEquals(0.9, position.getHdop(), 0);
+    assertTrue(Double.isNaN(position.getSpeed()));
+    assertFalse(store.get(7, GP + 1, position));
+    assertFalse(store.get(8, GP, position));
+  }
+
+  @Test
+  public void dropsUpdatesOfDevicesBeyondTheMaximum()
+  {
+    NmeaPositionStore store = new NmeaPositionStore(3);
+    for (int channel = 0; channel < 5; channel++)
+      store.update(channel, GP, fix(channel, channel));
+    assertEquals(3, store.size());
+    assertEquals(2, store.getDroppedUpdates());
+    assertEquals(3, store.forEach(position -> assertEquals(position.getChannelNumber(), position.getLatitude(), 0)));
+  }
+
+  @Test
+  public void removedDevicesMakeRoom()
+  {
+    NmeaPositionStore store = new NmeaPositionStore(2);
+    store.update(0, GP, fix(1, 1));
+    store.update(1, GP, fix(2, 2));
+    assertTrue(store.remove(0, GP));
+    assertFalse(store.remove(0, GP));
+    assertFalse(store.get(0, GP, new NmeaPositionStore.Position()));
+    assertTrue(store.update(2, GP, fix(3, 3)));
+    assertEquals(2, store.size());
+    assertEquals(0, store.getDroppedUpdates());
+    // a device added again starts without the values of its removed record
+    assertTrue(store.remove(1, GP));
+    NmeaFix fix = new NmeaFix(null, "GP");
+    fix.setSpeed(5);
+    assertTrue(store.update(1, GP, fix));
+    NmeaPositionStore.Position position = new NmeaPositionStore.Position();
+    assertTrue(store.get(1, GP, position));
+    assertFalse(position.hasPosition());
+    assertEquals(5, position.getSpeed(), 0);
+  }
+
+  @Test
+  public void devicesComeAndGoWithoutFillingTheTable()
+  {
+    NmeaPositionStore store = new NmeaPositionStore(4);
+    NmeaPositionStore.Position position = new NmeaPositionStore.Position();
+    for (int channel = 0; channel < 10000; channel++)
+    {
+      assertTrue(store.update(channel, GP, fix(channel, 0)));
+      if (channel >= 3)
+        assertTrue(store.remove(channel - 3, GP));
+      assertTrue(store.get(channel, GP, position));
+      assertEquals(channel, position.getLatitude(), 0);
+    }
+    assertEquals(3, store.size());
+    assertEquals(0, store.getDroppedUpdates());
+  }
+
+  @Test
+  public void concurrentAddsAndRemovesKeepOneRecordPerDevice() throws InterruptedException
+  {
+    final int workers = 4;
+    final int channelsPerWorker = 6;
+    // fewer devices than channels, in a small table, so probe sequences
+    // cluster and the store runs full
+    final NmeaPositionStore store = new NmeaPositionStore(8);
+    final boolean[] stored = new boolean[workers * channelsPerWorker];
+    final AtomicReference<String> failure = new AtomicReference<String>();
+    Thread[] threads = new Thread[workers];
+    for (int w = 0; w < workers; w++)
+    {
+      final int worker = w;
+      threads[w] = new Thread(() -> {
+        // each worker owns its channels, as the adapter's workers do
+        Random random = new Random(worker);
+        NmeaPositionStore.Position position = new NmeaPositionStore.Position();
+        for (int i = 0; i < 200000 && failure.get() == null; i++)
+        {
+          int channel = worker + workers * random.nextInt(channelsPerWorker);
+          boolean wasStored = stored[channel];
+          if (random.nextInt(3) == 0)
+          {
+            if (store.remove(channel, GP) != wasStored)
+              failure.compareAndSet(null, "removing " + channel + " stored " + wasStored);
+            stored[channel] = false;
+          }
+          else
+          {
+            boolean added = store.update(channel, GP, fix(channel, i));
+            if (added && wasStored)
+              failure.compareAndSet(null, "added " + channel + " twice");
+            stored[channel] = store.get(channel, GP, position);
+            if (stored[channel] && position.getLongitude() != i)
+              failure.compareAndSet(null, "lost the update of " + channel);
+          }
+        }
+      });
+      threads[w].start();
+    }
+    for (Thread thread : threads)
+      thread.join();
+    assertEquals(null, failure.get());
+
+    Set<Integer> channels = new HashSet<Integer>();
+    int count = store.forEach(position -> assertTrue("stored twice", channels.add(position.getChannelNumber())));
+    assertEquals(count, store.size());
+    for (int channel = 0; channel < stored.length; channel++)
+      assertEquals(stored[channel], channels.contains(channel));
+  }
+}
@@ -0,0 +1,213 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.adapter.nmea;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class NmeaSentenceFormatterTest
+{
+  private final NmeaSentenceFormatter formatter = new NmeaSentenceFormatter();
+
+  private static long epochMillis(int year, int month, int day, long timeOfDay)
+  {
+    return NmeaTimeParser.toEpochDay(year, month, day) * NmeaTimeParser.MILLIS_PER_DAY + timeOfDay;
+  }
+
+  /**
+   * @return the fields written after the address, without the leading comma.
+   */
+  private String fields()
+  {
+    String sentence = formatter.toString();
+    return sentence.substring(sentence.indexOf(',') + 1);
+  }
+
+  private NmeaSentenceFormatter begin()
+  {
+    return formatter.reset().begin("GP", "XXX");
+  }
+
+  /**
+   * @return the sentences written, framed with their checksums verified.
+   */
+  private List<NmeaSentence> frame()
+  {
+    NmeaSentenceFramer framer = new NmeaSentenceFramer(512, NmeaSentenceFramer.ChecksumMode.REQUIRE);
+    List<byte[]> messages = new ArrayList<byte[]>();
+    framer.frame(formatter.getBuffer(), messages);
+    List<NmeaSentence> sentences = new ArrayList<NmeaSentence>();
+    for (byte[] message : messages)
+      sentences.add(new NmeaSentence().reset(message));
+    return sentences;
+  }
+
+  private static double parseDegreesMinutes(NmeaSentence sentence, int field, int degreeDigits)
+  {
+    double value = NmeaNumberParser.parseDegreesMinutes(sentence.getData(), sentence.getFieldOffset(field), sentence.getFieldLength(field), degreeDigits);
+    return (sentence.is(field + 1, 'S') || sentence.is(field + 1, 'W')) ? -value : value;
+  }
+
+  @Test
+  public void writesKnownGoodSentences()
+  {
+    formatter.begin("GP", "GLL").latitudeFields(49 + 16.45 / 60, 2).longitudeFields(-(123 + 11.12 / 60), 2).field("225444").field('A').end();
+    formatter.begin("GP", "GGA").field("123519").latitudeFields(48 + 7.038 / 60, 3).longitudeFields(11 + 31.0 / 60, 3);
+    formatter.field(1, 1).field(8, 2).field(0.9, 1).field(545.4, 1).field('M').field(46.9, 1).field('M').field().field().end();
+    assertEquals("$GPGLL,4916.45,N,12311.12,W,225444,A*31\r\n$GPGGA,123519,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,*47\r\n", formatter.toString());
+    assertEquals(formatter.getLength(), formatter.getBuffer().remaining());
+    assertEquals(2, frame().size());
+  }
+
+  @Test
+  public void roundTripsPositionsThroughTheParsers()
+  {
+    Random random = new Random(4807038);
+    for (int i = 0; i < 10000; i++)
+    {
+      double latitude = random.nextDouble() * 180 - 90;
+      double longitude = random.nextDouble() * 360 - 180;
+      formatter.reset().begin("GP", "GLL").latitudeFields(latitude, 4).longitudeFields(longitude, 4).end();
+      NmeaSentence sentence = frame().get(0);
+      // half a unit of the last minute digit
+      assertEquals(latitude, parseDegreesMinutes(sentence, 1, 2), 0.5e-4 / 60 + 1e-12);
+      assertEquals(longitude, parseDegreesMinutes(sentence, 3, 3), 0.5e-4 / 60 + 1e-12);
+    }
+  }
+
+  @Test
+  public void carriesRoundedMinutesOverToTheDegrees()
+  {
+    begin().latitudeFields(48 + 59.99999 / 60, 4);
+    assertEquals("4900.0000,N", fields());
+    begin().longitudeFields(-(179 + 59.999999 / 60), 4);
+    assertEquals("18000.0000,W", fields());
+    begin().latitudeFields(48 + 59.99994 / 60, 4);
+    assertEquals("4859.9999,N", fields());
+  }
+
+  @Test
+  public void takesTheHemisphereFromTheRoundedValue()
+  {
+    begin().latitudeFields(-33.5, 2).longitudeFields(-70.25, 2);
+    assertEquals("3330.00,S,07015.00,W", fields());
+    begin().latitudeFields(0, 4).longitudeFields(0, 4);
+    assertEquals("0000.0000,N,00000.0000,E", fields());
+    begin().latitudeFields(-0.0, 4).longitudeFields(-0.0000001, 4);
+    assertEquals("0000.0000,N,00000.0000,E", fields());
+    begin().longitudeFields(-0.000001, 4);
+    assertEquals("00000.0001,W", fields());
+  }
+
+  @Test
+  public void writesEmptyFieldsForMissingValues()
+  {
+    begin().latitudeFields(Double.NaN, 4).longitudeFields(Double.NaN, 4).field(Double.NaN, 1).field(1e9, 1).field(-1, 2).field((String) null).field((char) 0);
+    assertEquals(",,,,,,,,", fields());
+  }
+
+  @Test
+  public void writesFixedFractionDigits()
+  {
+    begin().field(12.5, 1).field(12.5, 3).field(0.004, 2).field(-0.004, 2).field(-3.14159, 2).field(7, 0).field(123456789.5, 0);
+    assertEquals("12.5,12.500,0.00,0.00,-3.14,7,123456790", fields());
+    begin().field(5, 3).field(123, 1).field(0, 0);
+    assertEquals("005,123,0", fields());
+  }
+
+  @Test
+  public void writesTheTimeOfDayInHundredths()
+  {
+    begin().timeField(epochMillis(1994, 3, 23, ((12 * 60 + 35) * 60 + 19) * 1000 + 567)).timeField(0).timeField(-1);
+    assertEquals("123519.56,000000.00,235959.99", fields());
+    formatter.end();
+    byte[] message = frame().get(0).getData();
+    assertEquals(45319560, NmeaTimeParser.parseTimeOfDay(message, 6, 9));
+  }
+
+  @Test
+  public void writesDatesAcrossLeapDaysAndCenturies()
+  {
+    begin().dateField(epochMillis(2000, 2, 29, 0)).dateField(epochMillis(2024, 2, 29, 86399999)).dateField(epochMillis(2024, 3, 1, 0));
+    assertEquals("290200,290224,010324", fields());
+    // 1900 and 2100 are not leap years, 2000 is
+    begin().dateField(epochMillis(1900, 2, 28, 0) + NmeaTimeParser.MILLIS_PER_DAY).dateField(epochMillis(2100, 2, 28, 0) + NmeaTimeParser.MILLIS_PER_DAY);
+    assertEquals("010300,010300", fields());
+    begin().dateField(epochMillis(1999, 12, 31, 86399999)).dateField(epochMillis(1999, 12, 31, 86399999) + 1).dateField(-1);
+    assertEquals("311299,010100,311269", fields());
+  }
+
+  @Test
+  public void roundTripsEveryDateThroughTheParser()
+  {
+    for (long epochDay = NmeaTimeParser.toEpochDay(2000, 1, 1); epochDay < NmeaTimeParser.toEpochDay(2100, 1, 1); epochDay++)
+    {
+      begin().dateField(epochDay * NmeaTimeParser.MILLIS_PER_DAY + 43200000);
+      byte[] data = fields().getBytes(StandardCharsets.US_ASCII);
+      assertEquals(epochDay, NmeaTimeParser.parseEpochDay(data, 0, data.length));
+    }
+  }
+
+  @Test
+  public void checksumsEachSentence()
+  {
+    formatter.begin("GP", "VTG").field(54.7, 1).field('T').field(34.4, 1).field('M').field(5.5, 1).field('N').field(10.2, 1).field('K').end();
+    formatter.begin("GN", "RMC").timeField(0).field('V').latitudeFields(Double.NaN, 4).longitudeFields(Double.NaN, 4).field().field().dateField(0).field().field().end();
+    String vtg = "GPVTG,54.7,T,34.4,M,5.5,N,10.2,K";
+    String rmc = "GNRMC,000000.00,V,,,,,,,010170,,";
+    assertEquals("$" + vtg + "*" + checksum(vtg) + "\r\n$" + rmc + "*" + checksum(rmc) + "\r\n", formatter.toString());
+    assertEquals(2, frame().size());
+  }
+
+  private static String checksum(String body)
+  {
+    int checksum = 0;
+    for (int i = 0; i < body.length(); i++)
+      checksum ^= body.charAt(i);
+    return String.format("%02X", checksum);
+  }
+
+  @Test
+  public void resetStartsOver()
+  {
+    formatter.begin("GP", "GLL").end();
+    formatter.reset().begin("GP", "ZDA").end();
+    assertEquals("$GPZDA*" + checksum("GPZDA") + "\r\n", formatter.toString());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void failsWhenTheBufferIsFull()
+  {
+    formatter.begin("GP", "TXT");
+    for (int i = 0; i < 1024; i++)
+      formatter.field(i, 1);
+  }
+}
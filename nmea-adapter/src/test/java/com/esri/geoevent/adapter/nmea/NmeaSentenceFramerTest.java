@@ -0,0 +1,272 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.adapter.nmea;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class NmeaSentenceFramerTest
+{
+  private static final String GGA = "GPGGA,123519,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,*47";
+  private static final String RMC = "GPRMC,123519,A,4807.038,N,01131.000,E,022.4,084.4,230394,003.1,W*6A";
+  private static final String VDM = "AIVDM,1,1,,B,177KQJ5000G?tO`K>RA1wUbN0TKH,0*5C";
+  private static final String LOG = "$" + GGA + "\r\n$" + RMC + "\r\n!" + VDM + "\r\n";
+
+  private static ByteBuffer buffer(String data)
+  {
+    return ByteBuffer.wrap(data.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  private static List<String> frame(NmeaSentenceFramer framer, String... buffers)
+  {
+    List<byte[]> messages = new ArrayList<byte[]>();
+    for (String data : buffers)
+      framer.frame(buffer(data), messages);
+    return strings(messages);
+  }
+
+  private static List<String> strings(List<byte[]> messages)
+  {
+    List<String> result = new ArrayList<String>();
+    for (byte[] message : messages)
+      result.add(new String(message, StandardCharsets.US_ASCII));
+    return result;
+  }
+
+  private static List<String> list(String... messages)
+  {
+    List<String> result = new ArrayList<String>();
+    for (String message : messages)
+      result.add(message);
+    return result;
+  }
+
+  @Test
+  public void framesCompleteSentences()
+  {
+    NmeaSentenceFramer framer = new NmeaSentenceFramer(512, NmeaSentenceFramer.ChecksumMode.VERIFY);
+    assertEquals(list(GGA, RMC, VDM), frame(framer, LOG));
+  }
+
+  @Test
+  public void acceptsAnyLineTerminator()
+  {
+    NmeaSentenceFramer framer = new NmeaSentenceFramer(512, NmeaSentenceFramer.ChecksumMode.VERIFY);
+    assertEquals(list(GGA, RMC, VDM), frame(framer, "$" + GGA + "\n$" + RMC + "\r!" + VDM + "\r\n\r\n\n"));
+  }
+
+  @Test
+  public void carriesSentencesSplitAtAnyByte()
+  {
+    for (int split = 0; split <= LOG.length(); split++)
+    {
+      NmeaSentenceFramer framer = new NmeaSentenceFramer(512, NmeaSentenceFramer.ChecksumMode.VERIFY);
+      assertEquals("split at " + split, list(GGA, RMC, VDM), frame(framer, LOG.substring(0, split), LOG.substring(split)));
+    }
+  }
+
+  @Test
+  public void carriesSentencesAcrossSingleByteBuffers()
+  {
+    NmeaSentenceFramer framer = new NmeaSentenceFramer(512, NmeaSentenceFramer.ChecksumMode.VERIFY);
+    String[] buffers = new String[LOG.length()];
+    for (int i = 0; i < buffers.length; i++)
+      buffers[i] = LOG.substring(i, i + 1);
+    assertEquals(list(GGA, RMC, VDM), frame(framer, buffers));
+  }
+
+  @Test
+  public void framesDirectAndReadOnlyBuffers()
+  {
+    NmeaSentenceFramer framer = new NmeaSentenceFramer(512, NmeaSentenceFramer.ChecksumMode.VERIFY);
+    byte[] data = LOG.getBytes(StandardCharsets.US_ASCII);
+    ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+    direct.put(data).flip();
+    List<byte[]> messages = new ArrayList<byte[]>();
+    framer.frame(direct, messages);
+    framer.frame(ByteBuffer.wrap(data).asReadOnlyBuffer(), messages);
+    assertEquals(list(GGA, RMC, VDM, GGA, RMC, VDM), strings(messages));
+    assertEquals(0, direct.remaining());
+  }
+
+  @Test
+  public void anUnterminatedSentenceIsDiscardedByTheNextStart()
+  {
+    NmeaSentenceFramer framer = new NmeaSentenceFramer(512, NmeaSentenceFramer.ChecksumMode.VERIFY);
+    assertEquals(list(RMC), frame(framer, "$GPGGA,123519,48", "07.038$" + RMC + "\r\n"));
+  }
+
+  @Test
+  public void ignoresBytesOutsideSentences()
+  {
+    NmeaSentenceFramer framer = new NmeaSentenceFramer(512, NmeaSentenceFramer.ChecksumMode.VERIFY);
+    assertEquals(list(GGA), frame(framer, "noise\r\n*12,,\n$" + GGA + "\r\n"));
+  }
+
+  @Test
+  public void dropsOverlongSentencesSplitAcrossBuffers()
+  {
+    NmeaSentenceFramer framer = new NmeaSentenceFramer(GGA.length() - 1, NmeaSentenceFramer.ChecksumMode.VERIFY);
+    String overlong = "$" + GGA + "\r\n";
+    List<String> messages = frame(framer, overlong.substring(0, 20), overlong.substring(20, 40), overlong.substring(40), "$GPGSA,A,3\r\n");
+    assertEquals(list("GPGSA,A,3"), messages);
+    assertEquals(1, framer.getRejectedCount(NmeaSentenceFramer.RejectReason.OVERLONG));
+  }
+
+  @Test
+  public void acceptsSentencesOfTheMaximumLength()
+  {
+    NmeaSentenceFramer framer = new NmeaSentenceFramer(GGA.length(), NmeaSentenceFramer.ChecksumMode.VERIFY);
+    String data = "$" + GGA + "\r\n";
+    assertEquals(list(GGA), frame(framer, data.substring(0, 30), data.substring(30)));
+    assertEquals(0, framer.getRejectedCount(NmeaSentenceFramer.RejectReason.OVERLONG));
+  }
+
+  @Test
+  public void recoversAfterAnOverlongSentenceWithoutTerminator()
+  {
+    NmeaSentenceFramer framer = new NmeaSentenceFramer(16, NmeaSentenceFramer.ChecksumMode.VERIFY);
+    // the next start ends the discarded sentence
+    assertEquals(list("GPGSA,A,3"), frame(framer, "$GPGGA,123519,4807.038,N,01131", ".000,E$GPGSA,A,3\r\n"));
+    assertEquals(1, framer.getRejectedCount(NmeaSentenceFramer.RejectReason.OVERLONG));
+  }
+
+  @Test
+  public void endFrameCompletesTheUnterminatedSentence()
+  {
+    NmeaSentenceFramer framer = new NmeaSentenceFramer(512, NmeaSentenceFramer.ChecksumMode.VERIFY);
+    List<byte[]> messages = new ArrayList<byte[]>();
+    framer.frame(buffer("$" + GGA + "\r\n$" + RMC), messages);
+    framer.endFrame(messages);
+    framer.frame(buffer("$GPGSA,A,3\r\n"), messages);
+    assertEquals(list(GGA, RMC, "GPGSA,A,3"), strings(messages));
+  }
+
+  @Test
+  public void resetDiscardsThePartialSentence()
+  {
+    NmeaSentenceFramer framer = new NmeaSentenceFramer(512, NmeaSentenceFramer.ChecksumMode.VERIFY);
+    List<byte[]> messages = new ArrayList<byte[]>();
+    framer.frame(buffer("$GPGGA,123519,48"), messages);
+    framer.reset();
+    framer.frame(buffer("07.038\r\n$" + RMC + "\r\n"), messages);
+    assertEquals(list(RMC), strings(messages));
+  }
+
+  @Test
+  public void rejectsBadChecksums()
+  {
+    NmeaSentenceFramer framer = new NmeaSentenceFramer(512, NmeaSentenceFramer.ChecksumMode.VERIFY);
+    assertEquals(list(RMC), frame(framer, "$" + GGA.replace("*47", "*48") + "\r\n$" + RMC + "\r\n"));
+    assertEquals(1, framer.getRejectedCount(NmeaSentenceFramer.RejectReason.BAD_CHECKSUM));
+  }
+
+  @Test
+  public void verifiesChecksumsSplitAcrossBuffers()
+  {
+    NmeaSentenceFramer framer = new NmeaSentenceFramer(512, NmeaSentenceFramer.ChecksumMode.VERIFY);
+    String good = "$GPGLL,4916.45,N,12311.12,W,225444,A*31\r\n";
+    String bad = "$GPGLL,4916.45,N,12311.12,W,225444,A*32\r\n";
+    int star = good.indexOf('*');
+    assertEquals(list("GPGLL,4916.45,N,12311.12,W,225444,A*31"), frame(framer, good.substring(0, star + 2), good.substring(star + 2), bad.substring(0, star + 1), bad.substring(star + 1)));
+    assertEquals(1, framer.getRejectedCount(NmeaSentenceFramer.RejectReason.BAD_CHECKSUM));
+  }
+
+  @Test
+  public void acceptsLowerCaseChecksums()
+  {
+    NmeaSentenceFramer framer = new NmeaSentenceFramer(512, NmeaSentenceFramer.ChecksumMode.VERIFY);
+    String rmc = RMC.replace("*6A", "*6a");
+    assertEquals(list(rmc), frame(framer, "$" + rmc + "\r\n"));
+  }
+
+  @Test
+  public void verifyAcceptsSentencesWithoutChecksum()
+  {
+    NmeaSentenceFramer framer = new NmeaSentenceFramer(512, NmeaSentenceFramer.ChecksumMode.VERIFY);
+    assertEquals(list("GPVTG,054.7,T,034.4,M,005.5,N,010.2,K"), frame(framer, "$GPVTG,054.7,T,034.4,M,005.5,N,010.2,K\r\n"));
+  }
+
+  @Test
+  public void requireRejectsSentencesWithoutChecksum()
+  {
+    NmeaSentenceFramer framer = new NmeaSentenceFramer(512, NmeaSentenceFramer.ChecksumMode.REQUIRE);
+    String vtg = "GPVTG,054.7,T,034.4,M,005.5,N,010.2,K";
+    assertEquals(list(vtg + "*48"), frame(framer, "$" + vtg + "\r\n$" + vtg + "*48\r\n"));
+    assertEquals(1, framer.getRejectedCount(NmeaSentenceFramer.RejectReason.MISSING_CHECKSUM));
+  }
+
+  @Test
+  public void ignoreAcceptsBadChecksums()
+  {
+    NmeaSentenceFramer framer = new NmeaSentenceFramer(512, NmeaSentenceFramer.ChecksumMode.IGNORE);
+    String gga = GGA.replace("*47", "*48");
+    assertEquals(list(gga), frame(framer, "$" + gga + "\r\n"));
+    assertEquals(0, framer.getRejectedCount(NmeaSentenceFramer.RejectReason.BAD_CHECKSUM));
+  }
+
+  @Test
+  public void rejectsMalformedChecksums()
+  {
+    NmeaSentenceFramer framer = new NmeaSentenceFramer(512, NmeaSentenceFramer.ChecksumMode.VERIFY);
+    String gll = "GPGLL,4916.45,N,12311.12,W,225444,A";
+    assertEquals(list(), frame(framer, "$" + gll + "*3\r\n$" + gll + "*3G\r\n$" + gll + "*311\r\n"));
+    assertEquals(3, framer.getRejectedCount(NmeaSentenceFramer.RejectReason.MALFORMED_CHECKSUM));
+  }
+
+  @Test
+  public void framesInParallelLikeSequentially()
+  {
+    StringBuilder data = new StringBuilder();
+    while (data.length() < 1 << 20)
+      data.append(LOG);
+    // a sentence split across the two buffers
+    String first = "$" + RMC.substring(0, 10);
+    String second = RMC.substring(10) + "\r\n" + data;
+    NmeaSentenceFramer sequential = new NmeaSentenceFramer(512, NmeaSentenceFramer.ChecksumMode.VERIFY);
+    List<String> expected = frame(sequential, first, second);
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try
+    {
+      NmeaSentenceFramer parallel = new NmeaSentenceFramer(512, NmeaSentenceFramer.ChecksumMode.VERIFY);
+      List<byte[]> messages = new ArrayList<byte[]>();
+      parallel.frame(buffer(first), messages, pool, 65536);
+      parallel.frame(buffer(second), messages, pool, 65536);
+      assertEquals(expected, strings(messages));
+    }
+    finally
+    {
+      pool.shutdown();
+    }
+  }
+}
@@ -0,0 +1,143 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+
+package com.esri.geoevent.adapter.nmea;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class NmeaTimeParserTest
+{
+  private static long parseTimeOfDay(String field)
+  {
+    byte[] data = field.getBytes(StandardCharsets.US_ASCII);
+    return NmeaTimeParser.parseTimeOfDay(data, 0, data.length);
+  }
+
+  private static long parseEpochDay(String field)
+  {
+    byte[] data = field.getBytes(StandardCharsets.US_ASCII);
+    return NmeaTimeParser.parseEpochDay(data, 0, data.length);
+  }
+
+  private static long epochDay(int year, int month, int day)
+  {
+    Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+    calendar.clear();
+    calendar.set(year, month - 1, day);
+    return calendar.getTimeInMillis() / NmeaTimeParser.MILLIS_PER_DAY;
+  }
+
+  @Test
+  public void parsesTimeOfDay()
+  {
+    assertEquals(((12 * 60 + 35) * 60 + 19) * 1000L, parseTimeOfDay("123519"));
+    assertEquals(0, parseTimeOfDay("000000"));
+    assertEquals(NmeaTimeParser.MILLIS_PER_DAY - 1000, parseTimeOfDay("235959"));
+  }
+
+  @Test
+  public void parsesFractionalSeconds()
+  {
+    assertEquals(45319500, parseTimeOfDay("123519.5"));
+    assertEquals(45319250, parseTimeOfDay("123519.25"));
+    assertEquals(45319123, parseTimeOfDay("123519.123"));
+    assertEquals(NmeaTimeParser.MILLIS_PER_DAY - 1, parseTimeOfDay("235959.999"));
+    // kept to the millisecond
+    assertEquals(45319123, parseTimeOfDay("123519.123456"));
+    assertEquals(45319000, parseTimeOfDay("123519."));
+  }
+
+  @Test
+  public void acceptsALeapSecond()
+  {
+    assertEquals(NmeaTimeParser.MILLIS_PER_DAY, parseTimeOfDay("235960"));
+  }
+
+  @Test
+  public void rejectsInvalidTimes()
+  {
+    assertEquals(NmeaTimeParser.INVALID, parseTimeOfDay(""));
+    assertEquals(NmeaTimeParser.INVALID, parseTimeOfDay("12351"));
+    assertEquals(NmeaTimeParser.INVALID, parseTimeOfDay("240000"));
+    assertEquals(NmeaTimeParser.INVALID, parseTimeOfDay("126000"));
+    assertEquals(NmeaTimeParser.INVALID, parseTimeOfDay("123561"));
+    assertEquals(NmeaTimeParser.INVALID, parseTimeOfDay("12a519"));
+    assertEquals(NmeaTimeParser.INVALID, parseTimeOfDay("-12351"));
+    assertEquals(NmeaTimeParser.INVALID, parseTimeOfDay("123519,5"));
+    assertEquals(NmeaTimeParser.INVALID, parseTimeOfDay("123519.x"));
+  }
+
+  @Test
+  public void parsesTimeWithinALargerBuffer()
+  {
+    byte[] data = "GPGGA,123519.50,4807.038".getBytes(StandardCharsets.US_ASCII);
+    assertEquals(45319500, NmeaTimeParser.parseTimeOfDay(data, 6, 9));
+  }
+
+  @Test
+  public void parsesDates()
+  {
+    assertEquals(epochDay(2000, 1, 1), parseEpochDay("010100"));
+    assertEquals(epochDay(2094, 3, 23), parseEpochDay("230394"));
+    assertEquals(epochDay(2024, 2, 29), parseEpochDay("290224"));
+    assertEquals(epochDay(2099, 12, 31), parseEpochDay("311299"));
+    assertEquals(10957, parseEpochDay("010100"));
+  }
+
+  @Test
+  public void rejectsInvalidDates()
+  {
+    assertEquals(NmeaTimeParser.INVALID, parseEpochDay(""));
+    assertEquals(NmeaTimeParser.INVALID, parseEpochDay("01010"));
+    assertEquals(NmeaTimeParser.INVALID, parseEpochDay("0101000"));
+    assertEquals(NmeaTimeParser.INVALID, parseEpochDay("000124"));
+    assertEquals(NmeaTimeParser.INVALID, parseEpochDay("320124"));
+    assertEquals(NmeaTimeParser.INVALID, parseEpochDay("010024"));
+    assertEquals(NmeaTimeParser.INVALID, parseEpochDay("011324"));
+    assertEquals(NmeaTimeParser.INVALID, parseEpochDay("01012x"));
+  }
+
+  @Test
+  public void computesEpochDaysLikeTheGregorianCalendar()
+  {
+    for (int year = 1900; year <= 2100; year += 1)
+    {
+      for (int month = 1; month <= 12; month++)
+      {
+        assertEquals(year + "-" + month + "-1", epochDay(year, month, 1), NmeaTimeParser.toEpochDay(year, month, 1));
+        assertEquals(year + "-" + month + "-28", epochDay(year, month, 28), NmeaTimeParser.toEpochDay(year, month, 28));
+      }
+      assertEquals(year + "-12-31", epochDay(year, 12, 31), NmeaTimeParser.toEpochDay(year, 12, 31));
+    }
+    assertEquals(0, NmeaTimeParser.toEpochDay(1970, 1, 1));
+    assertEquals(-1, NmeaTimeParser.toEpochDay(1969, 12, 31));
+  }
+}
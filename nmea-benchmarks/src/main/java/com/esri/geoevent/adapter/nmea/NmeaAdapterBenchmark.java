@@ -0,0 +1,146 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+package com.esri.geoevent.adapter.nmea;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.esri.ges.core.geoevent.GeoEvent;
+
+/**
+ * End to end: buffers handed to receive() until every GeoEvent they produce
+ * has reached the listener, in sentences per second. This covers framing, the
+ * worker hand-off, GeoEvent creation and translation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class NmeaAdapterBenchmark
+{
+  @Param({ "RMC", "MIXED", "RECORDED" })
+  public String              corpus;
+
+  @Param({ "64", "512", "4096", "65536", "1048576" })
+  public int                 bufferSize;
+
+  private final AtomicLong   received = new AtomicLong();
+  private ByteBuffer[]       buffers;
+  private long               eventsPerInvocation;
+  private NmeaInboundAdapter adapter;
+
+  @Setup
+  public void setup() throws Exception
+  {
+    byte[] data = NmeaCorpus.load(corpus, NmeaCorpus.LARGE_SENTENCES);
+    buffers = split(data, bufferSize);
+    eventsPerInvocation = countEvents(data);
+    adapter = NmeaStubs.adapter(geoEvent -> received.incrementAndGet());
+  }
+
+  @TearDown
+  public void tearDown()
+  {
+    adapter.shutdown();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NmeaCorpus.LARGE_SENTENCES)
+  public long receive()
+  {
+    long target = received.get() + eventsPerInvocation;
+    for (ByteBuffer buffer : buffers)
+    {
+      buffer.clear();
+      adapter.receive(buffer, "benchmark");
+    }
+    while (received.get() < target)
+      Thread.yield();
+    return target;
+  }
+
+  /**
+   * @return the number of GeoEvents the adapter produces for the data, that is
+   *         the number of sentences that are both supported and valid.
+   */
+  static long countEvents(byte[] data)
+  {
+    NmeaTranslatorTable translatorTable = NmeaStubs.translatorTable();
+    NmeaChannel channel = new NmeaChannel("count", 0, 512, NmeaSentenceFramer.ChecksumMode.VERIFY);
+    GeoEvent geoEvent = NmeaStubs.geoEvent(null);
+    NmeaSentence sentence = new NmeaSentence();
+    long count = 0;
+    for (byte[] message : NmeaCorpus.frame(data))
+    {
+      sentence.reset(message);
+      NMEAMessageTranslator translator = translatorTable.lookup(sentence);
+      if (translator == null)
+        continue;
+      try
+      {
+        translator.validate(sentence);
+        translator.translate(channel, geoEvent, sentence);
+        count++;
+      }
+      catch (Exception error)
+      {
+        ;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @return the data as consecutive buffers of at most <code>size</code>
+   *         bytes, each starting at position 0.
+   */
+  static ByteBuffer[] split(byte[] data, int size)
+  {
+    int count = (data.length + size - 1) / size;
+    ByteBuffer[] buffers = new ByteBuffer[count];
+    for (int i = 0; i < count; i++)
+    {
+      int offset = i * size;
+      buffers[i] = ByteBuffer.wrap(data, offset, Math.min(size, data.length - offset)).slice();
+    }
+    return buffers;
+  }
+}
@@ -0,0 +1,163 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+package com.esri.geoevent.adapter.nmea;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * Allocation regression check: runs the benchmarks listed in
+ * allocation-budget.properties with the GC profiler and fails (exit code 1)
+ * if any of them allocates more bytes per sentence ('gc.alloc.rate.norm')
+ * than its budget, or if the allocation of a budgeted benchmark is missing
+ * because the profiler did not report it or the benchmark did not run.
+ * <p>
+ * Budget keys are the benchmark class and method, followed by the values of
+ * its parameters in the alphabetical order of their names, e.g.
+ * <code>NmeaTranslationBenchmark.translate.RMC</code> or
+ * <code>NmeaAdapterBenchmark.receive.4096.RMC</code>. A key without some or
+ * all of the trailing values applies to every run it is a prefix of.
+ */
+public final class NmeaAllocationBudget
+{
+  private static final String NORMALIZED_ALLOCATION = "gc.alloc.rate.norm";
+
+  private NmeaAllocationBudget()
+  {
+  }
+
+  public static void main(String[] args) throws Exception
+  {
+    Properties budgets = load("/allocation-budget.properties");
+    Set<String> benchmarks = new TreeSet<String>();
+    for (String key : budgets.stringPropertyNames())
+    {
+      String[] parts = key.split("\\.");
+      benchmarks.add(parts[0] + "." + parts[1]);
+    }
+
+    ChainedOptionsBuilder options = new OptionsBuilder().addProfiler(GCProfiler.class).forks(1).warmupIterations(2).warmupTime(TimeValue.seconds(1)).measurementIterations(3).measurementTime(TimeValue.seconds(1)).timeUnit(TimeUnit.SECONDS);
+    for (String benchmark : benchmarks)
+      options.include("\\." + benchmark.replace(".", "\\.") + "$");
+    Collection<RunResult> results = new Runner(options.build()).run();
+
+    List<String> failures = new ArrayList<String>();
+    Set<String> missing = new TreeSet<String>(benchmarks);
+    System.out.println();
+    System.out.println(String.format(Locale.ROOT, "%-60s %12s %12s", "Benchmark", "Bytes/op", "Budget"));
+    for (RunResult result : results)
+    {
+      String key = keyOf(result.getParams());
+      double allocated = allocationOf(result);
+      String budget = budgetOf(budgets, key);
+      String[] parts = key.split("\\.");
+      missing.remove(parts[0] + "." + parts[1]);
+      // NaN fails the comparison, so a missing allocation fails the budget
+      boolean exceeded = budget != null && !(allocated <= Double.parseDouble(budget));
+      System.out.println(String.format(Locale.ROOT, "%-60s %12.1f %12s%s", key, allocated, (budget != null) ? budget : "-", exceeded ? (Double.isNaN(allocated) ? "  MISSING" : "  EXCEEDED") : ""));
+      if (exceeded)
+        failures.add(key);
+    }
+    failures.addAll(missing);
+    if (!failures.isEmpty())
+    {
+      System.out.println("Allocation budget exceeded or missing for " + failures);
+      System.exit(1);
+    }
+  }
+
+  /**
+   * @return the budget key of a run: class, method and parameter values.
+   */
+  static String keyOf(BenchmarkParams params)
+  {
+    String benchmark = params.getBenchmark();
+    int method = benchmark.lastIndexOf('.');
+    int type = benchmark.lastIndexOf('.', method - 1);
+    StringBuilder key = new StringBuilder(benchmark.substring(type + 1));
+    for (String name : new TreeSet<String>(params.getParamsKeys()))
+      key.append('.').append(params.getParam(name));
+    return key.toString();
+  }
+
+  /**
+   * @return the budget of the longest matching key, or null.
+   */
+  static String budgetOf(Properties budgets, String key)
+  {
+    for (String candidate = key; candidate != null;)
+    {
+      String budget = budgets.getProperty(candidate);
+      if (budget != null)
+        return budget.trim();
+      int last = candidate.lastIndexOf('.');
+      candidate = (last > 0 && candidate.indexOf('.') < last) ? candidate.substring(0, last) : null;
+    }
+    return null;
+  }
+
+  /**
+   * @return the allocated bytes per operation, or NaN if not reported.
+   */
+  private static double allocationOf(RunResult result)
+  {
+    // the GC profiler prefixes its results with a separator character
+    for (Map.Entry<String, Result> secondary : result.getSecondaryResults().entrySet())
+    {
+      if (secondary.getKey().endsWith(NORMALIZED_ALLOCATION))
+        return secondary.getValue().getScore();
+    }
+    return Double.NaN;
+  }
+
+  private static Properties load(String resource) throws IOException
+  {
+    Properties properties = new Properties();
+    try (InputStream in = NmeaAllocationBudget.class.getResourceAsStream(resource))
+    {
+      if (in == null)
+        throw new IOException("Missing " + resource);
+      properties.load(in);
+    }
+    return properties;
+  }
+}
@@ -0,0 +1,292 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+package com.esri.geoevent.adapter.nmea;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * NMEA streams used by the benchmarks, always cut or repeated to an exact
+ * number of sentences so results can be reported per sentence:
+ * <ul>
+ * <li>GGA, GLL, RMC, GSA, VTG: synthetic sentences of a single type,</li>
+ * <li>MIXED: synthetic 1 Hz epochs in the order of a typical receiver (RMC,
+ * VTG, GGA, GSA, 3 GSV, GLL), including the unsupported GSV sentences,</li>
+ * <li>RECORDED: the sample-drive.nmea receiver log,</li>
+ * <li>any other value is read as the path of a log file, so a real recording
+ * can be benchmarked with <code>-p corpus=/path/to/file.nmea</code>.</li>
+ * </ul>
+ * Synthetic corpora are seeded, so every run sees the same bytes.
+ */
+public final class NmeaCorpus
+{
+  /** Sentences in the corpora used per benchmark invocation. */
+  public static final int                SENTENCES       = 4096;
+  /** Sentences in the corpora used for framing, a little over 1 MB. */
+  public static final int                LARGE_SENTENCES = 16384;
+
+  // 2019-06-14T12:00:00Z, the time of the first synthetic epoch
+  private static final long              START_TIME      = 1560513600000L;
+  private static final DateTimeFormatter DATE_FORMAT     = DateTimeFormatter.ofPattern("ddMMyy", Locale.ROOT);
+
+  private NmeaCorpus()
+  {
+  }
+
+  /**
+   * @return the corpus as CR LF terminated sentences.
+   */
+  public static byte[] load(String name, int sentences) throws IOException
+  {
+    List<String> lines;
+    switch (name)
+    {
+      case "GGA":
+      case "GLL":
+      case "RMC":
+      case "GSA":
+      case "VTG":
+      case "MIXED":
+        lines = generate(name, sentences);
+        break;
+      case "RECORDED":
+        lines = read(NmeaCorpus.class.getResourceAsStream("/corpus/sample-drive.nmea"));
+        break;
+      default:
+        lines = read(Files.newInputStream(Paths.get(name)));
+        break;
+    }
+    if (lines.isEmpty())
+      throw new IOException("Empty corpus " + name);
+    ByteArrayOutputStream out = new ByteArrayOutputStream(sentences * 80);
+    for (int i = 0; i < sentences; i++)
+    {
+      byte[] line = lines.get(i % lines.size()).getBytes(StandardCharsets.ISO_8859_1);
+      out.write(line, 0, line.length);
+      out.write('\r');
+      out.write('\n');
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * @return the sentences of the corpus as framed by the adapter.
+   */
+  public static List<byte[]> frame(byte[] corpus)
+  {
+    List<byte[]> sentences = new ArrayList<byte[]>();
+    new NmeaSentenceFramer(512, NmeaSentenceFramer.ChecksumMode.IGNORE).frame(ByteBuffer.wrap(corpus), sentences);
+    return sentences;
+  }
+
+  private static List<String> read(InputStream in) throws IOException
+  {
+    if (in == null)
+      throw new IOException("Corpus not found");
+    List<String> lines = new ArrayList<String>();
+    try (InputStream stream = in)
+    {
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      byte[] chunk = new byte[8192];
+      int read;
+      while ((read = stream.read(chunk)) > 0)
+        buffer.write(chunk, 0, read);
+      for (String line : new String(buffer.toByteArray(), StandardCharsets.ISO_8859_1).split("[\\r\\n]+"))
+      {
+        if (line.startsWith("$") || line.startsWith("!"))
+          lines.add(line);
+      }
+    }
+    return lines;
+  }
+
+  private static List<String> generate(String type, int sentences)
+  {
+    Random random = new Random(42);
+    List<String> lines = new ArrayList<String>(sentences);
+    Track track = new Track(34.0562, -117.1956, 10, random);
+    for (int second = 0; lines.size() < sentences; second++)
+    {
+      track.advance(1, random);
+      Epoch epoch = new Epoch("GP", START_TIME + second * 1000L, track, random);
+      if (type.equals("MIXED"))
+      {
+        lines.add(epoch.rmc());
+        lines.add(epoch.vtg());
+        lines.add(epoch.gga());
+        lines.add(epoch.gsa());
+        for (int i = 1; i <= 3; i++)
+          lines.add(epoch.gsv(i));
+        lines.add(epoch.gll());
+      }
+      else
+        lines.add(epoch.sentence(type));
+    }
+    return lines.subList(0, sentences);
+  }
+
+  /**
+   * @return the sentence with its "*hh" checksum appended.
+   */
+  static String checksum(String sentence)
+  {
+    int checksum = 0;
+    for (int i = 1; i < sentence.length(); i++)
+      checksum ^= sentence.charAt(i);
+    return sentence + String.format(Locale.ROOT, "*%02X", checksum);
+  }
+
+  /**
+   * Position, speed (knots) and course (degrees) of a simulated vehicle,
+   * drifting randomly from one epoch to the next.
+   */
+  static class Track
+  {
+    private double lat;
+    private double lon;
+    private double speed;
+    private double course;
+
+    Track(double lat, double lon, double speed, Random random)
+    {
+      this.lat = lat;
+      this.lon = lon;
+      this.speed = speed;
+      this.course = random.nextDouble() * 360;
+    }
+
+    void advance(double seconds, Random random)
+    {
+      course = (course + random.nextGaussian() * 5 + 360) % 360;
+      speed = Math.max(0, speed + random.nextGaussian());
+      double meters = speed * 0.514444 * seconds;
+      lat += meters * Math.cos(Math.toRadians(course)) / 111320;
+      lon += meters * Math.sin(Math.toRadians(course)) / (111320 * Math.cos(Math.toRadians(lat)));
+    }
+  }
+
+  /**
+   * The sentences a receiver sends for one position fix.
+   */
+  static class Epoch
+  {
+    private final String talker;
+    private final String time;
+    private final String date;
+    private final String lat;
+    private final String lon;
+    private final double speed;
+    private final double course;
+    private final int    satellites;
+    private final double hdop;
+    private final double altitude;
+
+    /**
+     * @param talker
+     *          the talker ID of the sentences, e.g. "GP" or "GN".
+     * @param time
+     *          the UTC time of the fix, in milliseconds since the epoch.
+     */
+    Epoch(String talker, long time, Track track, Random random)
+    {
+      long t = Math.floorMod(time, 86400000L);
+      this.talker = talker;
+      this.time = String.format(Locale.ROOT, "%02d%02d%02d.%02d", t / 3600000, (t / 60000) % 60, (t / 1000) % 60, (t % 1000) / 10);
+      this.date = LocalDate.ofEpochDay(Math.floorDiv(time, 86400000L)).format(DATE_FORMAT);
+      this.lat = degreesMinutes(track.lat, 2, 'N', 'S');
+      this.lon = degreesMinutes(track.lon, 3, 'E', 'W');
+      this.speed = track.speed;
+      this.course = track.course;
+      this.satellites = 7 + random.nextInt(6);
+      this.hdop = 0.7 + random.nextDouble();
+      this.altitude = 400 + random.nextGaussian() * 3;
+    }
+
+    String sentence(String type)
+    {
+      switch (type)
+      {
+        case "GGA":
+          return gga();
+        case "GLL":
+          return gll();
+        case "RMC":
+          return rmc();
+        case "GSA":
+          return gsa();
+        default:
+          return vtg();
+      }
+    }
+
+    String gga()
+    {
+      return checksum(String.format(Locale.ROOT, "$" + talker + "GGA,%s,%s,%s,1,%02d,%.2f,%.1f,M,-32.6,M,,", time, lat, lon, satellites, hdop, altitude));
+    }
+
+    String gll()
+    {
+      return checksum(String.format(Locale.ROOT, "$" + talker + "GLL,%s,%s,%s,A,A", lat, lon, time));
+    }
+
+    String rmc()
+    {
+      return checksum(String.format(Locale.ROOT, "$" + talker + "RMC,%s,A,%s,%s,%.3f,%.2f,%s,,,A", time, lat, lon, speed, course, date));
+    }
+
+    String gsa()
+    {
+      return checksum(String.format(Locale.ROOT, "$" + talker + "GSA,A,3,02,05,12,15,19,24,25,29,,,,,%.2f,%.2f,%.2f", hdop * 1.6, hdop, hdop * 1.3));
+    }
+
+    String vtg()
+    {
+      return checksum(String.format(Locale.ROOT, "$" + talker + "VTG,%.2f,T,,M,%.3f,N,%.3f,K,A", course, speed, speed * 1.852));
+    }
+
+    String gsv(int message)
+    {
+      return checksum(String.format(Locale.ROOT, "$" + talker + "GSV,3,%d,11,%02d,47,083,45,%02d,22,312,38,%02d,61,150,41,%02d,08,047,", message, message * 4 - 3, message * 4 - 2, message * 4 - 1, message * 4));
+    }
+
+    private static String degreesMinutes(double value, int degreeDigits, char positive, char negative)
+    {
+      double abs = Math.abs(value);
+      int degrees = (int) abs;
+      double minutes = (abs - degrees) * 60;
+      return String.format(Locale.ROOT, "%0" + degreeDigits + "d%08.5f,%c", degrees, minutes, value >= 0 ? positive : negative);
+    }
+  }
+}
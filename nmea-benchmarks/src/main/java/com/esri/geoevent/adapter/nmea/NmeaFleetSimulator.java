@@ -0,0 +1,152 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+package com.esri.geoevent.adapter.nmea;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * A fleet of simulated receivers moving around a common area. Each call to
+ * {@link #nextEpoch(int, long, ByteArrayOutputStream)} advances one device and
+ * writes the RMC, VTG, GGA, GSA and GLL sentences of its new fix, with valid
+ * checksums. Devices use the GP or the GN talker ID, and a configurable share
+ * of the sentences is damaged the way a noisy serial line or a dropped
+ * connection damages them:
+ * <ul>
+ * <li>a character of the sentence is changed, so its checksum no longer
+ * matches,</li>
+ * <li>the sentence is cut short and loses its terminator,</li>
+ * <li>line noise is written in front of the sentence.</li>
+ * </ul>
+ * The devices are independent, so different threads can advance different
+ * devices, but a device must always be advanced by the same thread.
+ */
+public class NmeaFleetSimulator
+{
+  /** Sentences written per call to nextEpoch(). */
+  public static final int          SENTENCES_PER_EPOCH = 5;
+
+  private final NmeaCorpus.Track[] tracks;
+  private final String[]           talkers;
+  private final long[]             lastTimes;
+  private final Random[]           randoms;
+  private final double             corruptRatio;
+
+  /**
+   * @param devices
+   *          the number of simulated receivers.
+   * @param gnRatio
+   *          the share of the devices using the GN (multi-constellation)
+   *          talker ID instead of GP.
+   * @param corruptRatio
+   *          the share of the sentences that are damaged.
+   * @param seed
+   *          the seed of the simulation, so runs can be repeated.
+   */
+  public NmeaFleetSimulator(int devices, double gnRatio, double corruptRatio, long seed)
+  {
+    Random random = new Random(seed);
+    this.tracks = new NmeaCorpus.Track[devices];
+    this.talkers = new String[devices];
+    this.lastTimes = new long[devices];
+    this.randoms = new Random[devices];
+    this.corruptRatio = corruptRatio;
+    for (int i = 0; i < devices; i++)
+    {
+      // spread the fleet over about 100 km around Redlands
+      tracks[i] = new NmeaCorpus.Track(34.0562 + (random.nextDouble() - 0.5), -117.1956 + (random.nextDouble() - 0.5), random.nextDouble() * 30, random);
+      talkers[i] = (random.nextDouble() < gnRatio) ? "GN" : "GP";
+      randoms[i] = new Random(random.nextLong());
+    }
+  }
+
+  public int getDeviceCount()
+  {
+    return tracks.length;
+  }
+
+  /**
+   * Moves the device to its position at the given time and writes the
+   * sentences of that fix.
+   *
+   * @param time
+   *          the UTC time of the fix, in milliseconds since the epoch.
+   * @return the number of damaged sentences written.
+   */
+  public int nextEpoch(int device, long time, ByteArrayOutputStream out)
+  {
+    Random random = randoms[device];
+    NmeaCorpus.Track track = tracks[device];
+    if (lastTimes[device] != 0)
+      track.advance(Math.max(0, time - lastTimes[device]) / 1000d, random);
+    lastTimes[device] = time;
+    NmeaCorpus.Epoch epoch = new NmeaCorpus.Epoch(talkers[device], time, track, random);
+    int corrupted = 0;
+    corrupted += write(epoch.rmc(), random, out);
+    corrupted += write(epoch.vtg(), random, out);
+    corrupted += write(epoch.gga(), random, out);
+    corrupted += write(epoch.gsa(), random, out);
+    corrupted += write(epoch.gll(), random, out);
+    return corrupted;
+  }
+
+  private int write(String sentence, Random random, ByteArrayOutputStream out)
+  {
+    byte[] bytes = sentence.getBytes(StandardCharsets.ISO_8859_1);
+    if (corruptRatio <= 0 || random.nextDouble() >= corruptRatio)
+    {
+      out.write(bytes, 0, bytes.length);
+      out.write('\r');
+      out.write('\n');
+      return 0;
+    }
+    switch (random.nextInt(3))
+    {
+      case 0:
+        // flip a bit of a character between the address field and the
+        // checksum, keeping it printable
+        int index = 7 + random.nextInt(Math.max(1, bytes.length - 10));
+        bytes[index] = (byte) (bytes[index] ^ 0x01);
+        out.write(bytes, 0, bytes.length);
+        out.write('\r');
+        out.write('\n');
+        break;
+
+      case 1:
+        out.write(bytes, 0, 1 + random.nextInt(bytes.length - 1));
+        break;
+
+      default:
+        int noise = 1 + random.nextInt(16);
+        for (int i = 0; i < noise; i++)
+          out.write(0x20 + random.nextInt(0x5f));
+        out.write(bytes, 0, bytes.length);
+        out.write('\r');
+        out.write('\n');
+        break;
+    }
+    return 1;
+  }
+}
@@ -0,0 +1,105 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+package com.esri.geoevent.adapter.nmea;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Framing of a stream received in buffers of different sizes, in sentences
+ * per second, on one thread and in parallel chunks for the buffers of at
+ * least 256 KB.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class NmeaFramingBenchmark
+{
+  @Param({ "MIXED", "RECORDED" })
+  public String              corpus;
+
+  @Param({ "64", "512", "4096", "65536", "1048576" })
+  public int                 bufferSize;
+
+  private ByteBuffer[]       buffers;
+  private NmeaSentenceFramer framer;
+  private List<byte[]>       sentences;
+
+  @Setup
+  public void setup() throws Exception
+  {
+    buffers = NmeaAdapterBenchmark.split(NmeaCorpus.load(corpus, NmeaCorpus.LARGE_SENTENCES), bufferSize);
+    framer = new NmeaSentenceFramer(512, NmeaSentenceFramer.ChecksumMode.VERIFY);
+    sentences = new ArrayList<byte[]>();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NmeaCorpus.LARGE_SENTENCES)
+  public int frame()
+  {
+    int count = 0;
+    for (ByteBuffer buffer : buffers)
+    {
+      buffer.clear();
+      framer.frame(buffer, sentences);
+      count += sentences.size();
+      sentences.clear();
+    }
+    return count;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NmeaCorpus.LARGE_SENTENCES)
+  public int frameParallel()
+  {
+    int count = 0;
+    for (ByteBuffer buffer : buffers)
+    {
+      buffer.clear();
+      framer.frame(buffer, sentences, ForkJoinPool.commonPool(), 262144);
+      count += sentences.size();
+      sentences.clear();
+    }
+    return count;
+  }
+}
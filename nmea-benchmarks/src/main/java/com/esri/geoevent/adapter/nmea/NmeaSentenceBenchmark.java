@@ -0,0 +1,93 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+package com.esri.geoevent.adapter.nmea;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Tokenizing framed sentences into fields and dispatching them to their
+ * translator, in sentences per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class NmeaSentenceBenchmark
+{
+  @Param({ "GGA", "GLL", "RMC", "GSA", "VTG", "MIXED", "RECORDED" })
+  public String               corpus;
+
+  private byte[][]            messages;
+  private NmeaSentence        sentence;
+  private NmeaTranslatorTable translatorTable;
+
+  @Setup
+  public void setup() throws Exception
+  {
+    List<byte[]> framed = NmeaCorpus.frame(NmeaCorpus.load(corpus, NmeaCorpus.SENTENCES));
+    messages = framed.toArray(new byte[framed.size()][]);
+    sentence = new NmeaSentence();
+    translatorTable = NmeaStubs.translatorTable();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NmeaCorpus.SENTENCES)
+  public void tokenize(Blackhole blackhole)
+  {
+    for (byte[] message : messages)
+    {
+      sentence.reset(message);
+      blackhole.consume(sentence.getFieldCount());
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NmeaCorpus.SENTENCES)
+  public void dispatch(Blackhole blackhole)
+  {
+    for (byte[] message : messages)
+    {
+      sentence.reset(message);
+      blackhole.consume(translatorTable.lookup(sentence));
+      blackhole.consume(NmeaTranslatorTable.talkerOf(sentence));
+    }
+  }
+}
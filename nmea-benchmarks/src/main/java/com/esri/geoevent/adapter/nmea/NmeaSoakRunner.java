@@ -0,0 +1,404 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+package com.esri.geoevent.adapter.nmea;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Soak test of the adapter under the load of a simulated fleet (see
+ * {@link NmeaFleetSimulator}), outside of GeoEvent Server. Generator threads
+ * send the fixes of every device at a fixed rate, either straight to
+ * receive() (one channel per device) or through local TCP connections read
+ * the way the TCP transport reads them (one channel per connection). Every
+ * report interval a line with the throughput, the receive-to-delivery latency
+ * percentiles (since the start), the queue depth, the heap and the thread
+ * count is printed, so leaks and backlogs show up over long runs.
+ * <p>
+ * Options are given as name=value arguments:
+ * <ul>
+ * <li>devices (10000): the number of simulated receivers,</li>
+ * <li>rate (1): the fixes per second of each device, 5 sentences each,</li>
+ * <li>duration (600): the length of the run in seconds, 0 to run until
+ * stopped,</li>
+ * <li>report (10): the report interval in seconds,</li>
+ * <li>transport (direct): direct or tcp,</li>
+ * <li>connections (100): the TCP connections the devices are spread over,</li>
+ * <li>threads (4): the generator threads,</li>
+ * <li>segment (0): the largest number of bytes per receive() call or socket
+ * write, each fix being cut at random below it, 0 to send every fix
+ * whole,</li>
+ * <li>readBuffer (8192): the size of the buffer TCP connections are read
+ * into,</li>
+ * <li>corrupt (0.01): the share of damaged sentences,</li>
+ * <li>gn (0.5): the share of devices using the GN talker ID,</li>
+ * <li>seed (42): the seed of the simulation.</li>
+ * </ul>
+ */
+public class NmeaSoakRunner
+{
+  private final Map<String, String> options;
+  private final LongAdder           sent      = new LongAdder();
+  private final LongAdder           corrupted = new LongAdder();
+  private final AtomicLong          maxLag    = new AtomicLong();
+  private final List<Thread>        threads   = new ArrayList<Thread>();
+  private final List<SocketChannel> sockets   = new ArrayList<SocketChannel>();
+  private volatile boolean          running   = true;
+  private NmeaInboundAdapter        adapter;
+  private ServerSocketChannel       server;
+
+  public NmeaSoakRunner(Map<String, String> options)
+  {
+    this.options = options;
+  }
+
+  public static void main(String[] args) throws Exception
+  {
+    Map<String, String> options = new HashMap<String, String>();
+    for (String arg : args)
+    {
+      int separator = arg.indexOf('=');
+      if (separator <= 0)
+        throw new IllegalArgumentException("Expected name=value, got " + arg);
+      options.put(arg.substring(0, separator), arg.substring(separator + 1));
+    }
+    new NmeaSoakRunner(options).run(System.out);
+  }
+
+  public void run(PrintStream out) throws Exception
+  {
+    int devices = getInt("devices", 10000);
+    double rate = getDouble("rate", 1);
+    long duration = getInt("duration", 600) * 1000L;
+    long report = Math.max(1, getInt("report", 10)) * 1000L;
+    boolean tcp = getString("transport", "direct").equalsIgnoreCase("tcp");
+    int connections = Math.max(1, Math.min(devices, getInt("connections", 100)));
+    int generators = Math.max(1, getInt("threads", 4));
+    int segment = getInt("segment", 0);
+    NmeaFleetSimulator simulator = new NmeaFleetSimulator(devices, getDouble("gn", 0.5), getDouble("corrupt", 0.01), getInt("seed", 42));
+
+    adapter = NmeaStubs.adapter(geoEvent -> {});
+    Sink sink;
+    int lanes;
+    if (tcp)
+    {
+      sink = listen(connections, getInt("readBuffer", 8192));
+      lanes = connections;
+    }
+    else
+    {
+      String[] channelIds = new String[devices];
+      for (int i = 0; i < devices; i++)
+        channelIds[i] = "device-" + i;
+      sink = (device, data, offset, length) -> adapter.receive(ByteBuffer.wrap(data, offset, length), channelIds[device]);
+      lanes = devices;
+    }
+
+    // a lane (device or connection) is always served by the same generator,
+    // so the data of a channel is sent in order
+    long start = System.nanoTime();
+    long interval = (long) (1000000000L / rate);
+    for (int i = 0; i < generators; i++)
+    {
+      List<Integer> owned = new ArrayList<Integer>();
+      for (int device = 0; device < devices; device++)
+      {
+        if ((device % lanes) % generators == i)
+          owned.add(device);
+      }
+      Generator generator = new Generator("nmea-soak-generator-" + i, simulator, owned, lanes, sink, segment, start, interval);
+      threads.add(generator);
+      generator.start();
+    }
+
+    out.println(String.format(Locale.ROOT, "# %d devices at %.2f fixes/s, %s, segment %d, %d generator threads", devices, rate, tcp ? "tcp over " + connections + " connections" : "direct", segment, generators));
+    out.println("elapsed_s,sent_per_s,corrupt_per_s,sentences_per_s,events_per_s,p50_us,p99_us,p999_us,max_us,queue,dropped,rejected,invalid,channels,heap_mb,threads,gc_count,gc_ms,lag_ms");
+    NmeaMetrics metrics = adapter.getMetrics();
+    long lastTime = start;
+    long lastSent = 0;
+    long lastCorrupted = 0;
+    long lastSentences = 0;
+    long lastEvents = 0;
+    try
+    {
+      while (duration <= 0 || System.nanoTime() - start < duration * 1000000L)
+      {
+        Thread.sleep(report);
+        long now = System.nanoTime();
+        double seconds = (now - lastTime) / 1e9;
+        long sentNow = sent.sum();
+        long corruptedNow = corrupted.sum();
+        long sentences = metrics.getSentences();
+        long events = metrics.getEmittedEvents();
+        long gcCount = 0;
+        long gcTime = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+        {
+          gcCount += Math.max(0, collector.getCollectionCount());
+          gcTime += Math.max(0, collector.getCollectionTime());
+        }
+        out.println(String.format(Locale.ROOT, "%d,%.0f,%.0f,%.0f,%.0f,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d", (now - start) / 1000000000L, (sentNow - lastSent) / seconds, (corruptedNow - lastCorrupted) / seconds, (sentences - lastSentences) / seconds, (events - lastEvents) / seconds, metrics.getLatencyP50Micros(), metrics.getLatencyP99Micros(), metrics.getLatencyP999Micros(), metrics.getLatencyMaxMicros(), metrics.getQueueDepth(), metrics.getDroppedBuffers(), sum(metrics.getRejectedSentences()), sum(metrics.getValidationFailuresByType()) + metrics.getTranslationErrors() + metrics.getUnknownSentences(), metrics.getChannelCount(), ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / (1024 * 1024), ManagementFactory.getThreadMXBean().getThreadCount(), gcCount, gcTime, maxLag.getAndSet(0) / 1000000L));
+        lastTime = now;
+        lastSent = sentNow;
+        lastCorrupted = corruptedNow;
+        lastSentences = sentences;
+        lastEvents = events;
+      }
+    }
+    finally
+    {
+      stop();
+    }
+  }
+
+  /**
+   * Stops the generators, closes the connections and shuts the adapter down.
+   */
+  public void stop()
+  {
+    running = false;
+    for (Thread thread : threads)
+    {
+      try
+      {
+        thread.join(5000);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    for (SocketChannel socket : sockets)
+      close(socket);
+    close(server);
+    if (adapter != null)
+      adapter.shutdown();
+  }
+
+  /**
+   * Opens the connections to a local server whose readers pass what they read
+   * to the adapter, each connection being a channel.
+   */
+  private Sink listen(int connections, int readBufferSize) throws IOException
+  {
+    server = ServerSocketChannel.open();
+    server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), connections);
+    SocketChannel[] clients = new SocketChannel[connections];
+    for (int i = 0; i < connections; i++)
+    {
+      clients[i] = SocketChannel.open(server.getLocalAddress());
+      clients[i].setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);
+      sockets.add(clients[i]);
+      SocketChannel accepted = server.accept();
+      sockets.add(accepted);
+      Thread reader = new Thread(() -> read(accepted, readBufferSize), "nmea-soak-reader-" + i);
+      reader.setDaemon(true);
+      reader.start();
+    }
+    return (connection, data, offset, length) ->
+      {
+        ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+        while (buffer.hasRemaining())
+          clients[connection].write(buffer);
+      };
+  }
+
+  private void read(SocketChannel socket, int readBufferSize)
+  {
+    ByteBuffer buffer = ByteBuffer.allocate(readBufferSize);
+    try
+    {
+      String channelId = socket.getRemoteAddress().toString();
+      while (socket.read(buffer) >= 0)
+      {
+        buffer.flip();
+        adapter.receive(buffer, channelId);
+        buffer.clear();
+      }
+    }
+    catch (IOException e)
+    {
+      // closed at the end of the run
+    }
+  }
+
+  private String getString(String name, String defaultValue)
+  {
+    String value = options.get(name);
+    return (value != null) ? value : defaultValue;
+  }
+
+  private int getInt(String name, int defaultValue)
+  {
+    String value = options.get(name);
+    return (value != null) ? Integer.parseInt(value) : defaultValue;
+  }
+
+  private double getDouble(String name, double defaultValue)
+  {
+    String value = options.get(name);
+    return (value != null) ? Double.parseDouble(value) : defaultValue;
+  }
+
+  private static long sum(Map<String, Long> counts)
+  {
+    long sum = 0;
+    for (Long count : counts.values())
+      sum += count;
+    return sum;
+  }
+
+  private static void close(Closeable closeable)
+  {
+    try
+    {
+      if (closeable != null)
+        closeable.close();
+    }
+    catch (IOException e)
+    {
+      ;
+    }
+  }
+
+  private interface Sink
+  {
+    void send(int lane, byte[] data, int offset, int length) throws IOException;
+  }
+
+  /**
+   * A ByteArrayOutputStream whose bytes can be sent without copying them.
+   */
+  private static class EpochBuffer extends ByteArrayOutputStream
+  {
+    EpochBuffer()
+    {
+      super(512);
+    }
+
+    byte[] array()
+    {
+      return buf;
+    }
+  }
+
+  private class Generator extends Thread
+  {
+    private final NmeaFleetSimulator simulator;
+    private final int[]              devices;
+    private final int                lanes;
+    private final Sink               sink;
+    private final int                segment;
+    private final long               start;
+    private final long               interval;
+    private final EpochBuffer        buffer = new EpochBuffer();
+    private final Random             random = new Random();
+
+    Generator(String name, NmeaFleetSimulator simulator, List<Integer> devices, int lanes, Sink sink, int segment, long start, long interval)
+    {
+      super(name);
+      setDaemon(true);
+      this.simulator = simulator;
+      this.devices = devices.stream().mapToInt(Integer::intValue).toArray();
+      this.lanes = lanes;
+      this.sink = sink;
+      this.segment = segment;
+      this.start = start;
+      this.interval = interval;
+    }
+
+    @Override
+    public void run()
+    {
+      int deviceCount = simulator.getDeviceCount();
+      long startTime = System.currentTimeMillis();
+      try
+      {
+        for (long round = 0; running; round++)
+        {
+          for (int device : devices)
+          {
+            // the fixes of the devices are spread evenly over the interval
+            long due = start + round * interval + device * interval / deviceCount;
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0 && running)
+              LockSupport.parkNanos(wait);
+            if (!running)
+              return;
+            long lag = -wait;
+            if (lag > maxLag.get())
+              maxLag.set(lag);
+
+            buffer.reset();
+            corrupted.add(simulator.nextEpoch(device, startTime + (due - start) / 1000000L, buffer));
+            send(device % lanes);
+            sent.add(NmeaFleetSimulator.SENTENCES_PER_EPOCH);
+          }
+        }
+      }
+      catch (IOException e)
+      {
+        if (running)
+          e.printStackTrace();
+      }
+    }
+
+    private void send(int lane) throws IOException
+    {
+      byte[] data = buffer.array();
+      int length = buffer.size();
+      if (segment <= 0)
+      {
+        sink.send(lane, data, 0, length);
+        return;
+      }
+      for (int offset = 0; offset < length;)
+      {
+        int size = Math.min(length - offset, 1 + random.nextInt(segment));
+        sink.send(lane, data, offset, size);
+        offset += size;
+      }
+    }
+  }
+}
@@ -0,0 +1,255 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+package com.esri.geoevent.adapter.nmea;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import com.esri.ges.adapter.AdapterDefinition;
+import com.esri.ges.core.geoevent.GeoEvent;
+import com.esri.ges.core.geoevent.GeoEventDefinition;
+import com.esri.ges.manager.geoeventdefinition.GeoEventDefinitionManager;
+import com.esri.ges.messaging.GeoEventCreator;
+import com.esri.ges.messaging.GeoEventListener;
+
+/**
+ * Minimal stand-ins for the GeoEvent Server objects the adapter talks to, so
+ * the adapter can run outside of GeoEvent Server. They are dynamic proxies,
+ * which keeps them independent of the exact SDK interfaces; every call not
+ * handled below returns an empty value. The proxy dispatch (and its argument
+ * array) costs the same before and after a change to the adapter, so it does
+ * not affect comparisons.
+ */
+public final class NmeaStubs
+{
+  /** Definition names produced by the adapter. */
+  public static final String[] DEFINITION_NAMES = { "NMEAGPGGA", "NMEAGPGLL", "NMEAGPRMC", "NMEAGPGSA", "NMEAGPVTG", NmeaFixTranslator.GEOEVENT_DEFINITION_NAME, "AISPositionReportClassA", "AISPositionReportClassB", "AISExtendedPositionReportClassB", "AISStaticVoyageData", "AISStaticDataReport" };
+
+  private NmeaStubs()
+  {
+  }
+
+  /**
+   * @return a GeoEvent storing its fields by index.
+   */
+  public static GeoEvent geoEvent(GeoEventDefinition definition)
+  {
+    Object[] fields = new Object[32];
+    return proxy(GeoEvent.class, (proxy, method, args) ->
+      {
+        switch (method.getName())
+        {
+          case "setField":
+            if (args[0] instanceof Integer)
+              fields[(Integer) args[0]] = args[1];
+            return null;
+          case "getField":
+            return (args[0] instanceof Integer) ? fields[(Integer) args[0]] : null;
+          case "getGeoEventDefinition":
+            return definition;
+          default:
+            return defaultValue(proxy, method, args);
+        }
+      });
+  }
+
+  public static GeoEventDefinition geoEventDefinition(String name)
+  {
+    return proxy(GeoEventDefinition.class, (proxy, method, args) ->
+      {
+        switch (method.getName())
+        {
+          case "getName":
+          case "getGuid":
+            return name;
+          default:
+            return defaultValue(proxy, method, args);
+        }
+      });
+  }
+
+  /**
+   * @return an adapter definition knowing the GeoEvent Definitions of the
+   *         adapter, by name.
+   */
+  public static AdapterDefinition adapterDefinition(Map<String, GeoEventDefinition> definitions)
+  {
+    return proxy(AdapterDefinition.class, (proxy, method, args) ->
+      {
+        switch (method.getName())
+        {
+          case "getGeoEventDefinition":
+            return definitions.get(args[0]);
+          case "getGeoEventDefinitions":
+            return definitions;
+          default:
+            return defaultValue(proxy, method, args);
+        }
+      });
+  }
+
+  /**
+   * @return a creator of stub GeoEvents, resolving definitions by GUID (which
+   *         is the definition name).
+   */
+  public static GeoEventCreator geoEventCreator(Map<String, GeoEventDefinition> definitions)
+  {
+    GeoEventDefinitionManager manager = proxy(GeoEventDefinitionManager.class, (proxy, method, args) ->
+      {
+        switch (method.getName())
+        {
+          case "getGeoEventDefinition":
+            return definitions.get(args[0]);
+          default:
+            return defaultValue(proxy, method, args);
+        }
+      });
+    return proxy(GeoEventCreator.class, (proxy, method, args) ->
+      {
+        switch (method.getName())
+        {
+          case "create":
+            return geoEvent(definitions.get(args[0]));
+          case "getGeoEventDefinitionManager":
+            return manager;
+          default:
+            return defaultValue(proxy, method, args);
+        }
+      });
+  }
+
+  public static GeoEventListener geoEventListener(Consumer<GeoEvent> consumer)
+  {
+    return proxy(GeoEventListener.class, (proxy, method, args) ->
+      {
+        if (method.getName().equals("receive") && args != null && args.length == 1 && args[0] instanceof GeoEvent)
+        {
+          consumer.accept((GeoEvent) args[0]);
+          return null;
+        }
+        return defaultValue(proxy, method, args);
+      });
+  }
+
+  /**
+   * @return the definitions of the adapter, keyed by name.
+   */
+  public static Map<String, GeoEventDefinition> geoEventDefinitions()
+  {
+    Map<String, GeoEventDefinition> definitions = new HashMap<String, GeoEventDefinition>();
+    for (String name : DEFINITION_NAMES)
+      definitions.put(name, geoEventDefinition(name));
+    return definitions;
+  }
+
+  /**
+   * @return an adapter wired to stub definitions and sending its GeoEvents to
+   *         the consumer.
+   */
+  public static NmeaInboundAdapter adapter(Consumer<GeoEvent> consumer) throws Exception
+  {
+    Map<String, GeoEventDefinition> definitions = geoEventDefinitions();
+    NmeaInboundAdapter adapter = new NmeaInboundAdapter(adapterDefinition(definitions));
+    adapter.setGeoEventCreator(geoEventCreator(definitions));
+    adapter.setGeoEventListener(geoEventListener(consumer));
+    adapter.afterPropertiesSet();
+    return adapter;
+  }
+
+  /**
+   * @return the dispatch table of the adapter's translators, indexed the same
+   *         way as in the adapter.
+   */
+  public static NmeaTranslatorTable translatorTable()
+  {
+    NmeaTranslatorTable table = new NmeaTranslatorTable();
+    register(table, "GGA", new NMEAGPGGAMessageTranslator(), 0);
+    register(table, "GLL", new NMEAGPGLLMessageTranslator(), 1);
+    register(table, "RMC", new NMEAGPRMCMessageTranslator(), 2);
+    register(table, "GSA", new NMEAGPGSAMessageTranslator(), 3);
+    register(table, "VTG", new NMEAGPVTGMessageTranslator(), 4);
+    return table;
+  }
+
+  private static void register(NmeaTranslatorTable table, String formatter, NMEAMessageTranslator translator, int index)
+  {
+    translator.setGeoEventDefinitionName(DEFINITION_NAMES[index]);
+    translator.setIndex(index);
+    table.register(formatter, translator);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T proxy(Class<T> type, InvocationHandler handler)
+  {
+    return (T) Proxy.newProxyInstance(NmeaStubs.class.getClassLoader(), new Class<?>[] { type }, handler);
+  }
+
+  private static Object defaultValue(Object proxy, Method method, Object[] args)
+  {
+    switch (method.getName())
+    {
+      case "equals":
+        return proxy == args[0];
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "toString":
+        return method.getDeclaringClass().getSimpleName() + "@stub";
+      default:
+        break;
+    }
+    Class<?> type = method.getReturnType();
+    if (type == boolean.class)
+      return Boolean.FALSE;
+    if (type == int.class)
+      return 0;
+    if (type == long.class)
+      return 0L;
+    if (type == double.class)
+      return 0d;
+    if (type == float.class)
+      return 0f;
+    if (type == short.class)
+      return (short) 0;
+    if (type == byte.class)
+      return (byte) 0;
+    if (type == char.class)
+      return (char) 0;
+    if (type.isAssignableFrom(HashMap.class) && Map.class.isAssignableFrom(type))
+      return new HashMap<Object, Object>();
+    if (type.isAssignableFrom(ArrayList.class) && (List.class.isAssignableFrom(type) || Collection.class.isAssignableFrom(type)))
+      return new ArrayList<Object>();
+    if (type.isAssignableFrom(HashSet.class) && Set.class.isAssignableFrom(type))
+      return new HashSet<Object>();
+    return null;
+  }
+}
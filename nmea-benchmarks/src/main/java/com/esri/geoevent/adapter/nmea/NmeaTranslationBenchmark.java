@@ -0,0 +1,128 @@
+/*
+  Copyright 1995-2019 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+ */
+package com.esri.geoevent.adapter.nmea;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.esri.ges.core.geoevent.GeoEvent;
+
+/**
+ * Validating and translating tokenized sentences into a GeoEvent, or fusing
+ * them into an NmeaFix, in sentences per second. The GeoEvent is reused, its
+ * creation is part of {@link NmeaAdapterBenchmark}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class NmeaTranslationBenchmark
+{
+  @Param({ "GGA", "GLL", "RMC", "GSA", "VTG", "MIXED", "RECORDED" })
+  public String               corpus;
+
+  private byte[][]            messages;
+  private NmeaSentence        sentence;
+  private NmeaTranslatorTable translatorTable;
+  private NmeaChannel         channel;
+  private GeoEvent            geoEvent;
+
+  @Setup
+  public void setup() throws Exception
+  {
+    List<byte[]> framed = NmeaCorpus.frame(NmeaCorpus.load(corpus, NmeaCorpus.SENTENCES));
+    messages = framed.toArray(new byte[framed.size()][]);
+    sentence = new NmeaSentence();
+    translatorTable = NmeaStubs.translatorTable();
+    channel = new NmeaChannel("benchmark", 0, 512, NmeaSentenceFramer.ChecksumMode.VERIFY);
+    geoEvent = NmeaStubs.geoEvent(null);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NmeaCorpus.SENTENCES)
+  public void translate(Blackhole blackhole)
+  {
+    for (byte[] message : messages)
+    {
+      sentence.reset(message);
+      NMEAMessageTranslator translator = translatorTable.lookup(sentence);
+      if (translator == null)
+        continue;
+      try
+      {
+        translator.validate(sentence);
+        geoEvent.setField(0, channel.getId());
+        geoEvent.setField(1, NmeaTranslatorTable.talkerOf(sentence));
+        translator.translate(channel, geoEvent, sentence);
+        blackhole.consume(geoEvent);
+      }
+      catch (Exception error)
+      {
+        // sentences without a fix, as the adapter would log and skip them
+        blackhole.consume(error);
+      }
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NmeaCorpus.SENTENCES)
+  public void fuse(Blackhole blackhole)
+  {
+    for (byte[] message : messages)
+    {
+      sentence.reset(message);
+      NMEAMessageTranslator translator = translatorTable.lookup(sentence);
+      if (translator == null)
+        continue;
+      NmeaFix fix = channel.getFix(NmeaTranslatorTable.talkerOf(sentence));
+      try
+      {
+        translator.validate(sentence);
+        translator.fuse(channel, sentence, fix);
+        blackhole.consume(fix);
+      }
+      catch (Exception error)
+      {
+        blackhole.consume(error);
+      }
+      fix.clear();
+    }
+  }
+}